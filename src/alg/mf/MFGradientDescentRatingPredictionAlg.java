@@ -1,7 +1,7 @@
 package alg.mf;
 
-import profile.Profile;
 import util.reader.DatasetReader;
+import util.reader.RatingMatrix;
 
 import java.util.Random;
 
@@ -42,7 +42,7 @@ public class MFGradientDescentRatingPredictionAlg extends MatrixFactorisationRat
 	 * Used to initialise P, Q 
 	 * @param Mat - the matrix being initialised
 	 */
-	private void initialise(Double[][] Mat){
+	private void initialise(double[][] Mat){
 		for (int i = 0; i < Mat.length; i++)	
 			for (int j = 0; j < Mat[0].length; j++) 
 				Mat[i][j] = numGen.nextDouble();	
@@ -54,7 +54,7 @@ public class MFGradientDescentRatingPredictionAlg extends MatrixFactorisationRat
 	 * Used to initialise user and item biases
 	 * @param Vec - the vector being initialised
 	 */
-	private void initialise(Double[] Vec){
+	private void initialise(double[] Vec){
 		for (int i = 0; i < Vec.length; i++)
 			Vec[i] =  numGen.nextDouble();
 	}
@@ -65,15 +65,21 @@ public class MFGradientDescentRatingPredictionAlg extends MatrixFactorisationRat
 	 */
 	public void fit() {   
 		
+		// the training ratings - rows are users, columns are items
+		RatingMatrix R = reader.getUserItemMatrix();
+		RatingMatrix Rt = reader.getItemUserMatrix();
+		
+		// take in users and items added to the reader since the model was created
+		updateDictionaries();
 		int nitems = Q.length;
 		int nusers = P.length;
 		
 		// Updated parameter values will be stored in new variables 
-		Double [][] Pnew = new Double[nusers][K];
-		Double [][] Qnew = new Double[nitems][K];
-		Double [] itemBiasnew = new Double[nitems];
-		Double [] userBiasnew = new Double[nusers];   // should this be nusers???
-		Double globalBiasnew = 0.0;
+		double [][] Pnew = new double[nusers][K];
+		double [][] Qnew = new double[nitems][K];
+		double [] itemBiasnew = new double[nitems];
+		double [] userBiasnew = new double[nusers];
+		double globalBiasnew = 0.0;
 		
 		// Set all values randomly
 		initialise(P);
@@ -85,22 +91,15 @@ public class MFGradientDescentRatingPredictionAlg extends MatrixFactorisationRat
 		// Set evaluation reporting frequency
 		int reportfreq = numReports > 0 ? (int) Math.ceil(numberPasses * 1.0 / numReports) : 0;
 		
-		Integer [] degu = new Integer[nusers]; // degu[u] = size of user u profile
-		Integer [] degi = new Integer[nitems]; // degi[i] = size of item i profile
-		Double ntrans = 0.0;                   // will store the total number of user-item interactions
+		int [] degu = new int[nusers]; // degu[u] = size of user u profile
+		int [] degi = new int[nitems]; // degi[i] = size of item i profile
+		double ntrans = R.getNumEntries(); // the total number of user-item interactions
 		
-		for (Integer userId : reader.getUserIds() ) {
-			int u = userRow.get(userId);
-			Profile pu = reader.getUserProfiles().get(userId);
-			degu[u] = pu.getIds().size();
-			ntrans += pu.getIds().size();
-		}
+		for (int u = 0; u < R.getNumRows(); u++)
+			degu[u] = R.getRowSize(u);
 		
-		for (Integer itemId : reader.getItemIds() ) {
-			int i = itemRow.get(itemId);
-			Profile iu = reader.getItemProfiles().get(itemId);
-			degi[i] = iu.getIds().size();
-		}
+		for (int i = 0; i < Rt.getNumRows(); i++)
+			degi[i] = Rt.getRowSize(i);
 		
 		// Copy values from P, Q, itemBias, userBias and globalBias into Pnew, Qnew, itemBiasnew, userBiasnew and globalBiasnew 
 		for (int u = 0; u < nusers; u++) {
@@ -122,23 +121,20 @@ public class MFGradientDescentRatingPredictionAlg extends MatrixFactorisationRat
 			
 			double L = 0.0;
 			
-			// Iterate through all users
-			for (Integer userId : reader.getUserIds() ) {
-			
-				Profile pu = reader.getUserProfiles().get(userId);
+			// Iterate through all users - rows of P
+			for (int u = 0; u < R.getNumRows(); u++) {
 				
-				// Iterate through all items
-				for (Integer itemId : pu.getIds()) {
+				// Iterate through all items rated by the user - a sequential scan of the user's row of R
+				for (int entry = R.getRowStart(u); entry < R.getRowEnd(u); entry++) {
 					
-					// Get the row of P and Q corresponding to userId, itemId
-					int u = userRow.get(userId);
-					int i = itemRow.get(itemId);	
+					// Get the row of Q corresponding to the item
+					int i = R.getColumn(entry);
 					
-					// Predict the rating given by userId for itemId
-					Double rhatui = getPrediction(userId,itemId);
+					// Predict the rating given by the user for the item
+					double rhatui = predict(u,i);
 					
-					// Get the actual rating given by userId for itemId
-					Double rui = pu.getValue(itemId);
+					// Get the actual rating given by the user for the item
+					double rui = R.getValue(entry);
 					
 					// Compute the loss
 					L = L+(rhatui-rui)*(rhatui-rui);
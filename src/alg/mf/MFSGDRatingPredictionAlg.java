@@ -1,7 +1,7 @@
 package alg.mf;
 
-import profile.Profile;
 import util.reader.DatasetReader;
+import util.reader.RatingMatrix;
 
 import java.util.Random;
 
@@ -12,16 +12,17 @@ public class MFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredictio
 
 	// Training data is placed in an array in order to be accessed randomly
 	private TrainingTriple[] trainingData;
+	private RatingMatrix trainingMatrix; // the rating matrix trainingData was taken from
 	private Random numGen ;	
 	
 	/** Private class - used to store training data during SGD */
 	private class TrainingTriple {
 		
-	    public final Integer user;
-	    public final Integer item;
-	    public final Double rating;
+	    public final int user;   // the user's row in P
+	    public final int item;   // the item's row in Q
+	    public final double rating;
 	    
-	    public TrainingTriple(Integer user, Integer item, Double rating) {
+	    public TrainingTriple(int user, int item, double rating) {
 	        this.user = user;
 	        this.item = item;
 	        this.rating = rating;
@@ -40,23 +41,27 @@ public class MFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredictio
 		super(reader,k);
 		setDefaultHyperParams();
 		numGen = new Random();
+		setTrainingData(reader.getUserItemMatrix());
+	}
+	
+	/**
+	 * Places the training ratings in trainingData
+	 * @param R - the training ratings - rows are users, columns are items
+	 */
+	private void setTrainingData(RatingMatrix R) {
 		
 		// ntrans determines the length of the training data for SGD
-		int ntrans = 0;                                                          
-		for (Integer userId : reader.getUserIds() ) {
-			Profile pu = reader.getUserProfiles().get(userId);
-			ntrans += pu.getSize();
-		}
+		int ntrans = R.getNumEntries();
 		
 		// Initialise the training data array
 		trainingData = new TrainingTriple[ntrans];
+		trainingMatrix = R;
 		
-		// Add all user-item interactions (userId, itemId, rating) to trainingData
+		// Add all user-item interactions (user row, item row, rating) to trainingData - a sequential scan of R
 		ntrans = 0;
-		for (Integer userId : reader.getUserIds() ) {
-			Profile pu = reader.getUserProfiles().get(userId);
-			for (Integer itemId : pu.getIds()) {
-				trainingData[ntrans] = 	new TrainingTriple(userId,itemId, pu.getValue(itemId)); 
+		for (int u = 0; u < R.getNumRows(); u++) {
+			for (int entry = R.getRowStart(u); entry < R.getRowEnd(u); entry++) {
+				trainingData[ntrans] = 	new TrainingTriple(u, R.getColumn(entry), R.getValue(entry)); 
 				ntrans += 1;
 			}
 		}	
@@ -80,7 +85,7 @@ public class MFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredictio
 	 * Used to initialises the matrices P and Q
 	 * @param Mat - a matrix
 	 */
-	private void initialise(Double[][] Mat)	{
+	private void initialise(double[][] Mat)	{
 		for (int i=0; i<Mat.length;i++)	
 			for (int j=0; j<Mat[0].length;j++)
 				Mat[i][j] = numGen.nextDouble()/Math.sqrt(K);	
@@ -90,7 +95,7 @@ public class MFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredictio
 	 * Used to initialise the bias vectors userBias and itemBias
 	 * @param Vec - a bias vector
 	 */
-	private void initialise(Double[] Vec) {
+	private void initialise(double[] Vec) {
 		for (int i=0; i<Vec.length;i++)
 			Vec[i] =  numGen.nextDouble()/Math.sqrt(K);
 	}
@@ -101,6 +106,12 @@ public class MFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredictio
 	 */
 	public void fit() {
 		
+		// take in ratings, users and items added to the reader since the training data was taken
+		RatingMatrix R = reader.getUserItemMatrix();
+		if (R != trainingMatrix)
+			setTrainingData(R);
+		updateDictionaries();
+		
 		// Initialise matrices and biases
 		initialise(P);
 		initialise(Q);
@@ -126,17 +137,13 @@ public class MFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredictio
 				trainingData[draw] = trainingData[s-1];
 				trainingData[s-1] = sample;
 				
-				// Get the userId, itemId and rating from the sample
-				Integer userId = sample.user;
-				Integer itemId = sample.item;
-				Double rui = sample.rating;
-
-				// Get the corresponding rows of P and Q
-				int u = userRow.get(userId);
-				int i = itemRow.get(itemId);
+				// Get the corresponding rows of P and Q and the rating from the sample
+				int u = sample.user;
+				int i = sample.item;
+				double rui = sample.rating;
 				
 				// Predict the rating
-				Double rhatui = getPrediction(userId,itemId);
+				double rhatui = predict(u,i);
 
 				// Compute the loss
 				L = L + (rhatui-rui)*(rhatui-rui);
@@ -1,24 +1,23 @@
 package alg.mf;
 
 import alg.RatingPredictionAlg;
+import util.IdDictionary;
 import util.reader.DatasetReader;
 
-import java.util.Map;
-import java.util.HashMap;
-
+import java.util.Arrays;
 
 /**
  * Base class for Matrix Factorisation algorithms
  */
 public abstract class MatrixFactorisationRatingPrediction implements RatingPredictionAlg, ModelBasedAlg {
 	
-	protected Double[][] P;
-	protected Double[][] Q;
-	protected Double[] itemBias;
-	protected Double[] userBias;
-	protected Map<Integer,Integer> userRow;  // maps userIds to index numbers in matrices R and P
-	protected Map<Integer,Integer> itemRow;  // maps itemIds to index numbers in matrices R and Q
-	protected Double globalBias;
+	protected double[][] P;
+	protected double[][] Q;
+	protected double[] itemBias;
+	protected double[] userBias;
+	protected IdDictionary userRow;          // maps userIds to index numbers in matrices R and P
+	protected IdDictionary itemRow;          // maps itemIds to index numbers in matrices R and Q
+	protected double globalBias;
 	protected int K;                         // latent dimensions
 	protected DatasetReader reader;
 	
@@ -41,17 +40,10 @@ public abstract class MatrixFactorisationRatingPrediction implements RatingPredi
 		
 		this.reader = reader;
 		
-		// userRow maps userIds to index numbers in matrices R and P
-		userRow = new HashMap<Integer, Integer>();
-		int nusers = 0;
-		for (Integer userId : reader.getUserIds()) 
-			userRow.put(userId, nusers++);
-		
-		// itemRow maps itemIds to index numbers in matrices R and Q
-		itemRow = new HashMap<Integer, Integer>();
-		int nitems = 0;
-		for (Integer itemId : reader.getItemIds())
-			itemRow.put(itemId, nitems++);
+		// userRow and itemRow map userIds and itemIds to index numbers in matrices R, P and Q
+		// the dense id dictionaries are shared with the dataset reader
+		userRow = reader.getUserDictionary();
+		itemRow = reader.getItemDictionary();
 			
 		globalBias = 0.0;
 		setLatentSpaceDim(k);
@@ -67,16 +59,53 @@ public abstract class MatrixFactorisationRatingPrediction implements RatingPredi
 	public void setLatentSpaceDim(int dim) {
 		
 		this.K = dim;
-		int nitems = reader.getItemIds().size();
-		int nusers = reader.getUserIds().size();
+		int nitems = itemRow.size();
+		int nusers = userRow.size();
 
 		// Create matrices
-		P = new Double[nusers][dim];
-		Q = new Double[nitems][dim];
+		P = new double[nusers][dim];
+		Q = new double[nitems][dim];
 		
 		// Create biases
-		itemBias = new Double[nitems];
-		userBias = new Double[nusers];
+		itemBias = new double[nitems];
+		userBias = new double[nusers];
+	}
+	
+	
+	/**
+	 * Brings the model up to date with ratings added to the reader since it was created (see DatasetReader.addRating())
+	 * - takes the reader's current dictionaries and grows P, Q and the biases to their sizes. The dictionaries only
+	 * grow, so the rows of existing users and items are kept; the rows of new ones are 0 until the model is fitted.
+	 * Must be called by fit() after it has taken the reader's rating matrices, so that every row and column in them
+	 * has a row in P or Q.
+	 */
+	protected void updateDictionaries() {
+		userRow = reader.getUserDictionary();
+		itemRow = reader.getItemDictionary();
+		int nusers = userRow.size();
+		int nitems = itemRow.size();
+		if (P.length < nusers) {
+			P = grow(P, nusers);
+			userBias = Arrays.copyOf(userBias, nusers);
+		}
+		if (Q.length < nitems) {
+			Q = grow(Q, nitems);
+			itemBias = Arrays.copyOf(itemBias, nitems);
+		}
+	}
+	
+	
+	/**
+	 * Appends rows of zeros to a matrix
+	 * @param Mat - a matrix with K columns
+	 * @param rows - the number of rows wanted
+	 * @returns a matrix holding the rows of Mat followed by new rows
+	 */
+	private double[][] grow(double[][] Mat, int rows) {
+		double[][] grown = Arrays.copyOf(Mat, rows);
+		for (int i = Mat.length; i < rows; i++)
+			grown[i] = new double[K];
+		return grown;
 	}
 	
 	
@@ -115,6 +144,38 @@ public abstract class MatrixFactorisationRatingPrediction implements RatingPredi
 		this.numReports = numReports;
 	}
 
+	/**==========Model Getters============*/
+
+	/** @returns the number of latent space dimensions */
+	public int getLatentSpaceDim() {
+		return K;
+	}
+	/** @returns the dictionary of user IDs to rows of P */
+	public IdDictionary getUserDictionary() {
+		return userRow;
+	}
+	/** @returns the dictionary of item IDs to rows of Q */
+	public IdDictionary getItemDictionary() {
+		return itemRow;
+	}
+	/** @returns the row of P of a user - the model's own array, which must not be modified */
+	public double[] getUserFactors(final int user) {
+		return P[user];
+	}
+	/** @returns the row of Q of an item - the model's own array, which must not be modified */
+	public double[] getItemFactors(final int item) {
+		return Q[item];
+	}
+	public double getUserBias(final int user) {
+		return userBias[user];
+	}
+	public double getItemBias(final int item) {
+		return itemBias[item];
+	}
+	public double getGlobalBias() {
+		return globalBias;
+	}
+
 	/**
 	 * Fits P, Q and biases to the training data by performing Gradient Descent 
 	 */
@@ -130,12 +191,24 @@ public abstract class MatrixFactorisationRatingPrediction implements RatingPredi
 	 * Performs vector multiplication where R[user][item] = P[user] * Q[item]
 	 * @param userId - a user's id
 	 * @param itemId - an item's id
-	 * @return predicted item rating for a user - R[user][item]
+	 * @return predicted item rating for a user - R[user][item] - or null if the user or item is unknown
 	 */
 	public Double getPrediction(final Integer userId, final Integer itemId) {
-		Integer user = userRow.get(userId);
-		Integer item = itemRow.get(itemId);
-		Double rhat = userBias[user] + itemBias[item] + globalBias;   // add user, item and global biases
+		int user = userRow.getIndex(userId);
+		int item = itemRow.getIndex(itemId);
+		if (user < 0 || item < 0)
+			return null;
+		return predict(user, item);
+	}
+	
+	/**
+	 * Gets the predicted item rating for a user given their matrix rows (see getUserDictionary() and getItemDictionary())
+	 * @param user - the user's row in P
+	 * @param item - the item's row in Q
+	 * @return predicted item rating for a user - R[user][item]
+	 */
+	public double predict(final int user, final int item) {
+		double rhat = userBias[user] + itemBias[item] + globalBias;   // add user, item and global biases
 		for (int j = 0; j < K; j++)
 			rhat += P[user][j] * Q[item][j];                          // vector multiplication R[user][item] = P[user] * Q[item]
 		return rhat;                                                  // return R[user][item]
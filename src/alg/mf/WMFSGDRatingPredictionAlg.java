@@ -1,13 +1,11 @@
 package alg.mf;
 
-import profile.Profile;
 import util.reader.DatasetReader;
+import util.reader.RatingMatrix;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * Weighted Matrix Factorisation with Stochastic Gradient Descent and Negative Sampling
@@ -17,6 +15,7 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 
 	// Training data is placed in an array in order to be accessed randomly
 	private TrainingTriple[] trainingData;
+	private RatingMatrix trainingMatrix; // the rating matrix trainingData was taken from
 	private Random numGen ;
 	// parameter for confidence value
 	private Double alpha;
@@ -26,11 +25,11 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 	/** Private class - used to store training data during SGD */
 	private class TrainingTriple {
 
-	    public final Integer user;
-	    public final Integer item;
-	    public final Double rating;
+	    public final int user;   // the user's row in P
+	    public final int item;   // the item's row in Q
+	    public final double rating;
 
-	    public TrainingTriple(Integer user, Integer item, Double rating) {
+	    public TrainingTriple(int user, int item, double rating) {
 	        this.user = user;
 	        this.item = item;
 	        this.rating = rating;
@@ -49,24 +48,29 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 		super(reader,k);
 		numGen = new Random();
 		setDefaultHyperParams();
+		setTrainingData(reader.getUserItemMatrix());
+	}
+	
+	
+	/**
+	 * Places the training interactions, with their confidence, in trainingData
+	 * @param R - the training ratings - rows are users, columns are items
+	 */
+	private void setTrainingData(RatingMatrix R) {
 		
 		// ntrans determines the length of the training data for SGD
-		int ntrans = 0;
-		for (Integer userId : reader.getUserIds() ) {
-			Profile pu = reader.getUserProfiles().get(userId);
-			ntrans += pu.getSize();
-		}
+		int ntrans = R.getNumEntries();
 		
 		// Initialise the training data array
 		trainingData = new TrainingTriple[ntrans];
+		trainingMatrix = R;
 		
-		// Add all user-item interactions (userId, itemId, rating) to trainingData
+		// Add all user-item interactions (user row, item row, confidence) to trainingData - a sequential scan of R
 		ntrans = 0;
-		for (Integer userId : reader.getUserIds() ) {
-			Profile pu = reader.getUserProfiles().get(userId);
-			for (Integer itemId : pu.getIds()) {
+		for (int u = 0; u < R.getNumRows(); u++) {
+			for (int entry = R.getRowStart(u); entry < R.getRowEnd(u); entry++) {
 				// add confidence = 1 + alpha*rui
-				trainingData[ntrans] = new TrainingTriple(userId, itemId, (1 + alpha*pu.getValue(itemId)));
+				trainingData[ntrans] = new TrainingTriple(u, R.getColumn(entry), (1 + alpha*R.getValue(entry)));
 				ntrans += 1;
 			}
 		}
@@ -111,7 +115,7 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 	 * Used to initialises the matrices P and Q
 	 * @param Mat - a matrix
 	 */
-	private void initialise(Double[][] Mat)	{
+	private void initialise(double[][] Mat)	{
 		for (int i=0; i<Mat.length;i++)	
 			for (int j=0; j<Mat[0].length;j++) 
 				Mat[i][j] = numGen.nextDouble()/Math.sqrt(K);	
@@ -122,7 +126,7 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 	 * Used to initialise the bias vectors userBias and itemBias
 	 * @param Vec - a bias vector
 	 */
-	private void initialise(Double[] Vec) {
+	private void initialise(double[] Vec) {
 		for (int i=0; i<Vec.length;i++)	
 			Vec[i] =  numGen.nextDouble()/Math.sqrt(K);
 	}
@@ -133,6 +137,12 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 	 */
 	public void fit() {   
 		
+		// take in ratings, users and items added to the reader since the training data was taken
+		RatingMatrix R = reader.getUserItemMatrix();
+		if (R != trainingMatrix)
+			setTrainingData(R);
+		updateDictionaries();
+		
 		// Initialise matrices and biases
 		initialise(P);
 		initialise(Q);
@@ -146,7 +156,7 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 		for (int iter = 0; iter < numberPasses; iter++) {
 			
 			// Add negative samples
-			TrainingTriple[] augmentedTrainingData = addNegativeSamples(trainingData);
+			TrainingTriple[] augmentedTrainingData = addNegativeSamples(trainingData, R);
 			int ntrans = augmentedTrainingData.length;
 			double L = 0.0;
 			
@@ -160,23 +170,19 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 				augmentedTrainingData[draw] = augmentedTrainingData[s-1];
 				augmentedTrainingData[s-1] = sample;
 				
-				//Get the userId and itemId
-				Integer userId = sample.user;
-				Integer itemId = sample.item;
-								
 				// confidence cui is already stored in the triple 
-				Double cui = sample.rating;
+				double cui = sample.rating;
 				
 				// rbinui is set to 1 if rui > 0, otherwise set to 0
 				// Since cui = 1 + alpha * rui, and alpha is positive we get the following:
 				int rbinui = cui > 1 ? 1 : 0;
 				
 				// Get the corresponding rows of P and Q
-				int u = userRow.get(userId);
-				int i = itemRow.get(itemId);
+				int u = sample.user;
+				int i = sample.item;
 				
 				// Predict the rating
-				Double rhatui = getPrediction(userId,itemId);     //trying to predict 1 for positive
+				double rhatui = predict(u,i);     //trying to predict 1 for positive
 				
 				// Compute the Loss with the confidence term
 				L = L + cui * (rhatui-rbinui)*(rhatui-rbinui);
@@ -222,48 +228,55 @@ public class WMFSGDRatingPredictionAlg extends MatrixFactorisationRatingPredicti
 	 * These are given a rating of 0, so cui = 1 + alpha*0 = 1
 	 * If h exceeds the number of negative ratings for a user then all available negative samples are added
 	 * @param trainingSet - the training data
+	 * @param R - the training ratings trainingSet was taken from
 	 * @return augmentedTrainingData - traingSet with added negative samples
 	 */
-	private TrainingTriple[] addNegativeSamples(TrainingTriple[] trainingSet) {
+	private TrainingTriple[] addNegativeSamples(TrainingTriple[] trainingSet, RatingMatrix R) {
 		
-		Set<TrainingTriple> negSamples = new HashSet<TrainingTriple>();
-		Map<Integer, Profile> userProfiles = reader.getUserProfiles();
+		List<TrainingTriple> negSamples = new ArrayList<TrainingTriple>();
+		int nitems = R.getNumColumns();
+		
+		// item rows the current user has not rated - reused across users
+		int[] negRated = new int[nitems];
 		
 		// iterate trough users
-		for (Integer userId: reader.getUserIds()) {
-			
-			ArrayList<Integer> negRated = new ArrayList<Integer>();
+		for (int u = 0; u < R.getNumRows(); u++) {
 			
-			// get items the user has rated - these all have positive ratings
-			Set<Integer> ratedItems = userProfiles.get(userId).getIds();
+			// get the number of items the user has rated - these all have positive ratings
+			int numRated = R.getRowSize(u);
 				
-			// iterate through all items in the dataset
-			for (Integer itemId: reader.getItemIds()) {
+			// iterate through all items in the dataset - the user's row of R is sorted by item,
+			// so rated items are skipped by advancing a single cursor through the row
+			int numNegRated = 0;
+			int entry = R.getRowStart(u);
+			for (int i = 0; i < nitems; i++) {
 				
 				// if an item hasn't been rated add to negRated
-				if (!ratedItems.contains(itemId))
-					negRated.add(itemId);		
+				if (entry < R.getRowEnd(u) && R.getColumn(entry) == i)
+					entry++;
+				else
+					negRated[numNegRated++] = i;
 			}
 
-			// if negRated is less than h*ratedItems.size() sample all of negRated
-			if (negRated.size() < (h * ratedItems.size())){
-				for (Integer itemId: negRated) 
-					negSamples.add(new TrainingTriple(userId, itemId, 1.0));  // 1 + alpha*0 = 1				
+			// if negRated is less than h*numRated sample all of negRated
+			if (numNegRated < (h * numRated)){
+				for (int j = 0; j < numNegRated; j++) 
+					negSamples.add(new TrainingTriple(u, negRated[j], 1.0));  // 1 + alpha*0 = 1				
 			} else {
 				
-				// otherwise, take h*ratedItems.size() random samples without replacement, 
+				// otherwise, take h*numRated random samples without replacement, 
 				
 				// shuffle negRated to ensure sampling is random
-				for (int i = 0; i < negRated.size(); i++) {
-					int r = numGen.nextInt(negRated.size());
-					Integer temp = negRated.get(r);
-					negRated.set(r, negRated.get(i));
-					negRated.set(i, temp);				
+				for (int i = 0; i < numNegRated; i++) {
+					int r = numGen.nextInt(numNegRated);
+					int temp = negRated[r];
+					negRated[r] = negRated[i];
+					negRated[i] = temp;				
 				}
 				
-				// take h*ratedItems.size() samples
-				for (int j = 0; j < h * ratedItems.size(); j++) 
-					negSamples.add(new TrainingTriple(userId, negRated.get(j), 1.0)); // 1 + alpha*0 = 1
+				// take h*numRated samples
+				for (int j = 0; j < h * numRated; j++) 
+					negSamples.add(new TrainingTriple(u, negRated[j], 1.0)); // 1 + alpha*0 = 1
 			}
 		}
 		
@@ -0,0 +1,136 @@
+package alg.mf.hnsw;
+
+import alg.mf.MatrixFactorisationRatingPrediction;
+import profile.Profile;
+import util.IdDictionary;
+
+import java.util.Collection;
+
+/**
+ * Finds the items with the highest predicted ratings for a user of a trained matrix factorisation model
+ * without scoring every item, through an HnswIndex over the item factors.
+ * The predicted rating is globalBias + userBias[u] + (P[u] . Q[i] + itemBias[i]), so ranking a user's items is a
+ * maximum inner product search of the query [P[u], 1] over the item vectors x_i = [Q[i], itemBias[i]]. Inner
+ * products only behave as a distance between vectors of equal norm, so each item vector is augmented with one
+ * more value, sqrt(M^2 - |x_i|^2), where M is the largest norm of any x_i: all augmented vectors have norm M,
+ * and the query gets a 0 in that place, which leaves its inner products unchanged (Bachrach et al., 2014).
+ * The index is a snapshot of the model when it is constructed - it must be rebuilt if the model is refitted.
+ */
+public class FactorIndex {
+
+	private final MatrixFactorisationRatingPrediction model; // the trained model
+	private final IdDictionary items;  // the item dictionary - the nodes of the index are item rows of Q
+	private final int dim;             // the number of latent space dimensions
+	private final HnswIndex index;     // the graph over the augmented item vectors
+
+	/**
+	 * Constructor - indexes the item factors with the default HnswIndex parameters
+	 * @param model - the trained model
+	 */
+	public FactorIndex(final MatrixFactorisationRatingPrediction model) {
+		this(model, HnswIndex.DEFAULT_M, HnswIndex.DEFAULT_EF_CONSTRUCTION);
+	}
+
+	/**
+	 * Constructor - indexes the item factors
+	 * @param model - the trained model
+	 * @param m - the number of links per node on the upper layers of the graph
+	 * @param efConstruction - the number of nodes kept while searching for the links of a new node
+	 */
+	public FactorIndex(final MatrixFactorisationRatingPrediction model, final int m, final int efConstruction) {
+		this.model = model;
+		this.items = model.getItemDictionary();
+		this.dim = model.getLatentSpaceDim();
+
+		int n = items.size();
+		double[][] vectors = new double[n][dim + 2];
+		double[] squaredNorms = new double[n];
+		double maxSquaredNorm = 0;
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(model.getItemFactors(i), 0, vectors[i], 0, dim);
+			vectors[i][dim] = model.getItemBias(i);
+			for (int j = 0; j <= dim; j++)
+				squaredNorms[i] += vectors[i][j] * vectors[i][j];
+			maxSquaredNorm = Math.max(maxSquaredNorm, squaredNorms[i]);
+		}
+		for (int i = 0; i < n; i++)
+			vectors[i][dim + 1] = Math.sqrt(Math.max(0, maxSquaredNorm - squaredNorms[i]));
+		this.index = new HnswIndex(vectors, m, efConstruction, HnswIndex.DEFAULT_SEED);
+	}
+
+	/** @returns the query vector of a user, [P[u], 1, 0] */
+	private double[] query(final int user) {
+		double[] query = new double[dim + 2];
+		System.arraycopy(model.getUserFactors(user), 0, query, 0, dim);
+		query[dim] = 1;
+		return query;
+	}
+
+	/**
+	 * Gets the items with the highest predicted ratings for a user (approximately)
+	 * @param userId - a user's id
+	 * @param n - the number of items
+	 * @param ef - the number of items kept during the search - larger values raise recall and cost
+	 * @returns a Profile of the items' predicted ratings, or null if the user is unknown
+	 */
+	public Profile getTopN(final Integer userId, final int n, final int ef) {
+		int user = model.getUserDictionary().getIndex(userId);
+		if (user < 0)
+			return null;
+		Profile scores = new Profile(userId);
+		for (int item : index.search(query(user), n, ef))
+			scores.addDouble(items.getId(item), model.predict(user, item));
+		return scores;
+	}
+
+	/**
+	 * Gets the items with the highest predicted ratings for a user by scoring every item, as a reference
+	 * for the approximate search
+	 * @param userId - a user's id
+	 * @param n - the number of items
+	 * @returns a Profile of the items' predicted ratings, or null if the user is unknown
+	 */
+	public Profile getExactTopN(final Integer userId, final int n) {
+		int user = model.getUserDictionary().getIndex(userId);
+		if (user < 0)
+			return null;
+		ScoredHeap best = new ScoredHeap(false, n + 1);
+		for (int item = 0; item < items.size(); item++) {
+			best.push(item, model.predict(user, item));
+			if (best.size() > n)
+				best.pop();
+		}
+		Profile scores = new Profile(userId);
+		for (; !best.isEmpty(); best.pop())
+			scores.addDouble(items.getId(best.topNode()), best.topScore());
+		return scores;
+	}
+
+	/**
+	 * Measures the recall of the approximate search: the fraction of the exact top-N items that it finds
+	 * @param userIds - the users to be queried
+	 * @param n - the number of items per user
+	 * @param ef - the number of items kept during the search
+	 * @returns the mean recall over the known users, or 0 if there are none
+	 */
+	public double getRecall(final Collection<Integer> userIds, final int n, final int ef) {
+		long found = 0;
+		long total = 0;
+		for (Integer userId : userIds) {
+			Profile exact = getExactTopN(userId, n);
+			if (exact == null)
+				continue;
+			Profile approximate = getTopN(userId, n, ef);
+			for (Integer itemId : exact.getIds())
+				if (approximate.contains(itemId))
+					found++;
+			total += exact.getSize();
+		}
+		return (total > 0) ? (double) found / total : 0;
+	}
+
+	/** @returns the graph over the item vectors */
+	public HnswIndex getIndex() {
+		return index;
+	}
+}
@@ -0,0 +1,62 @@
+package alg.mf.hnsw;
+
+import alg.Recommender;
+import profile.Profile;
+import util.reader.DatasetReader;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top-N recommendation from a matrix factorisation model through a FactorIndex - the counterpart of a
+ * RatingPredictionRecommender over the model, which predicts a rating for every candidate item.
+ * Only the items found by the index are scored, so recommendations are approximate and limited in number:
+ * for each user, numRecommendations items plus as many as the user has rated (which are left out) are retrieved.
+ */
+public class FactorIndexRecommender extends Recommender {
+
+	private FactorIndex index;
+	private int numRecommendations;
+	private int ef;
+	private Map<Integer, Profile> userProfiles;
+
+	/**
+	 * Constructor
+	 * @param reader - the data set reader
+	 * @param index - the index over the model's item factors
+	 * @param numRecommendations - the number of recommendations per user
+	 * @param ef - the number of items kept during each search
+	 */
+	public FactorIndexRecommender(DatasetReader reader, FactorIndex index, int numRecommendations, int ef) {
+		super(reader);
+		this.index = index;
+		this.numRecommendations = numRecommendations;
+		this.ef = ef;
+		this.userProfiles = reader.getUserProfiles();
+	}
+
+	/**
+	 * Gets predicted item rating scores for a given user
+	 * @param userId - a user's id
+	 * @return a Profile of predicted ratings of the items retrieved for the user, or null if the user is unknown
+	 */
+	public Profile getRecommendationScores(Integer userId) {
+		Profile userProfile = userProfiles.get(userId);
+		int rated = (userProfile != null) ? userProfile.getSize() : 0;
+		return index.getTopN(userId, numRecommendations + rated, ef);
+	}
+
+	/**
+	 * Gets recommended items for a given user sorted in order of predicted rating
+	 * @param userId - a user's id
+	 * @return a list of at most numRecommendations itemIds - the sorted recommendations
+	 */
+	public List<Integer> getRecommendations(Integer userId) {
+		Profile scores = getRecommendationScores(userId);
+		Profile userProfile = userProfiles.get(userId);
+		if (userProfile == null)
+			userProfile = new Profile(userId);
+		List<Integer> recs = getRecommendationsFromScores(userProfile, scores);
+		return (recs.size() > numRecommendations) ? recs.subList(0, numRecommendations) : recs;
+	}
+}
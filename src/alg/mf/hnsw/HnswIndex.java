@@ -0,0 +1,322 @@
+package alg.mf.hnsw;
+
+import util.DenseKernels;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A hierarchical navigable small world (HNSW) graph over a set of vectors, for approximate top-N search by
+ * inner product (Malkov and Yashunin, 2018).
+ * Every vector is a node of the bottom layer of the graph, and each node is also placed on the layers above
+ * with probability 1 / m per layer, so that the upper layers are ever sparser. On each layer a node is linked
+ * to at most m close nodes (2 * m on the bottom layer). A search descends greedily from the single node of the
+ * top layer to the bottom layer, then explores the bottom layer best-first, keeping the ef best nodes found so
+ * far - a larger ef raises recall at the cost of more inner products. The graph is built by searching for each
+ * new node in turn, with efConstruction in place of ef.
+ * Closeness is the inner product, which behaves as a distance only if all vectors have the same norm (then the
+ * larger the inner product, the smaller the Euclidean distance). Vectors of different norms should be augmented
+ * first, as by FactorIndex. Queries may have any norm.
+ * The graph is read-only once built, so it may be searched from several threads.
+ */
+public class HnswIndex {
+
+	public static final int DEFAULT_M = 16;
+	public static final int DEFAULT_EF_CONSTRUCTION = 100;
+	public static final long DEFAULT_SEED = 42L;
+
+	private final double[][] vectors; // the vectors, one per node
+	private final int m;              // the number of links per node on the upper layers
+	private final int maxLinks0;      // the number of links per node on the bottom layer
+	private final int efConstruction; // the number of nodes kept while searching for a new node's links
+	private final int[][][] links;    // links[node][layer] = the node's links on the layer
+	private int entryPoint;           // the node of the top layer
+	private int topLayer;             // the top layer
+
+	// marks the nodes visited by a search, per thread - a node is visited if its mark equals the current epoch
+	private final ThreadLocal<Visited> visited;
+
+	private static class Visited {
+		int[] marks;
+		int epoch;
+
+		Visited(final int n) {
+			marks = new int[n];
+			epoch = 0;
+		}
+
+		/** Starts a new search, forgetting all visits */
+		void reset() {
+			if (++epoch == Integer.MAX_VALUE) {
+				Arrays.fill(marks, 0);
+				epoch = 1;
+			}
+		}
+
+		/** @returns true if the node had not been visited yet */
+		boolean visit(final int node) {
+			if (marks[node] == epoch)
+				return false;
+			marks[node] = epoch;
+			return true;
+		}
+	}
+
+	/**
+	 * Constructor - builds the graph with default parameters
+	 * @param vectors - the vectors, all of the same length
+	 */
+	public HnswIndex(final double[][] vectors) {
+		this(vectors, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_SEED);
+	}
+
+	/**
+	 * Constructor - builds the graph
+	 * @param vectors - the vectors, all of the same length
+	 * @param m - the number of links per node on the upper layers (twice as many on the bottom layer)
+	 * @param efConstruction - the number of nodes kept while searching for the links of a new node
+	 * @param seed - seeds the choice of each node's layers
+	 */
+	public HnswIndex(final double[][] vectors, final int m, final int efConstruction, final long seed) {
+		if (m < 2 || efConstruction < 1)
+			throw new IllegalArgumentException("m must be at least 2 and efConstruction positive: " + m + ", " + efConstruction);
+		this.vectors = vectors;
+		this.m = m;
+		this.maxLinks0 = 2 * m;
+		this.efConstruction = efConstruction;
+		int n = vectors.length;
+		this.links = new int[n][][];
+		this.entryPoint = -1;
+		this.topLayer = -1;
+		this.visited = ThreadLocal.withInitial(() -> new Visited(n));
+
+		Random random = new Random(seed);
+		double levelScale = 1 / Math.log(m);
+		for (int node = 0; node < n; node++)
+			insert(node, (int) (-Math.log(1 - random.nextDouble()) * levelScale));
+	}
+
+	/**
+	 * Adds a node to the graph
+	 * @param node - the node
+	 * @param layer - the node's top layer
+	 */
+	private void insert(final int node, final int layer) {
+		links[node] = new int[layer + 1][];
+		for (int l = 0; l <= layer; l++)
+			links[node][l] = new int[0];
+		if (entryPoint < 0) {
+			entryPoint = node;
+			topLayer = layer;
+			return;
+		}
+
+		double[] vector = vectors[node];
+		int closest = entryPoint;
+		for (int l = topLayer; l > layer; l--)
+			closest = searchGreedy(vector, closest, l);
+
+		ScoredHeap candidates = new ScoredHeap(true, efConstruction);
+		ScoredHeap results = new ScoredHeap(false, efConstruction + 1);
+		int[] entries = { closest };
+		for (int l = Math.min(layer, topLayer); l >= 0; l--) {
+			int found = searchLayer(vector, entries, efConstruction, l, candidates, results);
+			int[] nodes = new int[found];
+			double[] scores = new double[found];
+			drainDescending(results, nodes, scores);
+
+			int maxLinks = (l == 0) ? maxLinks0 : m;
+			links[node][l] = selectLinks(nodes, scores, found, m);
+			for (int neighbour : links[node][l])
+				link(neighbour, node, l, maxLinks);
+			entries = nodes;
+		}
+
+		if (layer > topLayer) {
+			entryPoint = node;
+			topLayer = layer;
+		}
+	}
+
+	/**
+	 * Links a node to a new neighbour, re-selecting its links if it has too many
+	 */
+	private void link(final int node, final int neighbour, final int layer, final int maxLinks) {
+		int[] current = links[node][layer];
+		int[] extended = Arrays.copyOf(current, current.length + 1);
+		extended[current.length] = neighbour;
+		if (extended.length <= maxLinks) {
+			links[node][layer] = extended;
+			return;
+		}
+
+		// sort the links by descending inner product with the node
+		double[] scores = new double[extended.length];
+		for (int k = 0; k < extended.length; k++)
+			scores[k] = DenseKernels.dot(vectors[node], vectors[extended[k]]);
+		for (int k = 1; k < extended.length; k++) {
+			int v = extended[k];
+			double s = scores[k];
+			int j = k - 1;
+			for (; j >= 0 && scores[j] < s; j--) {
+				extended[j + 1] = extended[j];
+				scores[j + 1] = scores[j];
+			}
+			extended[j + 1] = v;
+			scores[j + 1] = s;
+		}
+		links[node][layer] = selectLinks(extended, scores, extended.length, maxLinks);
+	}
+
+	/**
+	 * Selects the links of a node from candidates with the heuristic of the HNSW paper: a candidate is skipped if
+	 * it is closer to an already selected link than to the node, so that the links spread in different directions
+	 * rather than crowding into one cluster. Skipped candidates fill any remaining places.
+	 * @param nodes - the candidates in descending order of score
+	 * @param scores - the inner products of the candidates with the node
+	 * @param count - the number of candidates
+	 * @param maxLinks - the number of links to select
+	 * @returns the links
+	 */
+	private int[] selectLinks(final int[] nodes, final double[] scores, final int count, final int maxLinks) {
+		int[] selected = new int[Math.min(count, maxLinks)];
+		int numSelected = 0;
+		boolean[] skipped = new boolean[count];
+		for (int k = 0; k < count && numSelected < selected.length; k++) {
+			double[] candidate = vectors[nodes[k]];
+			boolean diverse = true;
+			for (int j = 0; j < numSelected && diverse; j++)
+				if (DenseKernels.dot(candidate, vectors[selected[j]]) > scores[k])
+					diverse = false;
+			if (diverse)
+				selected[numSelected++] = nodes[k];
+			else
+				skipped[k] = true;
+		}
+		for (int k = 0; k < count && numSelected < selected.length; k++)
+			if (skipped[k])
+				selected[numSelected++] = nodes[k];
+		return selected;
+	}
+
+	/**
+	 * Walks a layer greedily towards a query
+	 * @returns the node reached, whose links on the layer are no closer to the query
+	 */
+	private int searchGreedy(final double[] query, final int start, final int layer) {
+		int current = start;
+		double best = DenseKernels.dot(query, vectors[current]);
+		boolean moved = true;
+		while (moved) {
+			moved = false;
+			for (int neighbour : links[current][layer]) {
+				double score = DenseKernels.dot(query, vectors[neighbour]);
+				if (score > best) {
+					best = score;
+					current = neighbour;
+					moved = true;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Searches a layer best-first from entry nodes
+	 * @param query - the query vector
+	 * @param entries - the entry nodes
+	 * @param ef - the number of nodes kept
+	 * @param candidates - an empty max-heap, for the nodes to be expanded
+	 * @param results - an empty min-heap, which receives the ef best nodes found
+	 * @returns the number of nodes in results
+	 */
+	private int searchLayer(final double[] query, final int[] entries, final int ef, final int layer,
+			final ScoredHeap candidates, final ScoredHeap results) {
+		Visited marks = visited.get();
+		marks.reset();
+		candidates.clear();
+		results.clear();
+		for (int entry : entries) {
+			if (marks.visit(entry)) {
+				double score = DenseKernels.dot(query, vectors[entry]);
+				candidates.push(entry, score);
+				results.push(entry, score);
+				if (results.size() > ef)
+					results.pop();
+			}
+		}
+
+		while (!candidates.isEmpty()) {
+			int node = candidates.topNode();
+			double score = candidates.topScore();
+			if (results.size() >= ef && score < results.topScore())
+				break; // every remaining candidate is worse than the worst result
+			candidates.pop();
+			for (int neighbour : links[node][layer]) {
+				if (!marks.visit(neighbour))
+					continue;
+				double s = DenseKernels.dot(query, vectors[neighbour]);
+				if (results.size() < ef || s > results.topScore()) {
+					candidates.push(neighbour, s);
+					results.push(neighbour, s);
+					if (results.size() > ef)
+						results.pop();
+				}
+			}
+		}
+		return results.size();
+	}
+
+	/** Empties a min-heap into arrays in descending order of score */
+	private static void drainDescending(final ScoredHeap heap, final int[] nodes, final double[] scores) {
+		for (int k = heap.size() - 1; k >= 0; k--) {
+			nodes[k] = heap.topNode();
+			scores[k] = heap.topScore();
+			heap.pop();
+		}
+	}
+
+	/**
+	 * Finds the nodes with the largest inner products with a query (approximately)
+	 * @param query - the query vector, of the same length as the indexed vectors
+	 * @param n - the number of nodes to be found
+	 * @param ef - the number of nodes kept during the search, raised to n if smaller
+	 * @returns the nodes found, in descending order of inner product
+	 */
+	public int[] search(final double[] query, final int n, final int ef) {
+		if (entryPoint < 0 || n <= 0)
+			return new int[0];
+		int closest = entryPoint;
+		for (int l = topLayer; l > 0; l--)
+			closest = searchGreedy(query, closest, l);
+
+		int width = Math.max(ef, n);
+		ScoredHeap candidates = new ScoredHeap(true, width);
+		ScoredHeap results = new ScoredHeap(false, width + 1);
+		int found = searchLayer(query, new int[] { closest }, width, 0, candidates, results);
+		int[] nodes = new int[found];
+		double[] scores = new double[found];
+		drainDescending(results, nodes, scores);
+		return (found > n) ? Arrays.copyOf(nodes, n) : nodes;
+	}
+
+	/** @returns the number of nodes */
+	public int size() {
+		return vectors.length;
+	}
+
+	/** @returns the number of links per node on the upper layers */
+	public int getM() {
+		return m;
+	}
+
+	/** @returns the number of nodes kept while searching for the links of a new node */
+	public int getEfConstruction() {
+		return efConstruction;
+	}
+
+	/** @returns the top layer of the graph, or -1 if it is empty */
+	public int getTopLayer() {
+		return topLayer;
+	}
+}
@@ -0,0 +1,91 @@
+package alg.mf.hnsw;
+
+import java.util.Arrays;
+
+/**
+ * A binary heap of (node, score) entries held in parallel primitive arrays, so that the graph searches do not
+ * allocate an object per visited node. The top is the entry with the highest score (a max-heap) or the
+ * lowest score (a min-heap).
+ */
+class ScoredHeap {
+
+	private final boolean max; // true if the top is the highest score
+	private int[] nodes;
+	private double[] scores;
+	private int size;
+
+	/**
+	 * Constructor
+	 * @param max - true for a max-heap, false for a min-heap
+	 * @param capacity - the initial capacity, which grows as required
+	 */
+	ScoredHeap(final boolean max, final int capacity) {
+		this.max = max;
+		this.nodes = new int[Math.max(1, capacity)];
+		this.scores = new double[nodes.length];
+		this.size = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	int topNode() {
+		return nodes[0];
+	}
+
+	double topScore() {
+		return scores[0];
+	}
+
+	void push(final int node, final double score) {
+		if (size == nodes.length) {
+			nodes = Arrays.copyOf(nodes, 2 * size);
+			scores = Arrays.copyOf(scores, 2 * size);
+		}
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!above(score, scores[parent]))
+				break;
+			nodes[i] = nodes[parent];
+			scores[i] = scores[parent];
+			i = parent;
+		}
+		nodes[i] = node;
+		scores[i] = score;
+	}
+
+	/** Removes the top entry - read it first with topNode() and topScore() */
+	void pop() {
+		int node = nodes[--size];
+		double score = scores[size];
+		int i = 0;
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && above(scores[child + 1], scores[child]))
+				child++;
+			if (!above(scores[child], score))
+				break;
+			nodes[i] = nodes[child];
+			scores[i] = scores[child];
+			i = child;
+		}
+		nodes[i] = node;
+		scores[i] = score;
+	}
+
+	/** @returns true if score a belongs above score b */
+	private boolean above(final double a, final double b) {
+		return max ? a > b : a < b;
+	}
+}
@@ -2,12 +2,15 @@ package alg.np;
 
 import alg.RatingPredictionAlg;
 import util.reader.DatasetReader;
+import util.reader.RatingListener;
 import profile.Profile;
 
 /**
- * Baseline recommender - simply predicts the average rating for an item
+ * Baseline recommender - simply predicts the average rating for an item.
+ * The item means are kept up to date as ratings are added to the dataset reader while the algorithm is registered
+ * with it as a RatingListener (see DatasetReader.addRatingListener() and removeRatingListener()).
  */
-public class ItemMeanPredictionAlg implements RatingPredictionAlg {
+public class ItemMeanPredictionAlg implements RatingPredictionAlg, RatingListener {
 	
 	private DatasetReader reader;
 	private Profile meanItemScores;
@@ -25,6 +28,14 @@ public class ItemMeanPredictionAlg implements RatingPredictionAlg {
 		}
 	}
 	
+	/**
+	 * Updates the mean rating of an item when a rating is added - the item profile maintains its own statistics,
+	 * so this takes constant time
+	 */
+	public void ratingAdded(final int userId, final int itemId, final double rating, final double previous) {
+		meanItemScores.addDouble(itemId, reader.getItemProfiles().get(itemId).getMeanValue());
+	}
+	
 	
 	/**
 	 * Predicts the average rating for the item in the dataset
@@ -0,0 +1,141 @@
+package alg.np.similarity;
+
+import profile.Profile;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the k strongest similarities offered for one ID in a min-heap, so that a row of the similarity matrix
+ * never holds more than k entries while it is being computed. A similarity is stronger than another if it is
+ * larger, or if it is equal and belongs to the smaller ID, so the retained set does not depend on the order
+ * in which similarities are offered.
+ */
+class BoundedSimilarityHeap {
+
+	private final int k;   // the maximum number of similarities kept
+	private int[] ids;     // ids[0] and sims[0] hold the weakest retained similarity
+	private double[] sims;
+	private int size;
+
+	/**
+	 * Constructor
+	 * @param k - the maximum number of similarities kept
+	 */
+	BoundedSimilarityHeap(final int k) {
+		this.k = k;
+		int capacity = Math.min(k, 16); // grown on demand, as most rows of a sparse matrix hold fewer than k
+		this.ids = new int[capacity];
+		this.sims = new double[capacity];
+		this.size = 0;
+	}
+
+	/** @returns the number of similarities kept */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Offers a similarity
+	 * @param id - the other ID
+	 * @param sim - the similarity
+	 * @returns true if the similarity is kept
+	 */
+	boolean offer(final int id, final double sim) {
+		if (size < k) {
+			if (size == ids.length) {
+				int capacity = (int) Math.min(k, 2L * size);
+				ids = Arrays.copyOf(ids, capacity);
+				sims = Arrays.copyOf(sims, capacity);
+			}
+			ids[size] = id;
+			sims[size] = sim;
+			siftUp(size++);
+			return true;
+		}
+		if (k == 0 || !weaker(ids[0], sims[0], id, sim))
+			return false;
+		ids[0] = id;
+		sims[0] = sim;
+		siftDown(0, size);
+		return true;
+	}
+
+	/**
+	 * Copies the similarities into a new profile in order of descending similarity - the heap is empty afterwards
+	 * @param id - the ID whose similarities are held
+	 * @returns the similarity profile
+	 */
+	Profile toProfile(final Integer id) {
+		sort();
+		Profile profile = new Profile(id);
+		for (int i = 0; i < size; i++)
+			profile.addDouble(ids[i], sims[i]);
+		size = 0;
+		return profile;
+	}
+
+	/**
+	 * Copies the similarities into arrays in order of descending similarity - the heap is empty afterwards
+	 * @param ids - receives the other IDs (at least size() long)
+	 * @param sims - receives the similarities (at least size() long)
+	 * @returns the number of similarities copied
+	 */
+	int drainTo(final int[] ids, final double[] sims) {
+		sort();
+		int n = size;
+		System.arraycopy(this.ids, 0, ids, 0, n);
+		System.arraycopy(this.sims, 0, sims, 0, n);
+		size = 0;
+		return n;
+	}
+
+	/** Heap sort in place - repeatedly moving the weakest similarity to the end leaves the strongest first */
+	private void sort() {
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+	}
+
+	/** @returns true if the similarity of idA is weaker than that of idB */
+	private static boolean weaker(final int idA, final double simA, final int idB, final double simB) {
+		return simA < simB || (simA == simB && idA > idB);
+	}
+
+	private boolean weaker(final int a, final int b) {
+		return weaker(ids[a], sims[a], ids[b], sims[b]);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!weaker(i, parent))
+				return;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, final int end) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= end)
+				return;
+			if (child + 1 < end && weaker(child + 1, child))
+				child++;
+			if (!weaker(child, i))
+				return;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(final int a, final int b) {
+		int id = ids[a];
+		ids[a] = ids[b];
+		ids[b] = id;
+		double sim = sims[a];
+		sims[a] = sims[b];
+		sims[b] = sim;
+	}
+}
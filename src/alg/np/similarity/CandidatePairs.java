@@ -0,0 +1,22 @@
+package alg.np.similarity;
+
+import util.IdDictionary;
+
+/**
+ * Proposes the pairs of items (or users) whose similarity is worth computing, so that the metric need not be
+ * evaluated on every pair. IDs are identified by their dense index in a dictionary.
+ */
+public interface CandidatePairs {
+
+	/**
+	 * @returns the dictionary the candidates are indexed by
+	 */
+	public IdDictionary getDictionary();
+
+	/**
+	 * Get the candidates of an ID - the list may be computed on each call, so callers should keep it while they use it
+	 * @param index - the dense index of the ID
+	 * @returns the dense indices of the candidates in ascending order, excluding the index itself
+	 */
+	public int[] getCandidates(final int index);
+}
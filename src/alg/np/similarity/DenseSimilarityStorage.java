@@ -0,0 +1,203 @@
+package alg.np.similarity;
+
+import profile.Profile;
+import util.IdDictionary;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Stores a symmetric similarity matrix as a packed upper-triangular float array over the dense indices of
+ * an IdDictionary, so that a similarity is a single array access. Absent similarities are stored as NaN.
+ * As the matrix is symmetric, setSimilarity(X, Y, s) also sets the similarity of Y to X, and the diagonal is not stored.
+ * Similarities are held at float precision. getSimilarities() builds a new profile on each call, listing
+ * the other IDs in ascending index order.
+ */
+public class DenseSimilarityStorage implements SimilarityStorage {
+
+	/** The largest number of IDs that fit in a single array (n * (n - 1) / 2 pairs) */
+	public static final int MAX_IDS = 65535;
+
+	private final IdDictionary ids; // maps IDs to rows and columns
+	private final float[] sims;     // the upper triangle without the diagonal, row by row
+	private final int[] rowCounts;  // the number of similarities stored for each ID
+	private int numIds;             // the number of IDs with at least one similarity
+
+	/**
+	 * Constructor - creates an empty storage
+	 * @param ids - the IDs that can hold similarities (at most MAX_IDS)
+	 */
+	public DenseSimilarityStorage(final IdDictionary ids) {
+		if (ids.size() > MAX_IDS)
+			throw new IllegalArgumentException("Too many IDs for dense similarity storage: " + ids.size());
+		this.ids = ids;
+		int n = ids.size();
+		this.sims = new float[(int) ((long) n * (n - 1) / 2)];
+		Arrays.fill(sims, Float.NaN);
+		this.rowCounts = new int[n];
+		this.numIds = 0;
+	}
+
+	/**
+	 * @returns the number of pairs that a storage for n IDs holds
+	 */
+	public static long capacity(final int n) {
+		return (long) n * (n - 1) / 2;
+	}
+
+	/**
+	 * @returns the position of the pair (i, j), i != j, in the packed array
+	 */
+	private int position(final int i, final int j) {
+		int a = Math.min(i, j);
+		int b = Math.max(i, j);
+		int n = ids.size();
+		return (int) ((long) a * (2 * n - a - 1) / 2) + (b - a - 1);
+	}
+
+	public Set<Integer> getIds() {
+		return new AbstractSet<Integer>() {
+			public int size() {
+				return numIds;
+			}
+
+			public boolean contains(final Object o) {
+				if (!(o instanceof Integer))
+					return false;
+				int i = ids.getIndex((Integer) o);
+				return i >= 0 && rowCounts[i] > 0;
+			}
+
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					private int next = advance(0);
+
+					private int advance(int i) {
+						while (i < rowCounts.length && rowCounts[i] == 0)
+							i++;
+						return i;
+					}
+
+					public boolean hasNext() {
+						return next < rowCounts.length;
+					}
+
+					public Integer next() {
+						if (next >= rowCounts.length)
+							throw new NoSuchElementException();
+						int id = ids.getId(next);
+						next = advance(next + 1);
+						return id;
+					}
+				};
+			}
+		};
+	}
+
+	public Profile getSimilarities(final Integer id) {
+		int i = ids.getIndex(id);
+		if (i < 0 || rowCounts[i] == 0)
+			return null;
+		Profile profile = new Profile(id);
+		for (int j = 0; j < rowCounts.length; j++) {
+			if (j != i) {
+				float sim = sims[position(i, j)];
+				if (!Float.isNaN(sim))
+					profile.addDouble(ids.getId(j), sim);
+			}
+		}
+		return profile;
+	}
+
+	public double getSimilarity(final int id1, final int id2) {
+		int i = ids.getIndex(id1);
+		int j = ids.getIndex(id2);
+		if (i < 0 || j < 0 || i == j)
+			return 0;
+		float sim = sims[position(i, j)];
+		return Float.isNaN(sim) ? 0 : sim;
+	}
+
+	/**
+	 * Get a stored similarity by dense index
+	 * @param i - the index of the first ID
+	 * @param j - the index of the second ID
+	 * @returns the similarity, or NaN if it is not stored
+	 */
+	public float getByIndex(final int i, final int j) {
+		return (i == j) ? Float.NaN : sims[position(i, j)];
+	}
+
+	public void setSimilarity(final int id1, final int id2, final double sim) {
+		int i = ids.getIndex(id1);
+		int j = ids.getIndex(id2);
+		if (i < 0 || j < 0)
+			throw new IllegalArgumentException("Unknown ID in dense similarity storage: " + (i < 0 ? id1 : id2));
+		setByIndex(i, j, sim);
+	}
+
+	/**
+	 * Stores a similarity by dense index (in both directions)
+	 * @param i - the index of the first ID
+	 * @param j - the index of the second ID
+	 * @param sim - the similarity
+	 */
+	public void setByIndex(final int i, final int j, final double sim) {
+		if (i == j)
+			return;
+		int position = position(i, j);
+		if (Float.isNaN(sims[position])) {
+			count(i);
+			count(j);
+		}
+		sims[position] = (float) sim;
+	}
+
+	/**
+	 * Stores a similarity by dense index without updating the row counts, so that several threads may fill
+	 * distinct pairs at once (e.g. the tasks of SimilarityMapBuilder) - recount() must be called once they have finished
+	 * @param i - the index of the first ID
+	 * @param j - the index of the second ID
+	 * @param sim - the similarity
+	 */
+	void store(final int i, final int j, final double sim) {
+		if (i != j)
+			sims[position(i, j)] = (float) sim;
+	}
+
+	/**
+	 * Recomputes the row counts from the stored similarities, after store()
+	 * @returns the statistics of the stored similarities (counting both directions of each pair)
+	 */
+	SimilarityStatistics recount() {
+		SimilarityStatistics statistics = new SimilarityStatistics();
+		Arrays.fill(rowCounts, 0);
+		numIds = 0;
+		int n = rowCounts.length;
+		int position = 0;
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++, position++) {
+				float sim = sims[position];
+				if (!Float.isNaN(sim)) {
+					count(i);
+					count(j);
+					statistics.add(sim, 2);
+				}
+			}
+		}
+		return statistics;
+	}
+
+	private void count(final int i) {
+		if (rowCounts[i]++ == 0)
+			numIds++;
+	}
+
+	public void putSimilarities(final Profile similarities) {
+		int id = similarities.getId();
+		similarities.forEach((other, sim) -> setSimilarity(id, other, sim));
+	}
+}
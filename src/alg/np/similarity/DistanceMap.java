@@ -0,0 +1,131 @@
+package alg.np.similarity;
+
+import profile.Profile;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A read-only view of the item-item distances of a SimilarityMap, min-max normalised to the range [0,1]:
+ * distance = (maxSim - sim) / (maxSim - minSim), where pairs without a stored similarity have similarity 0.
+ * Distances are derived from the underlying map on each request, so - unlike a SimilarityMap built from a
+ * MaxMinDistanceMetric - they take no memory and no second pass over the item pairs: the bounds come from the
+ * statistics the map records as it is built (see SimilarityMap.getMinSimilarity()).
+ * As in SimilarityMap, only positive distances are held, listed in the order of the reader's item dictionary;
+ * getSimilarities() builds a new row on each call. getIds() returns every item.
+ * The view reflects later changes to the similarities, but not to the bounds.
+ */
+public class DistanceMap extends SimilarityMap {
+
+	/**
+	 * Constructor - the bounds are the largest stored similarity and the smallest, which is 0 unless every pair
+	 * of items has a stored similarity (as for MaxMinDistanceMetric(simMetric, simMap))
+	 * @param reader - the dataset reader
+	 * @param simMap - the item-item similarities
+	 */
+	public DistanceMap(final DatasetReader reader, final SimilarityMap simMap) {
+		this(reader, simMap, simMap.getMaxSimilarity(), minSimilarity(simMap));
+	}
+
+	/**
+	 * Constructor with input min and max similarities
+	 * @param reader - the dataset reader
+	 * @param simMap - the item-item similarities
+	 * @param max - the similarity mapped to distance 0
+	 * @param min - the similarity mapped to distance 1
+	 */
+	public DistanceMap(final DatasetReader reader, final SimilarityMap simMap, final double max, final double min) {
+		super(new DistanceStorage(reader, simMap, max, min));
+	}
+
+	private static double minSimilarity(final SimilarityMap simMap) {
+		long n = simMap.getIds().size();
+		return (simMap.getNumSimilarities() < n * (n - 1)) ? 0 : simMap.getMinSimilarity();
+	}
+
+	/** @returns the similarity mapped to distance 1 */
+	public double getNormalisationMin() {
+		return ((DistanceStorage) getStorage()).minSim;
+	}
+
+	/** @returns the similarity mapped to distance 0 */
+	public double getNormalisationMax() {
+		return ((DistanceStorage) getStorage()).maxSim;
+	}
+
+	/** @returns the underlying similarity map */
+	public SimilarityMap getSimilarityMap() {
+		return ((DistanceStorage) getStorage()).simMap;
+	}
+
+	/**
+	 * String representation of the DistanceMap - the bounds rather than all distances
+	 */
+	@Override
+	public String toString() {
+		return "DistanceMap[max=" + getNormalisationMax() + ", min=" + getNormalisationMin() + "]";
+	}
+
+	/**
+	 * Derives distances from the underlying map
+	 */
+	private static class DistanceStorage implements SimilarityStorage {
+
+		private final DatasetReader reader;
+		private final IdDictionary items;
+		private final SimilarityMap simMap;
+		private final double maxSim;
+		private final double minSim;
+
+		DistanceStorage(final DatasetReader reader, final SimilarityMap simMap, final double max, final double min) {
+			this.reader = reader;
+			this.items = reader.getItemDictionary();
+			this.simMap = simMap;
+			this.maxSim = max;
+			this.minSim = min;
+		}
+
+		/** @returns the distance of two distinct items */
+		private double distance(final int id1, final int id2) {
+			if (maxSim == minSim)
+				return 0;
+			double d = (maxSim - simMap.getSimilarity(id1, id2)) / (maxSim - minSim);
+			return (d > 0) ? d : 0;
+		}
+
+		public Set<Integer> getIds() {
+			return Collections.unmodifiableSet(reader.getItemIds());
+		}
+
+		public Profile getSimilarities(final Integer id) {
+			if (items.getIndex(id) < 0)
+				return null;
+			Profile row = new Profile(id);
+			for (int j = 0; j < items.size(); j++) {
+				int other = items.getId(j);
+				if (other != id) {
+					double d = distance(id, other);
+					if (d > 0)
+						row.addDouble(other, d);
+				}
+			}
+			return (row.getSize() > 0) ? row : null;
+		}
+
+		public double getSimilarity(final int id1, final int id2) {
+			if (id1 == id2 || items.getIndex(id1) < 0 || items.getIndex(id2) < 0)
+				return 0;
+			return distance(id1, id2);
+		}
+
+		public void setSimilarity(final int id1, final int id2, final double sim) {
+			throw new UnsupportedOperationException("DistanceMap is read-only");
+		}
+
+		public void putSimilarities(final Profile similarities) {
+			throw new UnsupportedOperationException("DistanceMap is read-only");
+		}
+	}
+}
@@ -0,0 +1,714 @@
+package alg.np.similarity;
+
+import profile.CoRatingStats;
+import profile.Profile;
+import profile.SparseVector;
+import similarity.metric.profile.SufficientStatisticsMetric;
+import util.IdDictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Computes the k strongest similarities of each profile under a SufficientStatisticsMetric out of core, for sets
+ * of profiles whose pairwise similarities do not fit on the heap (e.g. all users of MovieLens 20M, or the items of a
+ * full catalogue), and writes them to a file that MappedSimilarityMap serves from a memory mapping.
+ * The build runs in three phases:
+ *   1. the posting lists of the inverted index (e.g. item -> users) are walked in ascending ID order, and the partial
+ *      co-rating statistics of the pairs of profiles met in each list are accumulated in a hash table, which is
+ *      sorted by pair and spilled to a run file whenever it is full;
+ *   2. the runs are k-way merged (in several passes if there are too many to open at once), completing the
+ *      statistics of each pair, from which the metric is evaluated - positive similarities are buffered in both
+ *      directions and spilled to a second set of runs, grouped by row and cut to the k strongest of each row;
+ *   3. those runs are k-way merged by row and the k strongest similarities of each row are written to the file.
+ * Everything that grows with the number of pairs is bounded by the memory budget. The profiles and their inverted
+ * index stay in memory, taking space linear in the number of values (ratings) they hold.
+ * The rows are those of ProfileSimilarityMap(profileMap, metric, k) saved by MappedSimilarityMap, provided the
+ * partial statistics add up exactly, as they do for ratings on a half-star scale - otherwise a similarity may differ
+ * in its last bits, as the partial sums are added in a different order.
+ * Run files are created in the temporary directory and deleted when the build ends. The build runs on the calling
+ * thread.
+ */
+public class ExternalSimilarityBuilder {
+
+	private static final int BYTES_PER_PAIR = 84;       // hash table slot, key and statistics of a pair in phase 1
+	private static final int BYTES_PER_SIMILARITY = 20; // row, column, similarity and sort order of an entry in phase 2
+	private static final int BUFFER_BYTES = 1 << 16;    // the stream buffer of each run file
+	private static final int MAX_FAN_IN = 256;          // the most runs merged at once
+	private static final int MIN_CAPACITY = 1024;       // the fewest pairs or similarities buffered, whatever the budget
+
+	private final Map<Integer,Profile> profileMap;   // the profiles
+	private final SufficientStatisticsMetric metric; // the similarity metric
+	private final int k;                             // the number of similarities kept per profile
+	private long memoryBudget;                       // the bytes available for pairs and similarities
+	private File tempDirectory;                      // where run files are created
+
+	// the inverted index - the profiles' values by column, each posting list in ascending row order
+	private Profile[] profiles;
+	private int[] columnOffsets;
+	private int[] columnRows;
+	private double[] columnValues;
+
+	private List<File> files; // the run files of the current build
+
+	// counts of the last build
+	private long numPairs;
+	private int numPairRuns;
+	private int numSimilarityRuns;
+	private int numMergePasses;
+
+	/**
+	 * Constructor - uses a memory budget of 64MB and the system's temporary directory
+	 * @param profileMap - the profiles
+	 * @param metric - the similarity metric
+	 * @param k - the number of strongest similarities kept for each profile
+	 */
+	public ExternalSimilarityBuilder(final Map<Integer,Profile> profileMap, final SufficientStatisticsMetric metric, final int k) {
+		if (k <= 0)
+			throw new IllegalArgumentException("k must be positive: " + k);
+		this.profileMap = profileMap;
+		this.metric = metric;
+		this.k = k;
+		this.memoryBudget = 64L << 20;
+		this.tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+	}
+
+	/**
+	 * @param memoryBudget - the bytes available for buffering pairs and similarities (and the buffers of the run files
+	 * being merged) - the smaller the budget, the more runs are spilled and merged
+	 */
+	public void setMemoryBudget(final long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @param tempDirectory - the directory in which run files are created
+	 */
+	public void setTempDirectory(final String tempDirectory) {
+		this.tempDirectory = new File(tempDirectory);
+	}
+
+	/** @returns the number of pairs of profiles with common IDs found by the last build */
+	public long getNumPairs() {
+		return numPairs;
+	}
+
+	/** @returns the number of runs of partial pair statistics spilled by the last build */
+	public int getNumPairRuns() {
+		return numPairRuns;
+	}
+
+	/** @returns the number of runs of similarities spilled by the last build */
+	public int getNumSimilarityRuns() {
+		return numSimilarityRuns;
+	}
+
+	/** @returns the number of intermediate merge passes made by the last build */
+	public int getNumMergePasses() {
+		return numMergePasses;
+	}
+
+	/**
+	 * Computes the similarities and writes them to a file (see MappedSimilarityMap)
+	 * @param filename - the path of the file
+	 * @param fingerprint - the fingerprint of the dataset the profiles come from
+	 * @param key - names how the similarities were computed
+	 * @throws IOException if a run file or the similarity file cannot be written
+	 */
+	public void build(final String filename, final long fingerprint, final String key) throws IOException {
+		IdDictionary ids = new IdDictionary(profileMap.keySet());
+		numPairs = 0;
+		numPairRuns = numSimilarityRuns = numMergePasses = 0;
+		files = new ArrayList<File>();
+		try {
+			index(ids);
+			List<Run> pairRuns = spillPairs();
+			columnOffsets = columnRows = null;
+			columnValues = null;
+
+			List<Run> similarityRuns = mergePairs(pairRuns, ids.size());
+			profiles = null;
+
+			SimilarityMapFile.Writer writer = new SimilarityMapFile.Writer(filename, fingerprint, key);
+			try {
+				int[] rowIds = new int[k];
+				float[] rowSims = new float[k];
+				mergeSimilarities(similarityRuns, (row, columns, sims, size) -> {
+					for (int t = 0; t < size; t++) {
+						rowIds[t] = ids.getId(columns[t]);
+						rowSims[t] = (float) sims[t];
+					}
+					writer.writeRow(ids.getId(row), rowIds, rowSims, size);
+				});
+				writer.commit();
+			}
+			finally {
+				writer.close();
+			}
+		}
+		finally {
+			for (File file : files)
+				file.delete();
+			files = null;
+			profiles = null;
+			columnOffsets = columnRows = null;
+			columnValues = null;
+		}
+	}
+
+	/**
+	 * Builds the inverted index of the profiles
+	 * @param ids - the profile dictionary (rows)
+	 */
+	private void index(final IdDictionary ids) {
+		int n = ids.size();
+		profiles = new Profile[n];
+		SparseVector[] vectors = new SparseVector[n];
+		Set<Integer> valueIds = new HashSet<Integer>();
+		int entries = 0;
+		for (int i = 0; i < n; i++) {
+			profiles[i] = profileMap.get(ids.getId(i));
+			vectors[i] = profiles[i].toSparseVector();
+			for (int p = 0; p < vectors[i].size(); p++)
+				valueIds.add(vectors[i].idAt(p));
+			entries += vectors[i].size();
+		}
+		IdDictionary columns = new IdDictionary(valueIds);
+		int m = columns.size();
+
+		// filled by ascending row, so each posting list is sorted by row
+		columnOffsets = new int[m + 1];
+		for (int i = 0; i < n; i++)
+			for (int p = 0; p < vectors[i].size(); p++)
+				columnOffsets[columns.getIndex(vectors[i].idAt(p)) + 1]++;
+		for (int c = 0; c < m; c++)
+			columnOffsets[c + 1] += columnOffsets[c];
+		columnRows = new int[entries];
+		columnValues = new double[entries];
+		int[] next = Arrays.copyOf(columnOffsets, m);
+		for (int i = 0; i < n; i++) {
+			for (int p = 0; p < vectors[i].size(); p++) {
+				int q = next[columns.getIndex(vectors[i].idAt(p))]++;
+				columnRows[q] = i;
+				columnValues[q] = vectors[i].valueAt(p);
+			}
+		}
+	}
+
+	/**
+	 * Phase 1 - accumulates the partial statistics of the pairs (u, v), v < u, of each posting list, in which u's
+	 * values are x, spilling the table whenever it is full
+	 * @returns the runs, in the order in which they were spilled
+	 */
+	private List<Run> spillPairs() throws IOException {
+		PairTable table = new PairTable(memoryBudget);
+		List<Run> runs = new ArrayList<Run>();
+		for (int c = 0; c + 1 < columnOffsets.length; c++) {
+			for (int q = columnOffsets[c]; q < columnOffsets[c + 1]; q++) {
+				long u = columnRows[q];
+				double x = columnValues[q];
+				for (int p = columnOffsets[c]; p < q; p++) {
+					long pair = (u << 32) | columnRows[p];
+					if (!table.add(pair, x, columnValues[p])) {
+						runs.add(table.spill(newRunFile()));
+						table.add(pair, x, columnValues[p]);
+					}
+				}
+			}
+		}
+		if (table.size() > 0 || runs.isEmpty())
+			runs.add(table.spill(newRunFile()));
+		numPairRuns = runs.size();
+		return runs;
+	}
+
+	/**
+	 * Phase 2 - merges the pair runs, evaluates the metric for each pair and spills the positive similarities
+	 * @param runs - the pair runs
+	 * @param n - the number of profiles
+	 * @returns the similarity runs
+	 */
+	private List<Run> mergePairs(List<Run> runs, final int n) throws IOException {
+		int fanIn = getFanIn();
+		while (runs.size() > fanIn) {
+			List<Run> merged = new ArrayList<Run>();
+			for (int from = 0; from < runs.size(); from += fanIn) {
+				File file = newRunFile();
+				DataOutputStream out = openOutput(file);
+				long[] size = new long[1];
+				try {
+					mergePairRuns(runs.subList(from, Math.min(from + fanIn, runs.size())), (pair, stats) -> {
+						writePair(out, pair, stats.getCount(), stats.getSumX(), stats.getSumY(), stats.getSumXX(),
+							stats.getSumYY(), stats.getSumXY());
+						size[0]++;
+					});
+				}
+				finally {
+					out.close();
+				}
+				merged.add(new Run(file, size[0]));
+			}
+			deleteRuns(runs);
+			runs = merged;
+			numMergePasses++;
+		}
+
+		SimilarityBuffer buffer = new SimilarityBuffer(memoryBudget - (long) fanIn * BUFFER_BYTES, n);
+		List<Run> similarityRuns = new ArrayList<Run>();
+		mergePairRuns(runs, (pair, stats) -> {
+			numPairs++;
+			int u = (int) (pair >>> 32);
+			int v = (int) pair;
+			double sim = metric.getSimilarity(profiles[u], profiles[v], stats);
+			if (sim > 0) {
+				if (buffer.remaining() < 2)
+					similarityRuns.add(buffer.spill(newRunFile()));
+				buffer.add(u, v, sim);
+				buffer.add(v, u, sim);
+			}
+		});
+		if (buffer.size() > 0 || similarityRuns.isEmpty())
+			similarityRuns.add(buffer.spill(newRunFile()));
+		deleteRuns(runs);
+		numSimilarityRuns = similarityRuns.size();
+		return similarityRuns;
+	}
+
+	/**
+	 * Receives the complete statistics of each pair, in ascending pair order
+	 */
+	private interface PairSink {
+		void pair(long pair, CoRatingStats stats) throws IOException;
+	}
+
+	/**
+	 * Merges pair runs, adding up the partial statistics of each pair in the order of the runs
+	 */
+	private void mergePairRuns(final List<Run> runs, final PairSink sink) throws IOException {
+		List<PairReader> readers = new ArrayList<PairReader>();
+		PriorityQueue<PairReader> queue = new PriorityQueue<PairReader>((a, b) -> (a.pair != b.pair)
+			? Long.compare(a.pair, b.pair) : Integer.compare(a.order, b.order));
+		try {
+			for (Run run : runs) {
+				PairReader reader = new PairReader(run, readers.size());
+				readers.add(reader);
+				if (reader.next())
+					queue.add(reader);
+			}
+			CoRatingStats stats = new CoRatingStats();
+			while (!queue.isEmpty()) {
+				long pair = queue.peek().pair;
+				stats.reset();
+				while (!queue.isEmpty() && queue.peek().pair == pair) {
+					PairReader reader = queue.poll();
+					stats.add(reader.count, reader.sumX, reader.sumY, reader.sumXX, reader.sumYY, reader.sumXY);
+					if (reader.next())
+						queue.add(reader);
+				}
+				sink.pair(pair, stats);
+			}
+		}
+		finally {
+			for (PairReader reader : readers)
+				reader.close();
+		}
+	}
+
+	/**
+	 * Receives the k strongest similarities of each row, in ascending row order
+	 */
+	private interface RowSink {
+		void row(int row, int[] columns, double[] sims, int size) throws IOException;
+	}
+
+	/**
+	 * Phase 3 - merges similarity runs by row (in several passes if there are too many to open at once), passing
+	 * the k strongest similarities of each row to the sink
+	 */
+	private void mergeSimilarities(List<Run> runs, final RowSink sink) throws IOException {
+		int fanIn = getFanIn();
+		while (runs.size() > fanIn) {
+			List<Run> merged = new ArrayList<Run>();
+			for (int from = 0; from < runs.size(); from += fanIn) {
+				File file = newRunFile();
+				DataOutputStream out = openOutput(file);
+				long[] size = new long[1];
+				try {
+					mergeSimilarityRuns(runs.subList(from, Math.min(from + fanIn, runs.size())), (row, columns, sims, n) -> {
+						for (int t = 0; t < n; t++)
+							writeSimilarity(out, row, columns[t], sims[t]);
+						size[0] += n;
+					});
+				}
+				finally {
+					out.close();
+				}
+				merged.add(new Run(file, size[0]));
+			}
+			deleteRuns(runs);
+			runs = merged;
+			numMergePasses++;
+		}
+		mergeSimilarityRuns(runs, sink);
+		deleteRuns(runs);
+	}
+
+	private void mergeSimilarityRuns(final List<Run> runs, final RowSink sink) throws IOException {
+		List<SimilarityReader> readers = new ArrayList<SimilarityReader>();
+		PriorityQueue<SimilarityReader> queue = new PriorityQueue<SimilarityReader>((a, b) -> (a.row != b.row)
+			? Integer.compare(a.row, b.row) : Integer.compare(a.order, b.order));
+		try {
+			for (Run run : runs) {
+				SimilarityReader reader = new SimilarityReader(run, readers.size());
+				readers.add(reader);
+				if (reader.next())
+					queue.add(reader);
+			}
+			BoundedSimilarityHeap heap = new BoundedSimilarityHeap(k);
+			int[] columns = new int[k];
+			double[] sims = new double[k];
+			while (!queue.isEmpty()) {
+				int row = queue.peek().row;
+				while (!queue.isEmpty() && queue.peek().row == row) {
+					SimilarityReader reader = queue.poll();
+					do
+						heap.offer(reader.column, reader.sim);
+					while (reader.next() && reader.row == row);
+					if (!reader.done())
+						queue.add(reader);
+				}
+				sink.row(row, columns, sims, heap.drainTo(columns, sims));
+			}
+		}
+		finally {
+			for (SimilarityReader reader : readers)
+				reader.close();
+		}
+	}
+
+	/** @returns the number of runs merged at once - their stream buffers take at most half the budget */
+	private int getFanIn() {
+		return (int) Math.max(2, Math.min(MAX_FAN_IN, memoryBudget / (2L * BUFFER_BYTES)));
+	}
+
+	private File newRunFile() throws IOException {
+		File file = File.createTempFile("similarity", ".run", tempDirectory);
+		files.add(file);
+		return file;
+	}
+
+	private void deleteRuns(final List<Run> runs) {
+		for (Run run : runs)
+			run.file.delete();
+	}
+
+	private static DataOutputStream openOutput(final File file) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_BYTES));
+	}
+
+	private static DataInputStream openInput(final File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_BYTES));
+	}
+
+	private static void writePair(final DataOutputStream out, final long pair, final int count, final double sumX,
+			final double sumY, final double sumXX, final double sumYY, final double sumXY) throws IOException {
+		out.writeLong(pair);
+		out.writeInt(count);
+		out.writeDouble(sumX);
+		out.writeDouble(sumY);
+		out.writeDouble(sumXX);
+		out.writeDouble(sumYY);
+		out.writeDouble(sumXY);
+	}
+
+	private static void writeSimilarity(final DataOutputStream out, final int row, final int column, final double sim) throws IOException {
+		out.writeInt(row);
+		out.writeInt(column);
+		out.writeDouble(sim);
+	}
+
+	/**
+	 * A spilled run file and the number of records it holds
+	 */
+	private static class Run {
+		final File file;
+		final long size;
+
+		Run(final File file, final long size) {
+			this.file = file;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Reads the records of a pair run - (u << 32 | v), then the statistics
+	 */
+	private static class PairReader {
+		private final DataInputStream in;
+		private long remaining;
+		final int order; // the position of the run, which orders the partial statistics of a pair
+		long pair;
+		int count;
+		double sumX, sumY, sumXX, sumYY, sumXY;
+
+		PairReader(final Run run, final int order) throws IOException {
+			this.in = openInput(run.file);
+			this.remaining = run.size;
+			this.order = order;
+		}
+
+		/** @returns false if the run is exhausted */
+		boolean next() throws IOException {
+			if (remaining == 0)
+				return false;
+			remaining--;
+			pair = in.readLong();
+			count = in.readInt();
+			sumX = in.readDouble();
+			sumY = in.readDouble();
+			sumXX = in.readDouble();
+			sumYY = in.readDouble();
+			sumXY = in.readDouble();
+			return true;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the records of a similarity run - row, column and similarity, grouped by ascending row
+	 */
+	private static class SimilarityReader {
+		private final DataInputStream in;
+		private long remaining;
+		private boolean done;
+		final int order;
+		int row;
+		int column;
+		double sim;
+
+		SimilarityReader(final Run run, final int order) throws IOException {
+			this.in = openInput(run.file);
+			this.remaining = run.size;
+			this.order = order;
+		}
+
+		/** @returns false if the run is exhausted */
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				done = true;
+				return false;
+			}
+			remaining--;
+			row = in.readInt();
+			column = in.readInt();
+			sim = in.readDouble();
+			return true;
+		}
+
+		boolean done() {
+			return done;
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * An open-addressing hash table of the partial statistics of pairs, with a fixed capacity
+	 */
+	private static class PairTable {
+		private final int capacity; // the most pairs held
+		private final int shift;    // 64 - log2(number of slots)
+		private final long[] slots; // the pair in each slot, or -1 if the slot is empty
+		private final int[] entries; // the entry of the pair in each slot
+		private final long[] pairs;  // the pair of each entry, in insertion order
+		private final int[] counts;
+		private final double[] sums; // sumX, sumY, sumXX, sumYY and sumXY of each entry
+		private int size;
+
+		/**
+		 * Constructor
+		 * @param budget - the bytes available - the slots are a power of two, at least twice the capacity
+		 */
+		PairTable(final long budget) {
+			long numSlots = Long.highestOneBit(Math.max(2L * MIN_CAPACITY, Math.min(1L << 30, 2 * budget / BYTES_PER_PAIR)));
+			this.capacity = (int) (numSlots / 2);
+			this.shift = 64 - Long.numberOfTrailingZeros(numSlots);
+			this.slots = new long[(int) numSlots];
+			this.entries = new int[(int) numSlots];
+			this.pairs = new long[capacity];
+			this.counts = new int[capacity];
+			this.sums = new double[5 * capacity];
+			Arrays.fill(slots, -1);
+		}
+
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Adds common values to the statistics of a pair
+		 * @returns false if the pair is new and the table is full
+		 */
+		boolean add(final long pair, final double x, final double y) {
+			int slot = (int) ((pair * 0x9E3779B97F4A7C15L) >>> shift);
+			while (slots[slot] != pair) {
+				if (slots[slot] == -1) {
+					if (size == capacity)
+						return false;
+					slots[slot] = pair;
+					entries[slot] = size;
+					pairs[size++] = pair;
+					break;
+				}
+				slot = (slot + 1) & (slots.length - 1);
+			}
+			int e = entries[slot];
+			counts[e]++;
+			sums[5 * e] += x;
+			sums[5 * e + 1] += y;
+			sums[5 * e + 2] += x * x;
+			sums[5 * e + 3] += y * y;
+			sums[5 * e + 4] += x * y;
+			return true;
+		}
+
+		/**
+		 * Writes the pairs in ascending order and empties the table
+		 * @param file - the run file
+		 * @returns the run
+		 */
+		Run spill(final File file) throws IOException {
+			Arrays.sort(pairs, 0, size);
+			DataOutputStream out = openOutput(file);
+			try {
+				for (int t = 0; t < size; t++) {
+					int e = entry(pairs[t]);
+					writePair(out, pairs[t], counts[e], sums[5 * e], sums[5 * e + 1], sums[5 * e + 2], sums[5 * e + 3], sums[5 * e + 4]);
+				}
+			}
+			finally {
+				out.close();
+			}
+			Run run = new Run(file, size);
+			Arrays.fill(slots, -1);
+			Arrays.fill(counts, 0, size, 0);
+			Arrays.fill(sums, 0, 5 * size, 0);
+			size = 0;
+			return run;
+		}
+
+		private int entry(final long pair) {
+			int slot = (int) ((pair * 0x9E3779B97F4A7C15L) >>> shift);
+			while (slots[slot] != pair)
+				slot = (slot + 1) & (slots.length - 1);
+			return entries[slot];
+		}
+	}
+
+	/**
+	 * Buffers similarities and spills them grouped by row, keeping the k strongest of each row
+	 */
+	private class SimilarityBuffer {
+		private final int[] rows;
+		private final int[] columns;
+		private final double[] sims;
+		private final int[] order;
+		private final int[] offsets; // per row
+		private int size;
+
+		/**
+		 * Constructor
+		 * @param budget - the bytes available
+		 * @param n - the number of rows
+		 */
+		SimilarityBuffer(final long budget, final int n) {
+			int capacity = (int) Math.max(MIN_CAPACITY, Math.min(Integer.MAX_VALUE - 8, budget / BYTES_PER_SIMILARITY));
+			this.rows = new int[capacity];
+			this.columns = new int[capacity];
+			this.sims = new double[capacity];
+			this.order = new int[capacity];
+			this.offsets = new int[n + 1];
+		}
+
+		int size() {
+			return size;
+		}
+
+		int remaining() {
+			return rows.length - size;
+		}
+
+		void add(final int row, final int column, final double sim) {
+			rows[size] = row;
+			columns[size] = column;
+			sims[size++] = sim;
+		}
+
+		/**
+		 * Writes the similarities grouped by ascending row - at most k per row - and empties the buffer
+		 * @param file - the run file
+		 * @returns the run
+		 */
+		Run spill(final File file) throws IOException {
+			// counting sort by row
+			int n = offsets.length - 1;
+			Arrays.fill(offsets, 0);
+			for (int t = 0; t < size; t++)
+				offsets[rows[t] + 1]++;
+			for (int r = 0; r < n; r++)
+				offsets[r + 1] += offsets[r];
+			for (int t = 0; t < size; t++)
+				order[offsets[rows[t]]++] = t;
+			for (int r = n; r > 0; r--) // restore the row starts
+				offsets[r] = offsets[r - 1];
+			offsets[0] = 0;
+
+			BoundedSimilarityHeap heap = new BoundedSimilarityHeap(k);
+			int[] rowColumns = new int[k];
+			double[] rowSims = new double[k];
+			long written = 0;
+			DataOutputStream out = openOutput(file);
+			try {
+				for (int r = 0; r < n; r++) {
+					int start = offsets[r], end = offsets[r + 1];
+					if (end - start <= k) {
+						for (int p = start; p < end; p++)
+							writeSimilarity(out, r, columns[order[p]], sims[order[p]]);
+						written += end - start;
+					}
+					else {
+						for (int p = start; p < end; p++)
+							heap.offer(columns[order[p]], sims[order[p]]);
+						int m = heap.drainTo(rowColumns, rowSims);
+						for (int t = 0; t < m; t++)
+							writeSimilarity(out, r, rowColumns[t], rowSims[t]);
+						written += m;
+					}
+				}
+			}
+			finally {
+				out.close();
+			}
+			size = 0;
+			return new Run(file, written);
+		}
+	}
+}
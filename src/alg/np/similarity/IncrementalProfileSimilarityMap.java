@@ -0,0 +1,214 @@
+package alg.np.similarity;
+
+import neighbourhood.Neighbourhood;
+import profile.CoRatingStats;
+import profile.IntDoubleMap;
+import profile.Profile;
+import similarity.metric.profile.SufficientStatisticsMetric;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+import util.reader.RatingListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The user-user similarities of a SufficientStatisticsMetric (e.g. Pearson or cosine), kept up to date as ratings
+ * are added to the DatasetReader.
+ * The co-rating statistics of every pair of users with at least one common item are kept (see CoRatingStats).
+ * When a user rates an item, only the statistics of the pairs of that user and the item's other raters change,
+ * and only the similarities of the pairs involving that user are recomputed - in constant time each, from the
+ * statistics. Registered Neighbourhoods (see addNeighbourhood()) are then updated for the touched users.
+ * The initial similarities are exactly those of a ProfileSimilarityMap over the users' profiles.
+ * Memory grows with the number of pairs of users with common items, rather than the number of similarities.
+ * The map is updated while it is registered with the reader as a RatingListener (see DatasetReader.addRatingListener()
+ * and removeRatingListener()) - it must be registered before further ratings are added, and unregistered once it is
+ * no longer used, as the reader holds on to its listeners.
+ * Updates are made on the thread that adds the ratings; the map must not be read concurrently with an update.
+ */
+public class IncrementalProfileSimilarityMap extends SimilarityMap implements RatingListener {
+
+	private final DatasetReader reader;
+	private final SufficientStatisticsMetric metric;
+
+	// partners.get(u).get(v) = the statistics of users u and v - one object shared by both users, in which x holds the
+	// ratings of the user with the larger ID
+	private final Map<Integer,Map<Integer,CoRatingStats>> partners;
+
+	// the ratings the statistics reflect, by item - the reader's profiles may already hold later ratings of a batch
+	private final Map<Integer,IntDoubleMap> itemRatings;
+
+	private final List<Neighbourhood> neighbourhoods; // updated after each rating
+
+	/**
+	 * Constructor - computes the similarities of the reader's users
+	 * @param reader - the dataset reader
+	 * @param metric - the user similarity metric
+	 */
+	public IncrementalProfileSimilarityMap(final DatasetReader reader, final SufficientStatisticsMetric metric) {
+		super();
+		this.reader = reader;
+		this.metric = metric;
+		this.neighbourhoods = new ArrayList<Neighbourhood>();
+
+		Map<Integer,Profile> profileMap = reader.getUserProfiles();
+		InvertedIndexSimilarityBuilder builder = new InvertedIndexSimilarityBuilder(profileMap, metric);
+		builder.setKeepStatistics(true);
+		builder.build(this);
+
+		// the builder's rows follow ascending ID order, and each row's statistics hold the row's ratings as x
+		IdDictionary ids = new IdDictionary(profileMap.keySet());
+		int[][] rows = builder.getPartners();
+		CoRatingStats[][] stats = builder.getPartnerStatistics();
+		partners = new HashMap<Integer,Map<Integer,CoRatingStats>>();
+		for (int u = 0; u < rows.length; u++)
+			for (int t = 0; t < rows[u].length; t++)
+				link(ids.getId(u), ids.getId(rows[u][t]), stats[u][t]);
+
+		itemRatings = new HashMap<Integer,IntDoubleMap>();
+		for (Map.Entry<Integer,Profile> entry : reader.getItemProfiles().entrySet()) {
+			IntDoubleMap ratings = new IntDoubleMap(entry.getValue().getSize());
+			entry.getValue().forEach(ratings::put);
+			itemRatings.put(entry.getKey(), ratings);
+		}
+	}
+
+	/**
+	 * Registers a neighbourhood to be updated whenever similarities change - its neighbourhoods must have been
+	 * computed from this map
+	 * @param neighbourhood - the neighbourhood
+	 */
+	public synchronized void addNeighbourhood(final Neighbourhood neighbourhood) {
+		neighbourhoods.add(neighbourhood);
+	}
+
+	/**
+	 * Unregisters a neighbourhood
+	 * @param neighbourhood - the neighbourhood
+	 */
+	public synchronized void removeNeighbourhood(final Neighbourhood neighbourhood) {
+		neighbourhoods.remove(neighbourhood);
+	}
+
+	/**
+	 * Updates the statistics of the pairs of the user and the item's other raters, then the similarities of all
+	 * pairs involving the user (a metric may depend on the user's whole profile, e.g. the norm in cosine
+	 * similarity), then the neighbourhoods of the user and of the users whose similarity to the user changed
+	 */
+	public synchronized void ratingAdded(final int userId, final int itemId, final double rating, final double previous) {
+		IntDoubleMap ratings = itemRatings.get(itemId);
+		if (ratings == null) {
+			ratings = new IntDoubleMap();
+			itemRatings.put(itemId, ratings);
+		}
+		double old = ratings.get(userId, Double.NaN);
+
+		for (int i = 0; i < ratings.size(); i++) {
+			int other = ratings.keyAt(i);
+			double y = ratings.valueAt(i);
+			if (other == userId || Double.isNaN(y))
+				continue;
+			CoRatingStats stats = getStats(userId, other);
+			if (stats == null) {
+				stats = new CoRatingStats();
+				link(userId, other, stats);
+			}
+			if (!Double.isNaN(old)) {
+				if (userId > other)
+					stats.remove(old, y);
+				else
+					stats.remove(y, old);
+			}
+			if (userId > other)
+				stats.add(rating, y);
+			else
+				stats.add(y, rating);
+		}
+		ratings.put(userId, rating);
+
+		// recompute the similarities of the user's pairs
+		List<Integer> changed = new ArrayList<Integer>();
+		Map<Integer,CoRatingStats> userPartners = partners.get(userId);
+		if (userPartners != null) {
+			Map<Integer,Profile> profiles = reader.getUserProfiles();
+			Profile profile = profiles.get(userId);
+			for (Map.Entry<Integer,CoRatingStats> entry : userPartners.entrySet()) {
+				Integer other = entry.getKey();
+				Profile otherProfile = profiles.get(other);
+				double sim = (userId > other) ? metric.getSimilarity(profile, otherProfile, entry.getValue())
+					: metric.getSimilarity(otherProfile, profile, entry.getValue());
+				if (update(userId, other, sim))
+					changed.add(other);
+			}
+		}
+
+		for (Neighbourhood neighbourhood : neighbourhoods) {
+			neighbourhood.computeNeighbourhood(this, userId);
+			for (Integer other : changed)
+				neighbourhood.similarityChanged(this, other, userId);
+		}
+	}
+
+	/**
+	 * Stores a recomputed similarity in both directions
+	 * @returns true if the similarity has changed
+	 */
+	private boolean update(final Integer id1, final Integer id2, final double sim) {
+		double current = getSimilarity(id1, id2);
+		if (sim > 0) {
+			if (sim == current)
+				return false;
+			setSimilarity(id1, id2, sim);
+			setSimilarity(id2, id1, sim);
+			return true;
+		}
+		if (current == 0)
+			return false;
+		removeSimilarity(id1, id2);
+		removeSimilarity(id2, id1);
+		return true;
+	}
+
+	/**
+	 * Removes a similarity that is no longer positive - similarity rows cannot remove single values,
+	 * so the row is replaced by a copy without it
+	 */
+	private void removeSimilarity(final Integer id1, final Integer id2) {
+		Profile row = getSimilarities(id1);
+		Profile copy = new Profile(id1);
+		row.forEach((id, sim) -> {
+			if (id != id2)
+				copy.addDouble(id, sim);
+		});
+		putSimilarities(copy);
+	}
+
+	/** Registers the statistics of a pair with both users */
+	private void link(final Integer id1, final Integer id2, final CoRatingStats stats) {
+		partnersOf(id1).put(id2, stats);
+		partnersOf(id2).put(id1, stats);
+	}
+
+	private Map<Integer,CoRatingStats> partnersOf(final Integer id) {
+		Map<Integer,CoRatingStats> map = partners.get(id);
+		if (map == null) {
+			map = new HashMap<Integer,CoRatingStats>();
+			partners.put(id, map);
+		}
+		return map;
+	}
+
+	/**
+	 * Get the co-rating statistics of two users
+	 * @param id1 - the first user's ID
+	 * @param id2 - the second user's ID
+	 * @returns the statistics, in which x holds the ratings of the user with the larger ID, or null if the users
+	 * have no common items
+	 */
+	public synchronized CoRatingStats getStats(final Integer id1, final Integer id2) {
+		Map<Integer,CoRatingStats> map = partners.get(id1);
+		return (map != null) ? map.get(id2) : null;
+	}
+}
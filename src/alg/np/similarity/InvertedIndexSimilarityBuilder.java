@@ -0,0 +1,385 @@
+package alg.np.similarity;
+
+import profile.CoRatingStats;
+import profile.Profile;
+import profile.SparseVector;
+import similarity.metric.profile.SufficientStatisticsMetric;
+import util.IdDictionary;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes the pairwise similarities between profiles as a sparse self-product, visiting only the pairs
+ * of profiles that have at least one ID in common (e.g. pairs of users with a co-rated item).
+ * The profiles are indexed by the IDs they hold (an inverted index, e.g. item -> users). For each profile,
+ * the posting lists of its IDs are walked and the co-rating statistics of every earlier profile met on the
+ * way are accumulated, after which the metric is evaluated from the statistics alone. Pairs without common
+ * IDs have similarity 0 under the supported metrics, so they are never stored and need not be visited.
+ * Common values are accumulated in ascending ID order, exactly as SparseVector.intersect() does, so the
+ * similarities are identical to those computed pair by pair.
+ * Blocks of profiles are processed in parallel, each worker thread owning its own accumulators.
+ */
+public class InvertedIndexSimilarityBuilder {
+
+	private static final int ROWS_PER_BLOCK = 64; // the number of profiles a worker claims at a time
+
+	private Map<Integer,Profile> profileMap;   // the profiles
+	private SufficientStatisticsMetric metric; // must be safe to call from several threads
+	private int numThreads;                    // the number of worker threads
+	private int maxNeighbours;                 // the number of similarities kept per profile, or 0 to keep all of them
+	private boolean keepStatistics;            // true if the co-rating statistics of each pair are kept after the build
+
+	// the kept statistics - for each row u, the earlier rows v with common IDs and the statistics of each pair (u, v)
+	private int[][] partners;
+	private CoRatingStats[][] partnerStats;
+
+	// the profiles in ascending ID order, as rows of a sparse matrix (columns are the profiles' dense value IDs)
+	private Profile[] profiles;
+	private int[] rowOffsets;
+	private int[] rowColumns;
+	private double[] rowValues;
+
+	// the inverted index - the same matrix by column, each posting list in ascending row order
+	private int[] columnOffsets;
+	private int[] columnRows;
+	private double[] columnValues;
+
+	/**
+	 * Constructor - uses one thread per available processor and keeps all positive similarities
+	 * @param profileMap - the profiles
+	 * @param metric - the similarity metric
+	 */
+	public InvertedIndexSimilarityBuilder(final Map<Integer,Profile> profileMap, final SufficientStatisticsMetric metric) {
+		this.profileMap = profileMap;
+		this.metric = metric;
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+		this.maxNeighbours = 0;
+	}
+
+	/**
+	 * @param numThreads - the number of worker threads
+	 */
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * @param maxNeighbours - the number of strongest similarities kept for each profile, or 0 to keep all of them
+	 */
+	public void setMaxNeighbours(final int maxNeighbours) {
+		this.maxNeighbours = maxNeighbours;
+	}
+
+	/**
+	 * @param keepStatistics - true if the co-rating statistics of every pair of profiles with common IDs are to be
+	 * kept after the build (see getPartners() and getPartnerStatistics()), e.g. to update similarities incrementally
+	 */
+	void setKeepStatistics(final boolean keepStatistics) {
+		this.keepStatistics = keepStatistics;
+	}
+
+	/**
+	 * @returns for each row u (the dense index of a profile ID in ascending ID order), the earlier rows with common IDs,
+	 * or null if the statistics were not kept
+	 */
+	int[][] getPartners() {
+		return partners;
+	}
+
+	/**
+	 * @returns for each row u, the co-rating statistics of u (x) and each of its partners (y), or null if the
+	 * statistics were not kept
+	 */
+	CoRatingStats[][] getPartnerStatistics() {
+		return partnerStats;
+	}
+
+	/**
+	 * Computes all pairwise profile similarities
+	 * @returns a new ProfileSimilarityMap
+	 */
+	public ProfileSimilarityMap build() {
+		ProfileSimilarityMap map = new ProfileSimilarityMap();
+		build(map);
+		return map;
+	}
+
+	/**
+	 * Computes all pairwise profile similarities into a map
+	 * @param map - the similarity map to be filled
+	 */
+	void build(final SimilarityMap map) {
+		IdDictionary ids = new IdDictionary(profileMap.keySet());
+		int n = ids.size();
+		index(ids);
+		partners = keepStatistics ? new int[n][] : null;
+		partnerStats = keepStatistics ? new CoRatingStats[n][] : null;
+
+		BoundedSimilarityHeap[] heaps = null;
+		if (maxNeighbours > 0) {
+			heaps = new BoundedSimilarityHeap[n];
+			for (int i = 0; i < n; i++)
+				heaps[i] = new BoundedSimilarityHeap(maxNeighbours);
+		}
+
+		int numBlocks = (n + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
+		PairBuffer[] blocks = new PairBuffer[numBlocks];
+		AtomicInteger nextBlock = new AtomicInteger();
+		final BoundedSimilarityHeap[] rowHeaps = heaps;
+		Runnable worker = () -> {
+			CoRatingStats[] stats = new CoRatingStats[n];
+			int[] touched = new int[n];
+			int block;
+			while ((block = nextBlock.getAndIncrement()) < numBlocks) {
+				int lo = block * ROWS_PER_BLOCK;
+				blocks[block] = computeRows(lo, Math.min(lo + ROWS_PER_BLOCK, n), stats, touched, ids, rowHeaps);
+			}
+		};
+
+		int threads = Math.max(1, Math.min(numThreads, numBlocks));
+		if (threads == 1)
+			worker.run();
+		else {
+			// the first failure of a worker stops the others, and is rethrown once they have finished
+			AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				workers[t] = new Thread(() -> {
+					try {
+						worker.run();
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+						nextBlock.set(numBlocks);
+					}
+				});
+				workers[t].start();
+			}
+			try {
+				for (Thread t : workers)
+					t.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while computing profile similarities", e);
+			}
+			Throwable e = failure.get();
+			if (e instanceof RuntimeException)
+				throw (RuntimeException) e;
+			if (e instanceof Error)
+				throw (Error) e;
+		}
+
+		SimilarityStorage storage = new SparseSimilarityStorage();
+		SimilarityStatistics statistics = new SimilarityStatistics();
+		if (heaps != null) {
+			for (int i = 0; i < n; i++) {
+				if (heaps[i].size() > 0) {
+					Profile profile = heaps[i].toProfile(ids.getId(i));
+					storage.putSimilarities(profile);
+					statistics.add(profile);
+				}
+			}
+		}
+		else {
+			for (PairBuffer buffer : blocks)
+				for (int k = 0; k < buffer.size; k++)
+					statistics.add(buffer.sims[k], 2); // stored in both directions
+			merge(blocks, ids, storage);
+		}
+		map.setStorage(storage, statistics);
+
+		// release the index
+		profiles = null;
+		rowOffsets = columnOffsets = rowColumns = columnRows = null;
+		rowValues = columnValues = null;
+	}
+
+	/**
+	 * Stores each similarity in both directions. Each row lists its neighbours in the order in which a loop over
+	 * all pairs (id1, id2 < id1) of profileMap.keySet() would insert them, so that ties between equal similarities
+	 * (e.g. in NearestNeighbourhood) are resolved exactly as by the pairwise ProfileSimilarityMap constructor.
+	 * @param blocks - the similarities of each block
+	 * @param ids - the profile dictionary (rows)
+	 * @param storage - the storage to be filled
+	 */
+	private void merge(final PairBuffer[] blocks, final IdDictionary ids, final SimilarityStorage storage) {
+		int n = ids.size();
+		int[] position = new int[n]; // position[row] = the position of the row's ID in profileMap.keySet()
+		int[] byPosition = new int[n];
+		int pos = 0;
+		for (Integer id : profileMap.keySet()) {
+			int row = ids.getIndex(id);
+			position[row] = pos;
+			byPosition[pos++] = row;
+		}
+
+		// gather each row's neighbours
+		int[] offsets = new int[n + 1];
+		for (PairBuffer buffer : blocks) {
+			for (int k = 0; k < buffer.size; k++) {
+				offsets[buffer.rows[k] + 1]++;
+				offsets[buffer.columns[k] + 1]++;
+			}
+		}
+		for (int i = 0; i < n; i++)
+			offsets[i + 1] += offsets[i];
+		int[] next = Arrays.copyOf(offsets, n);
+		int[] neighbours = new int[offsets[n]];
+		double[] sims = new double[offsets[n]];
+		for (PairBuffer buffer : blocks) {
+			for (int k = 0; k < buffer.size; k++) {
+				int u = buffer.rows[k], v = buffer.columns[k];
+				neighbours[next[u]] = v;
+				sims[next[u]++] = buffer.sims[k];
+				neighbours[next[v]] = u;
+				sims[next[v]++] = buffer.sims[k];
+			}
+		}
+
+		// the pair (u, v), v < u, is visited at loop time (position[u], position[v]) - neighbour positions are unique,
+		// so the row's neighbours can be recovered from their sorted keys
+		double[] simOf = new double[n];
+		for (int u = 0; u < n; u++) {
+			int start = offsets[u], end = offsets[u + 1];
+			if (start == end)
+				continue;
+			long[] keys = new long[end - start];
+			for (int p = start; p < end; p++) {
+				int v = neighbours[p];
+				long first = (v > u) ? position[v] : position[u];
+				keys[p - start] = (first << 32) | position[v];
+				simOf[v] = sims[p];
+			}
+			Arrays.sort(keys);
+			Profile profile = new Profile(ids.getId(u));
+			for (long key : keys) {
+				int v = byPosition[(int) key];
+				profile.addDouble(ids.getId(v), simOf[v]);
+			}
+			storage.putSimilarities(profile);
+		}
+	}
+
+	/**
+	 * Builds the row and column forms of the profile matrix
+	 * @param ids - the profile dictionary (rows)
+	 */
+	private void index(final IdDictionary ids) {
+		int n = ids.size();
+		profiles = new Profile[n];
+		SparseVector[] vectors = new SparseVector[n];
+		Set<Integer> valueIds = new HashSet<Integer>();
+		int entries = 0;
+		for (int i = 0; i < n; i++) {
+			profiles[i] = profileMap.get(ids.getId(i));
+			vectors[i] = profiles[i].toSparseVector();
+			for (int p = 0; p < vectors[i].size(); p++)
+				valueIds.add(vectors[i].idAt(p));
+			entries += vectors[i].size();
+		}
+		IdDictionary columns = new IdDictionary(valueIds);
+		int m = columns.size();
+
+		// rows - ascending value IDs map to ascending columns, so each row stays sorted
+		rowOffsets = new int[n + 1];
+		rowColumns = new int[entries];
+		rowValues = new double[entries];
+		columnOffsets = new int[m + 1];
+		int pos = 0;
+		for (int i = 0; i < n; i++) {
+			rowOffsets[i] = pos;
+			for (int p = 0; p < vectors[i].size(); p++) {
+				int c = columns.getIndex(vectors[i].idAt(p));
+				rowColumns[pos] = c;
+				rowValues[pos] = vectors[i].valueAt(p);
+				columnOffsets[c + 1]++;
+				pos++;
+			}
+		}
+		rowOffsets[n] = pos;
+
+		// columns - filled by ascending row, so each posting list is sorted by row
+		for (int c = 0; c < m; c++)
+			columnOffsets[c + 1] += columnOffsets[c];
+		columnRows = new int[entries];
+		columnValues = new double[entries];
+		int[] next = new int[m];
+		for (int c = 0; c < m; c++)
+			next[c] = columnOffsets[c];
+		for (int i = 0; i < n; i++) {
+			for (int p = rowOffsets[i]; p < rowOffsets[i + 1]; p++) {
+				int q = next[rowColumns[p]]++;
+				columnRows[q] = i;
+				columnValues[q] = rowValues[p];
+			}
+		}
+	}
+
+	/**
+	 * Computes the similarities of the rows [lo, hi) to all earlier rows
+	 * @param stats - the worker's accumulators, indexed by row - all empty (or null) on entry and exit
+	 * @param touched - the worker's scratch list of rows with non-empty accumulators
+	 * @param heaps - the row heaps, or null if all similarities are kept
+	 * @returns the positive similarities, if all are kept
+	 */
+	private PairBuffer computeRows(final int lo, final int hi, final CoRatingStats[] stats, final int[] touched,
+			final IdDictionary ids, final BoundedSimilarityHeap[] heaps) {
+		PairBuffer buffer = new PairBuffer();
+		for (int u = lo; u < hi; u++) {
+			int numTouched = 0;
+			for (int p = rowOffsets[u]; p < rowOffsets[u + 1]; p++) {
+				int c = rowColumns[p];
+				double x = rowValues[p];
+				for (int q = columnOffsets[c]; q < columnOffsets[c + 1]; q++) {
+					int v = columnRows[q];
+					if (v >= u)
+						break;
+					CoRatingStats s = stats[v];
+					if (s == null)
+						s = stats[v] = new CoRatingStats();
+					if (s.getCount() == 0)
+						touched[numTouched++] = v;
+					s.add(x, columnValues[q]);
+				}
+			}
+
+			if (keepStatistics) {
+				partners[u] = Arrays.copyOf(touched, numTouched);
+				partnerStats[u] = new CoRatingStats[numTouched];
+			}
+			for (int t = 0; t < numTouched; t++) {
+				int v = touched[t];
+				double sim = metric.getSimilarity(profiles[u], profiles[v], stats[v]);
+				if (keepStatistics) {
+					partnerStats[u][t] = stats[v]; // hand the accumulator over, rather than resetting it
+					stats[v] = null;
+				}
+				else
+					stats[v].reset();
+				if (sim > 0) {
+					if (heaps == null)
+						buffer.add(u, v, sim);
+					else
+						offer(heaps, ids, u, v, sim);
+				}
+			}
+		}
+		return buffer;
+	}
+
+	private static void offer(final BoundedSimilarityHeap[] heaps, final IdDictionary ids, final int u, final int v, final double sim) {
+		// row v may belong to a block of another worker
+		synchronized (heaps[u]) {
+			heaps[u].offer(ids.getId(v), sim);
+		}
+		synchronized (heaps[v]) {
+			heaps[v].offer(ids.getId(u), sim);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package alg.np.similarity;
+
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.Profile;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A SimilarityMap that computes the similarities of an item the first time they are requested.
+ * Rows are held in a size-bounded SimilarityRowCache, so construction is immediate and memory is capped
+ * at the cache capacity - an evicted row is recomputed if it is requested again. As in SimilarityMap, only
+ * positive similarities are held, listed in the order of the reader's item dictionary.
+ * getIds() returns every item, as whether an item has any similarities is only known once its row is computed.
+ * The map is read-only and may be read from several threads if the metric is thread-safe.
+ */
+public class LazySimilarityMap extends SimilarityMap {
+
+	/**
+	 * Constructor
+	 * @param reader - the dataset reader
+	 * @param metric - similarity metric used to compute item-item similarity
+	 * @param capacity - the maximum number of item rows held in memory
+	 */
+	public LazySimilarityMap(final DatasetReader reader, final SimilarityMetric metric, final int capacity) {
+		super(new LazyStorage(reader, metric, capacity));
+	}
+
+	/** @returns the maximum number of item rows held in memory */
+	public int getCapacity() {
+		return getCache().getCapacity();
+	}
+
+	/** @returns the number of item rows held in memory */
+	public int getCachedRows() {
+		return getCache().size();
+	}
+
+	/** @returns the number of row requests answered from the cache */
+	public long getHits() {
+		return getCache().getHits();
+	}
+
+	/** @returns the number of row requests that required the row to be computed */
+	public long getMisses() {
+		return getCache().getMisses();
+	}
+
+	/** @returns the number of rows evicted from the cache */
+	public long getEvictions() {
+		return getCache().getEvictions();
+	}
+
+	/** @returns the fraction of row requests answered from the cache */
+	public double getHitRate() {
+		long hits = getHits();
+		long requests = hits + getMisses();
+		return (requests > 0) ? (double) hits / requests : 0;
+	}
+
+	private SimilarityRowCache getCache() {
+		return ((LazyStorage) getStorage()).cache;
+	}
+
+	/**
+	 * String representation of the LazySimilarityMap - the cache statistics rather than all similarities
+	 */
+	@Override
+	public String toString() {
+		return "LazySimilarityMap[capacity=" + getCapacity() + ", rows=" + getCachedRows() + ", hits=" + getHits()
+			+ ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+	}
+
+	/**
+	 * Computes rows through the cache
+	 */
+	private static class LazyStorage implements SimilarityStorage {
+
+		private final DatasetReader reader;
+		private final SimilarityMetric metric;
+		private final IdDictionary items;
+		private final boolean symmetric;
+		private final SimilarityRowCache cache;
+
+		LazyStorage(final DatasetReader reader, final SimilarityMetric metric, final int capacity) {
+			this.reader = reader;
+			this.metric = metric;
+			this.items = reader.getItemDictionary();
+			this.symmetric = metric.isSymmetric();
+			this.cache = new SimilarityRowCache(capacity, this::computeRow);
+		}
+
+		/** @returns the positive similarities of an item to all other items */
+		private Profile computeRow(final Integer id) {
+			Profile row = new Profile(id);
+			for (int j = 0; j < items.size(); j++) {
+				int other = items.getId(j);
+				if (other != id) {
+					double sim = metric.getItemSimilarity(id, other);
+					if (sim > 0)
+						row.addDouble(other, sim);
+				}
+			}
+			return row;
+		}
+
+		public Set<Integer> getIds() {
+			return Collections.unmodifiableSet(reader.getItemIds());
+		}
+
+		public Profile getSimilarities(final Integer id) {
+			if (items.getIndex(id) < 0)
+				return null;
+			Profile row = cache.get(id);
+			return (row.getSize() > 0) ? row : null;
+		}
+
+		public double getSimilarity(final int id1, final int id2) {
+			if (items.getIndex(id1) < 0 || items.getIndex(id2) < 0)
+				return 0;
+			Profile row = null;
+			if (symmetric)
+				row = cache.peek(id1) != null ? null : cache.peek(id2); // use a cached row of either item
+			double sim = (row != null) ? row.getDouble(id1) : cache.get(id1).getDouble(id2);
+			return Double.isNaN(sim) ? 0 : sim;
+		}
+
+		public void setSimilarity(final int id1, final int id2, final double sim) {
+			throw new UnsupportedOperationException("LazySimilarityMap is read-only");
+		}
+
+		public void putSimilarities(final Profile similarities) {
+			throw new UnsupportedOperationException("LazySimilarityMap is read-only");
+		}
+	}
+}
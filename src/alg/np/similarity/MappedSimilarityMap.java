@@ -0,0 +1,183 @@
+package alg.np.similarity;
+
+import alg.np.similarity.metric.SimilarityMetric;
+import similarity.metric.profile.ProfileSimilarityMetric;
+import similarity.metric.profile.SufficientStatisticsMetric;
+import util.reader.DatasetReader;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * A read-only SimilarityMap served from a memory-mapped file (see MappedSimilarityStorage), so that similarities
+ * computed by one run can be reused by later runs - and shared between processes - instead of being recomputed.
+ * Each file is keyed by the fingerprint of the dataset (DatasetReader.getFingerprint()) and a key naming how the
+ * similarities were computed, built by the loadOrBuild methods from the metric's cache key (which covers its parameters, e.g.
+ * a rating threshold); a file whose fingerprint or key differs is stale and is rebuilt by the loadOrBuild methods. Metrics
+ * without a cache key are rejected by the loadOrBuild methods - their maps can be saved and opened under explicit keys.
+ * Keys containing an identity hash (as in the default Object.toString()) are rejected, as they would differ on
+ * every run.
+ * Similarities are held as floats.
+ */
+public class MappedSimilarityMap extends SimilarityMap {
+
+	private static final Pattern IDENTITY_HASH = Pattern.compile("[A-Za-z_$][\\w$.]*@[0-9a-f]+(?![\\w$])"); // e.g. "MyMetric@1b6d3586"
+
+	private final long fingerprint; // the fingerprint of the dataset the similarities were computed from
+	private final String key;       // names how the similarities were computed
+
+	private MappedSimilarityMap(final MappedSimilarityStorage storage, final long fingerprint, final String key) {
+		super(storage);
+		this.fingerprint = fingerprint;
+		this.key = key;
+	}
+
+	/**
+	 * Maps a file written by save()
+	 * @param filename - the path of the file
+	 * @param fingerprint - the expected dataset fingerprint
+	 * @param key - the expected key
+	 * @returns the map or null if the file does not exist or is stale (including a truncated or malformed file)
+	 * @throws IOException if the file exists but cannot be read or mapped
+	 */
+	public static MappedSimilarityMap open(final String filename, final long fingerprint, final String key) throws IOException {
+		checkKey(key);
+		MappedSimilarityStorage storage = SimilarityMapFile.read(filename, fingerprint, key);
+		return (storage != null) ? new MappedSimilarityMap(storage, fingerprint, key) : null;
+	}
+
+	/**
+	 * Writes the similarities of a map to a file
+	 * @param map - the map to be saved
+	 * @param filename - the path of the file
+	 * @param fingerprint - the fingerprint of the dataset the similarities were computed from
+	 * @param key - names how the similarities were computed
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void save(final SimilarityMap map, final String filename, final long fingerprint, final String key) throws IOException {
+		checkKey(key);
+		SimilarityMapFile.write(map, filename, fingerprint, key);
+	}
+
+	/**
+	 * Maps the item-item similarities of a metric from a file, computing them and writing the file first if it
+	 * is missing or stale
+	 * @param filename - the path of the file
+	 * @param reader - the dataset reader
+	 * @param metric - similarity metric used to compute item-item similarity - must have a cache key
+	 * @returns the map
+	 * @throws IOException if the file cannot be read, or built and written
+	 */
+	public static MappedSimilarityMap loadOrBuild(final String filename, final DatasetReader reader, final SimilarityMetric metric) throws IOException {
+		return loadOrBuild(filename, reader.getFingerprint(), "item:" + cacheKey(metric.getCacheKey(), metric), () -> new SimilarityMap(reader, metric));
+	}
+
+	/**
+	 * Maps the k strongest item-item similarities of each item from a file, computing them and writing the file
+	 * first if it is missing or stale
+	 * @param filename - the path of the file
+	 * @param reader - the dataset reader
+	 * @param metric - similarity metric used to compute item-item similarity - must have a cache key
+	 * @param k - the number of similarities kept for each item
+	 * @returns the map
+	 * @throws IOException if the file cannot be read, or built and written
+	 */
+	public static MappedSimilarityMap loadOrBuild(final String filename, final DatasetReader reader, final SimilarityMetric metric, final int k) throws IOException {
+		return loadOrBuild(filename, reader.getFingerprint(), "item:" + cacheKey(metric.getCacheKey(), metric) + ":k=" + k, () -> new SimilarityMap(reader, metric, k));
+	}
+
+	/**
+	 * Maps the user-user similarities of a profile metric from a file, computing them and writing the file first
+	 * if it is missing or stale
+	 * @param filename - the path of the file
+	 * @param reader - the dataset reader
+	 * @param metric - similarity metric used to compute user-user similarity - must have a cache key
+	 * @returns the map
+	 * @throws IOException if the file cannot be read, or built and written
+	 */
+	public static MappedSimilarityMap loadOrBuildUserSimilarities(final String filename, final DatasetReader reader, final ProfileSimilarityMetric metric) throws IOException {
+		return loadOrBuild(filename, reader.getFingerprint(), "user:" + cacheKey(metric.getCacheKey(), metric), () -> new ProfileSimilarityMap(reader.getUserProfiles(), metric));
+	}
+
+	/**
+	 * Maps the k strongest user-user similarities of each user from a file, computing them out of core (see
+	 * ExternalSimilarityBuilder) and writing the file first if it is missing or stale, so that the similarities are
+	 * never held on the heap
+	 * @param filename - the path of the file
+	 * @param reader - the dataset reader
+	 * @param metric - similarity metric used to compute user-user similarity - must have a cache key
+	 * @param k - the number of similarities kept for each user
+	 * @param memoryBudget - the bytes the build may use for pairs and similarities
+	 * @returns the map
+	 * @throws IOException if the file cannot be read, or built and written
+	 */
+	public static MappedSimilarityMap loadOrBuildUserSimilarities(final String filename, final DatasetReader reader, final SufficientStatisticsMetric metric,
+			final int k, final long memoryBudget) throws IOException {
+		long fingerprint = reader.getFingerprint();
+		String key = "user:" + cacheKey(metric.getCacheKey(), metric) + ":k=" + k;
+		MappedSimilarityMap map = open(filename, fingerprint, key);
+		if (map != null)
+			return map;
+
+		ExternalSimilarityBuilder builder = new ExternalSimilarityBuilder(reader.getUserProfiles(), metric, k);
+		builder.setMemoryBudget(memoryBudget);
+		builder.build(filename, fingerprint, key);
+		return reopen(filename, fingerprint, key);
+	}
+
+	/**
+	 * Supplies a SimilarityMap computed from scratch
+	 */
+	private interface Builder {
+		SimilarityMap build();
+	}
+
+	private static MappedSimilarityMap loadOrBuild(final String filename, final long fingerprint, final String key, final Builder builder) throws IOException {
+		MappedSimilarityMap map = open(filename, fingerprint, key);
+		if (map != null)
+			return map;
+
+		save(builder.build(), filename, fingerprint, key);
+		return reopen(filename, fingerprint, key);
+	}
+
+	/**
+	 * Maps a file that has just been written
+	 * @throws IOException if the file cannot be mapped, or has been replaced by a file with another fingerprint or key
+	 */
+	private static MappedSimilarityMap reopen(final String filename, final long fingerprint, final String key) throws IOException {
+		MappedSimilarityMap map = open(filename, fingerprint, key);
+		if (map == null)
+			throw new IOException("Similarity map file \"" + filename + "\" is missing or stale after being written");
+		return map;
+	}
+
+	/**
+	 * @returns the cache key of a metric
+	 * @throws IllegalArgumentException if the metric has no cache key
+	 */
+	private static String cacheKey(final String key, final Object metric) {
+		if (key == null)
+			throw new IllegalArgumentException("Metric " + metric.getClass().getName()
+				+ " has no cache key - implement getCacheKey() or save and open the map under an explicit key");
+		return key;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the key contains an identity hash, which would differ on every run
+	 */
+	private static void checkKey(final String key) {
+		if (IDENTITY_HASH.matcher(key).find())
+			throw new IllegalArgumentException("Similarity map key contains an identity hash: \"" + key + "\"");
+	}
+
+	/** @returns the fingerprint of the dataset the similarities were computed from */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/** @returns the key naming how the similarities were computed */
+	public String getKey() {
+		return key;
+	}
+}
@@ -0,0 +1,119 @@
+package alg.np.similarity;
+
+import profile.Profile;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Serves similarities straight from a memory-mapped file written by SimilarityMapFile - read-only.
+ * Only the row index is held on the heap; the neighbours and similarities stay in the mapping, so opening a file
+ * costs next to nothing and its pages are shared (through the operating system's page cache) by all processes
+ * that map it. Similarities are held as floats.
+ * The mapping is only read with absolute gets, so the storage may be used from several threads.
+ */
+public class MappedSimilarityStorage implements SimilarityStorage {
+
+	private final ByteBuffer buffer; // the mapped file
+	private final int dataStart;     // the position of the first row
+	private final int[] rowIds;      // the row IDs in ascending order
+	private final int[] rowStarts;   // rowStarts[r] = the index of the first entry of row r, followed by the number of entries
+	private final Set<Integer> ids;  // a read-only view of rowIds
+
+	/**
+	 * Constructor - used by SimilarityMapFile
+	 * @param buffer - the mapped file
+	 * @param dataStart - the position of the first row
+	 * @param rowIds - the row IDs in ascending order
+	 * @param rowStarts - the index of the first entry of each row, followed by the number of entries
+	 */
+	MappedSimilarityStorage(final ByteBuffer buffer, final int dataStart, final int[] rowIds, final int[] rowStarts) {
+		this.buffer = buffer;
+		this.dataStart = dataStart;
+		this.rowIds = rowIds;
+		this.rowStarts = rowStarts;
+		this.ids = new AbstractSet<Integer>() {
+			public int size() {
+				return rowIds.length;
+			}
+			public boolean contains(Object o) {
+				return (o instanceof Integer) && Arrays.binarySearch(rowIds, ((Integer)o).intValue()) >= 0;
+			}
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					private int next = 0;
+					public boolean hasNext() {
+						return next < rowIds.length;
+					}
+					public Integer next() {
+						if (next >= rowIds.length)
+							throw new NoSuchElementException();
+						return rowIds[next++];
+					}
+				};
+			}
+		};
+	}
+
+	public Set<Integer> getIds() {
+		return ids;
+	}
+
+	public Profile getSimilarities(final Integer id) {
+		int r = Arrays.binarySearch(rowIds, id.intValue());
+		if (r < 0)
+			return null;
+		int size = rowStarts[r + 1] - rowStarts[r];
+		if (size == 0)
+			return null;
+		int idsAt = dataStart + 12 * rowStarts[r]; // the row's IDs, then its similarities, then its sorted positions
+		int simsAt = idsAt + 4 * size;
+		Profile profile = new Profile(id);
+		for (int k = 0; k < size; k++)
+			profile.addDouble(buffer.getInt(idsAt + 4 * k), buffer.getFloat(simsAt + 4 * k));
+		return profile;
+	}
+
+	public double getSimilarity(final int id1, final int id2) {
+		int r = Arrays.binarySearch(rowIds, id1);
+		if (r < 0)
+			return 0;
+		int size = rowStarts[r + 1] - rowStarts[r];
+		int idsAt = dataStart + 12 * rowStarts[r];
+		int simsAt = idsAt + 4 * size;
+		int positionsAt = simsAt + 4 * size;
+
+		// binary search of the IDs in the order of the sorted positions
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int position = buffer.getInt(positionsAt + 4 * mid);
+			int id = buffer.getInt(idsAt + 4 * position);
+			if (id < id2)
+				lo = mid + 1;
+			else if (id > id2)
+				hi = mid - 1;
+			else
+				return buffer.getFloat(simsAt + 4 * position);
+		}
+		return 0;
+	}
+
+	public void setSimilarity(final int id1, final int id2, final double sim) {
+		throw new UnsupportedOperationException("MappedSimilarityStorage is read-only");
+	}
+
+	public void putSimilarities(final Profile similarities) {
+		throw new UnsupportedOperationException("MappedSimilarityStorage is read-only");
+	}
+
+	/** @returns the number of stored similarities */
+	public int getNumEntries() {
+		return rowStarts[rowIds.length];
+	}
+}
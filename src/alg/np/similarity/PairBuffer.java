@@ -0,0 +1,26 @@
+package alg.np.similarity;
+
+import java.util.Arrays;
+
+/**
+ * The positive similarities computed by one task of a parallel similarity build, in the order they were computed.
+ * Rows and columns are dense indices.
+ */
+class PairBuffer {
+	int[] rows = new int[256];
+	int[] columns = new int[256];
+	double[] sims = new double[256];
+	int size = 0;
+
+	void add(final int row, final int column, final double sim) {
+		if (size == rows.length) {
+			rows = Arrays.copyOf(rows, size * 2);
+			columns = Arrays.copyOf(columns, size * 2);
+			sims = Arrays.copyOf(sims, size * 2);
+		}
+		rows[size] = row;
+		columns[size] = column;
+		sims[size] = sim;
+		size++;
+	}
+}
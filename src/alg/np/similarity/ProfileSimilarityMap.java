@@ -2,12 +2,16 @@ package alg.np.similarity;
 
 import profile.Profile;
 import similarity.metric.profile.ProfileSimilarityMetric;
+import similarity.metric.profile.SufficientStatisticsMetric;
+import util.IdDictionary;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Computes the pairwise similarities between Profiles  
- *
+ * Metrics that implement SufficientStatisticsMetric are computed by an InvertedIndexSimilarityBuilder,
+ * which only visits pairs of profiles with common IDs; other metrics compare every pair of profiles.
  */
 public class ProfileSimilarityMap extends SimilarityMap {
 	
@@ -24,6 +28,11 @@ public class ProfileSimilarityMap extends SimilarityMap {
 	public ProfileSimilarityMap(final Map<Integer,Profile> profileMap, final ProfileSimilarityMetric metric) {
 		super();
 		
+		if (metric instanceof SufficientStatisticsMetric) {
+			new InvertedIndexSimilarityBuilder(profileMap, (SufficientStatisticsMetric) metric).build(this);
+			return;
+		}
+
 		// compute pairwise similarities between profiles
 		for(Integer id1: profileMap.keySet()) {
 			//System.out.println(id1);
@@ -40,4 +49,100 @@ public class ProfileSimilarityMap extends SimilarityMap {
 			}
 		}
 	}
+
+	/**
+	 * Constructor - keeps only the k strongest similarities of each profile, so that memory grows with
+	 * the number of profiles rather than the number of pairs
+	 * @param profileMap
+	 * @param metric
+	 * @param k - the number of similarities kept for each profile
+	 */
+	public ProfileSimilarityMap(final Map<Integer,Profile> profileMap, final ProfileSimilarityMetric metric, final int k) {
+		super();
+
+		if (metric instanceof SufficientStatisticsMetric) {
+			InvertedIndexSimilarityBuilder builder = new InvertedIndexSimilarityBuilder(profileMap, (SufficientStatisticsMetric) metric);
+			builder.setMaxNeighbours(k);
+			builder.build(this);
+			return;
+		}
+
+		Map<Integer,BoundedSimilarityHeap> heaps = new HashMap<Integer,BoundedSimilarityHeap>();
+		for(Integer id: profileMap.keySet())
+			heaps.put(id, new BoundedSimilarityHeap(k));
+
+		// compute pairwise similarities between profiles
+		for(Integer id1: profileMap.keySet()) {
+			Profile p1 = profileMap.get(id1);
+			BoundedSimilarityHeap heap1 = heaps.get(id1);
+			for(Integer id2: profileMap.keySet()) {
+				if(id2 < id1)
+				{
+					double sim = metric.getSimilarity(p1, profileMap.get(id2));
+					if(sim > 0) {
+						heap1.offer(id2, sim);
+						heaps.get(id2).offer(id1, sim);
+					}
+				}
+			}
+		}
+
+		for(Map.Entry<Integer,BoundedSimilarityHeap> entry: heaps.entrySet())
+			if(entry.getValue().size() > 0)
+				putSimilarities(entry.getValue().toProfile(entry.getKey()));
+	}
+
+	/**
+	 * Constructor - computes the similarities of candidate pairs only (e.g. those proposed by a SimHashIndex),
+	 * so that the cost grows with the number of candidates rather than the number of pairs. Pairs that are not
+	 * candidates are treated as having similarity 0.
+	 * @param profileMap
+	 * @param metric
+	 * @param candidates - the candidate pairs, indexed by the dictionary of profileMap's IDs
+	 * @param k - the number of similarities kept for each profile, or 0 to keep all of them
+	 */
+	public ProfileSimilarityMap(final Map<Integer,Profile> profileMap, final ProfileSimilarityMetric metric, final CandidatePairs candidates, final int k) {
+		super();
+
+		IdDictionary ids = candidates.getDictionary();
+		if (ids.size() != profileMap.size())
+			throw new IllegalArgumentException("The candidates are not indexed by the profiles' IDs");
+		int n = ids.size();
+
+		BoundedSimilarityHeap[] heaps = null;
+		if (k > 0) {
+			heaps = new BoundedSimilarityHeap[n];
+			for (int i = 0; i < n; i++)
+				heaps[i] = new BoundedSimilarityHeap(k);
+		}
+
+		// compute the similarities of the candidate pairs (u, v), v < u
+		for (int u = 0; u < n; u++) {
+			Integer id1 = ids.getId(u);
+			Profile p1 = profileMap.get(id1);
+			if (p1 == null)
+				throw new IllegalArgumentException("The candidates are not indexed by the profiles' IDs: " + id1);
+			for (int v : candidates.getCandidates(u)) {
+				if (v >= u)
+					break;
+				Integer id2 = ids.getId(v);
+				double sim = metric.getSimilarity(p1, profileMap.get(id2));
+				if (sim > 0) {
+					if (heaps != null) {
+						heaps[u].offer(id2, sim);
+						heaps[v].offer(id1, sim);
+					}
+					else {
+						setSimilarity(id1, id2, sim);
+						setSimilarity(id2, id1, sim);
+					}
+				}
+			}
+		}
+
+		if (heaps != null)
+			for (int i = 0; i < n; i++)
+				if (heaps[i].size() > 0)
+					putSimilarities(heaps[i].toProfile(ids.getId(i)));
+	}
 }
@@ -4,22 +4,31 @@ import profile.Profile;
 import alg.np.similarity.metric.SimilarityMetric;
 import util.reader.DatasetReader;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 /**
- * Used to compute and store the pairwise similarities between all items
+ * Used to compute and store the pairwise similarities between all items.
+ * The similarities are held by a SimilarityStorage - sparse (a Profile per ID) by default.
  */
 public class SimilarityMap {
 	
-	private Map<Integer,Profile> simMap; 
+	private SimilarityStorage storage; 
+	private volatile SimilarityStatistics statistics; // recorded by the builders - null if unknown, e.g. after the map has been changed
 
 	/**
 	 * Constructor - creates an empty SimilarityMap
 	 */
 	public SimilarityMap() {
-		simMap = new HashMap<Integer,Profile>();
+		storage = new SparseSimilarityStorage();
+		statistics = new SimilarityStatistics();
+	}
+
+	/**
+	 * Constructor - creates an empty SimilarityMap with the given storage
+	 * @param storage - holds the similarities
+	 */
+	public SimilarityMap(final SimilarityStorage storage) {
+		this.storage = storage;
 	}
 
 	/**
@@ -29,21 +38,21 @@ public class SimilarityMap {
 	 */
 	public SimilarityMap(final DatasetReader reader, final SimilarityMetric metric) {	
 		
-		simMap = new HashMap<Integer,Profile>();
-		// get the set of item ids
-		Set<Integer> itemIds = reader.getItems().keySet();
-		
-		// compute pairwise similarities between item profiles
-		for(Integer id1: itemIds) {
-			for(Integer id2: itemIds) {
-				if (id1 != id2) {
-					double sim = metric.getItemSimilarity(id1, id2);
-					if (sim > 0) 
-						setSimilarity(id1, id2, sim);
-				}
-			}
-		}
-		return;
+		// the builder chooses dense or sparse storage from the fill ratio of the computed matrix
+		// compute pairwise similarities between item profiles - in parallel, and only once per pair for symmetric metrics
+		new SimilarityMapBuilder(reader, metric).build(this);
+	}
+
+	/**
+	 * Constructor - creates a new SimilarityMap holding only the k strongest similarities of each item
+	 * @param reader - the dataset reader
+	 * @param metric - similarity metric used to compute item-item similarity
+	 * @param k - the number of similarities kept for each item
+	 */
+	public SimilarityMap(final DatasetReader reader, final SimilarityMetric metric, final int k) {
+		SimilarityMapBuilder builder = new SimilarityMapBuilder(reader, metric);
+		builder.setMaxNeighbours(k);
+		builder.build(this);
 	}
 
 	/**
@@ -51,7 +60,7 @@ public class SimilarityMap {
 	 * @returns a set of the numeric IDs of the profiles
 	 */
 	public Set<Integer> getIds() {
-		return simMap.keySet();
+		return storage.getIds();
 	}
 
 	/**
@@ -60,20 +69,19 @@ public class SimilarityMap {
 	 * @returns the similarity profile for the given id
 	 */
 	public Profile getSimilarities(Integer id) {
-		return simMap.get(id);
+		return storage.getSimilarities(id);
 	}
 
 	/**
 	 * Get the pairwise similarity between two profiles 
 	 * @param the numeric ID of the first profile
 	 * @param the numeric ID of the second profile
-	 * @returns the similarity between the two profiles
+	 * @returns the similarity between the two profiles - 0 if either ID is null or has no stored similarity
 	 */
 	public double getSimilarity(final Integer id1, final Integer id2) {
-		if(simMap.containsKey(id1))
-			return (simMap.get(id1).contains(id2) ? simMap.get(id1).getValue(id2).doubleValue() : 0);
-		else 
+		if (id1 == null || id2 == null)
 			return 0;
+		return storage.getSimilarity(id1, id2);
 	}
 
 	/**
@@ -82,9 +90,78 @@ public class SimilarityMap {
 	 * @param the numeric ID of the second profile
 	 */
 	public void setSimilarity(final Integer id1, final Integer id2, final double sim) {
-		Profile profile = simMap.containsKey(id1) ? simMap.get(id1) : new Profile(id1);
-		profile.addValue(id2, Double.valueOf(sim));
-		simMap.put(id1, profile);
+		storage.setSimilarity(id1, id2, sim);
+		statistics = null;
+	}
+
+	/**
+	 * Adds all similarities of a profile to the map, replacing any previous similarities for the profile's ID
+	 * @param similarities - a profile holding the similarities of its ID to other IDs
+	 */
+	void putSimilarities(final Profile similarities) {
+		storage.putSimilarities(similarities);
+		statistics = null;
+	}
+
+	/**
+	 * @returns the storage holding the similarities
+	 */
+	public SimilarityStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Replaces the storage - used by SimilarityMapBuilder
+	 * @param storage - the new storage
+	 */
+	void setStorage(final SimilarityStorage storage) {
+		this.storage = storage;
+		this.statistics = null;
+	}
+
+	/**
+	 * Replaces the storage - used by the builders, which record the statistics of the similarities they store
+	 * @param storage - the new storage
+	 * @param statistics - the statistics of the stored similarities
+	 */
+	void setStorage(final SimilarityStorage storage, final SimilarityStatistics statistics) {
+		this.storage = storage;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * @returns the statistics of the stored similarities - as recorded by the build, or computed by a pass over
+	 * the stored similarities if the map has been changed since (the result is kept until the next change)
+	 */
+	private SimilarityStatistics getStatistics() {
+		SimilarityStatistics s = statistics;
+		if (s == null) {
+			s = SimilarityStatistics.of(storage);
+			statistics = s;
+		}
+		return s;
+	}
+
+	/**
+	 * @returns the smallest stored similarity, or positive infinity if the map is empty - similarities that are
+	 * not stored (and so read as 0) are not counted
+	 */
+	public double getMinSimilarity() {
+		return getStatistics().min;
+	}
+
+	/**
+	 * @returns the largest stored similarity, or negative infinity if the map is empty
+	 */
+	public double getMaxSimilarity() {
+		return getStatistics().max;
+	}
+
+	/**
+	 * @returns the number of stored similarities, counting both directions of a pair
+	 */
+	public long getNumSimilarities() {
+		return getStatistics().count;
 	}
 
 	/**
@@ -95,8 +172,8 @@ public class SimilarityMap {
 	public String toString() {
 		StringBuffer buf = new StringBuffer();
 
-		for(Integer id: simMap.keySet())
-			buf.append(simMap.get(id).toString());
+		for(Integer id: storage.getIds())
+			buf.append(storage.getSimilarities(id).toString());
 
 		return buf.toString();
 	}
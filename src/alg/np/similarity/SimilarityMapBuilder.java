@@ -0,0 +1,361 @@
+package alg.np.similarity;
+
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.Profile;
+import util.IdDictionary;
+import util.reader.DatasetReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the pairwise similarities between all items in parallel.
+ * The rows of the item-item similarity matrix are divided into fork-join tasks holding roughly equal numbers
+ * of pairs. Each task computes its pairs into a private buffer and the buffers are merged into the map in row
+ * order, so the map is identical to one built by a single thread. If the metric declares itself symmetric, only
+ * the upper triangle is computed and each similarity is stored in both directions.
+ * As in SimilarityMap, only positive similarities are stored.
+ *
+ * The storage is chosen from the fill ratio of the matrix, estimated from a sample of evenly spaced rows before
+ * the pairs are computed: a symmetric matrix in which at least the dense fill ratio of all pairs is present is
+ * stored in a DenseSimilarityStorage (4 bytes per pair), which the tasks fill directly rather than through buffers,
+ * anything else in a SparseSimilarityStorage (a Profile per item, several times that per stored similarity).
+ *
+ * If a maximum number of neighbours k is set, each row keeps only its k strongest similarities in a bounded
+ * min-heap while the pairs are computed, so the map needs O(nk) rather than O(n^2) memory. For symmetric metrics
+ * a pair is offered to two rows that may belong to different tasks, so each heap is updated under its own lock.
+ *
+ * If CandidatePairs are set (e.g. a MinHashIndex), only the candidates of each item are passed to the metric.
+ * Pairs that are not proposed are treated as having no positive similarity.
+ */
+public class SimilarityMapBuilder {
+
+	private static final long MIN_PAIRS_PER_TASK = 1 << 14; // tasks with fewer pairs are not split further
+	private static final double DEFAULT_DENSE_FILL_RATIO = 0.1; // the sparse storage is larger above about this fill ratio
+	private static final int FILL_SAMPLE_ROWS = 64; // the number of rows computed to estimate the fill ratio
+
+	private DatasetReader reader;     // dataset reader
+	private SimilarityMetric metric;  // the item-item similarity metric - must be safe to call from several threads
+	private int numThreads;           // the number of worker threads
+	private boolean symmetric;        // true if only the upper triangle is computed
+	private double denseFillRatio;    // the fill ratio at or above which dense storage is used
+	private int maxNeighbours;        // the number of similarities kept per row, or 0 to keep all of them
+	private CandidatePairs candidates; // the pairs to be computed, or null to compute all pairs
+	private long[] costs;             // costs[i] = the number of pairs computed for rows [0, i), if candidates are set
+
+	/**
+	 * Constructor - uses one thread per available processor and computes each pair once if the metric is symmetric
+	 * @param reader - the dataset reader
+	 * @param metric - similarity metric used to compute item-item similarity
+	 */
+	public SimilarityMapBuilder(final DatasetReader reader, final SimilarityMetric metric) {
+		this.reader = reader;
+		this.metric = metric;
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+		this.symmetric = metric.isSymmetric();
+		this.denseFillRatio = DEFAULT_DENSE_FILL_RATIO;
+		this.maxNeighbours = 0;
+	}
+
+	/**
+	 * @param numThreads - the number of worker threads
+	 */
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * @param symmetric - true to compute each pair once and store it in both directions (defaults to metric.isSymmetric())
+	 */
+	public void setSymmetric(final boolean symmetric) {
+		this.symmetric = symmetric;
+	}
+
+	/**
+	 * @param denseFillRatio - the fraction of pairs with a positive similarity at or above which a symmetric
+	 * matrix is stored densely (0 always uses dense storage for symmetric metrics, a value above 1 never does)
+	 */
+	public void setDenseFillRatio(final double denseFillRatio) {
+		this.denseFillRatio = denseFillRatio;
+	}
+
+	/**
+	 * @param maxNeighbours - the number of strongest similarities kept for each item, or 0 to keep all of them
+	 */
+	public void setMaxNeighbours(final int maxNeighbours) {
+		this.maxNeighbours = maxNeighbours;
+	}
+
+	/**
+	 * @param candidates - the pairs to be computed, indexed by the reader's current item dictionary,
+	 * or null to compute all pairs
+	 */
+	public void setCandidates(final CandidatePairs candidates) {
+		this.candidates = candidates;
+	}
+
+	/**
+	 * Computes all pairwise item similarities
+	 * @returns a new SimilarityMap
+	 */
+	public SimilarityMap build() {
+		SimilarityMap map = new SimilarityMap();
+		build(map);
+		return map;
+	}
+
+	/**
+	 * Computes all pairwise item similarities into a map
+	 * @param map - the similarity map to be filled
+	 */
+	void build(final SimilarityMap map) {
+		IdDictionary items = reader.getItemDictionary();
+		int nitems = items.size();
+		Integer[] ids = new Integer[nitems]; // boxed once rather than for every pair
+		for (int i = 0; i < nitems; i++)
+			ids[i] = items.getId(i);
+		costs = null;
+		if (candidates != null) {
+			if (candidates.getDictionary() != items)
+				throw new IllegalStateException("The candidate pairs were generated for a different item dictionary");
+			costs = new long[nitems + 1];
+			for (int i = 0; i < nitems; i++) {
+				int[] row = candidates.getCandidates(i);
+				costs[i + 1] = costs[i] + row.length - firstCandidate(i, row);
+			}
+		}
+
+		BoundedSimilarityHeap[] heaps = null;
+		if (maxNeighbours > 0) {
+			heaps = new BoundedSimilarityHeap[nitems];
+			for (int i = 0; i < nitems; i++)
+				heaps[i] = new BoundedSimilarityHeap(maxNeighbours);
+		}
+
+		// pairs are distinct positions of a dense storage, so the tasks can fill it without buffering the matrix
+		DenseSimilarityStorage dense = useDenseStorage(ids) ? new DenseSimilarityStorage(items) : null;
+
+		List<PairBuffer> buffers;
+		RowTask task = new RowTask(ids, heaps, dense, 0, nitems);
+		if (numThreads > 1) {
+			ForkJoinPool pool = new ForkJoinPool(numThreads);
+			try {
+				buffers = pool.invoke(task);
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+		else
+			buffers = task.compute();
+
+		if (heaps != null) {
+			// heaps hold at most k similarities each, so the matrix is sparse
+			SimilarityStorage storage = new SparseSimilarityStorage();
+			SimilarityStatistics statistics = new SimilarityStatistics();
+			for (int i = 0; i < nitems; i++) {
+				if (heaps[i].size() > 0) {
+					Profile profile = heaps[i].toProfile(ids[i]);
+					storage.putSimilarities(profile);
+					statistics.add(profile);
+				}
+			}
+			map.setStorage(storage, statistics);
+			return;
+		}
+
+		if (dense != null) {
+			map.setStorage(dense, dense.recount());
+			return;
+		}
+
+		// the statistics of the stored similarities - symmetric pairs are stored in both directions
+		SimilarityStatistics statistics = new SimilarityStatistics();
+		for (PairBuffer buffer : buffers)
+			for (int k = 0; k < buffer.size; k++)
+				statistics.add(buffer.sims[k], symmetric ? 2 : 1);
+
+		// merge in row order - for symmetric metrics, row j receives the pairs (i, j) with i < j before its own pairs,
+		// so each profile lists its neighbours in ascending index order, as in a sequential build
+		Profile[] profiles = new Profile[nitems];
+		for (PairBuffer buffer : buffers) {
+			for (int k = 0; k < buffer.size; k++) {
+				int i = buffer.rows[k];
+				int j = buffer.columns[k];
+				double sim = buffer.sims[k];
+				add(profiles, ids, i, j, sim);
+				if (symmetric)
+					add(profiles, ids, j, i, sim);
+			}
+		}
+		SimilarityStorage storage = new SparseSimilarityStorage();
+		for (Profile profile : profiles)
+			if (profile != null)
+				storage.putSimilarities(profile);
+		map.setStorage(storage, statistics);
+	}
+
+	/**
+	 * @returns true if all similarities are to be kept in a dense storage - the matrix must be symmetric, fit in a
+	 * dense storage and be estimated to hold at least the dense fill ratio of all pairs
+	 */
+	private boolean useDenseStorage(final Integer[] ids) {
+		int n = ids.length;
+		if (maxNeighbours > 0 || !symmetric || n > DenseSimilarityStorage.MAX_IDS || DenseSimilarityStorage.capacity(n) == 0)
+			return false;
+		if (denseFillRatio <= 0)
+			return true;
+		if (denseFillRatio > 1)
+			return false;
+		return estimateFillRatio(ids) >= denseFillRatio;
+	}
+
+	/**
+	 * Estimates the fill ratio of a symmetric matrix from a sample of evenly spaced rows - pairs that are not
+	 * candidates count as absent
+	 * @returns the fraction of the sampled pairs with a positive similarity
+	 */
+	private double estimateFillRatio(final Integer[] ids) {
+		int n = ids.length;
+		int rows = Math.min(n, FILL_SAMPLE_ROWS);
+		long pairs = 0;
+		long stored = 0;
+		for (int s = 0; s < rows; s++) {
+			int i = (int) ((long) s * n / rows);
+			pairs += n - 1 - i;
+			if (candidates != null) {
+				int[] row = candidates.getCandidates(i);
+				for (int k = firstCandidate(i, row); k < row.length; k++)
+					if (metric.getItemSimilarity(ids[i], ids[row[k]]) > 0)
+						stored++;
+			}
+			else {
+				for (int j = i + 1; j < n; j++)
+					if (metric.getItemSimilarity(ids[i], ids[j]) > 0)
+						stored++;
+			}
+		}
+		return (pairs > 0) ? (double) stored / pairs : 0;
+	}
+
+	/** @returns the position of the first candidate in row, the candidates of i, that is computed - the first after i if the metric is symmetric */
+	private int firstCandidate(final int i, final int[] row) {
+		if (!symmetric)
+			return 0;
+		int from = Arrays.binarySearch(row, i + 1);
+		return (from >= 0) ? from : -from - 1;
+	}
+
+	private static void add(final Profile[] profiles, final Integer[] ids, final int i, final int j, final double sim) {
+		if (profiles[i] == null)
+			profiles[i] = new Profile(ids[i]);
+		profiles[i].addDouble(ids[j], sim);
+	}
+
+	/**
+	 * Computes the similarities for a range of rows, splitting it in two while it holds enough pairs
+	 */
+	private class RowTask extends RecursiveTask<List<PairBuffer>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Integer[] ids;
+		private final BoundedSimilarityHeap[] heaps; // the row heaps, or null if all similarities are kept
+		private final DenseSimilarityStorage dense;  // the storage filled directly, or null if similarities are buffered
+		private final int lo; // the first row
+		private final int hi; // the row after the last row
+
+		RowTask(final Integer[] ids, final BoundedSimilarityHeap[] heaps, final DenseSimilarityStorage dense, final int lo, final int hi) {
+			this.ids = ids;
+			this.heaps = heaps;
+			this.dense = dense;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected List<PairBuffer> compute() {
+			if (hi - lo <= 1 || pairs(lo, hi) <= MIN_PAIRS_PER_TASK) {
+				List<PairBuffer> result = new ArrayList<PairBuffer>();
+				result.add(computeRows());
+				return result;
+			}
+
+			// split so that both halves hold about the same number of pairs
+			long half = pairs(lo, hi) / 2;
+			int a = lo + 1, b = hi - 1;
+			while (a < b) {
+				int mid = (a + b) >>> 1;
+				if (pairs(lo, mid) < half)
+					a = mid + 1;
+				else
+					b = mid;
+			}
+			RowTask left = new RowTask(ids, heaps, dense, lo, a);
+			RowTask right = new RowTask(ids, heaps, dense, a, hi);
+			left.fork();
+			List<PairBuffer> result = new ArrayList<PairBuffer>(right.compute());
+			result.addAll(0, left.join());
+			return result;
+		}
+
+		private PairBuffer computeRows() {
+			int n = ids.length;
+			PairBuffer buffer = new PairBuffer();
+			for (int i = lo; i < hi; i++) {
+				Integer id1 = ids[i];
+				if (candidates != null) {
+					int[] row = candidates.getCandidates(i);
+					for (int k = firstCandidate(i, row); k < row.length; k++)
+						compute(buffer, i, row[k], id1);
+				}
+				else {
+					for (int j = symmetric ? i + 1 : 0; j < n; j++)
+						if (i != j)
+							compute(buffer, i, j, id1);
+				}
+			}
+			return buffer;
+		}
+
+		private void compute(final PairBuffer buffer, final int i, final int j, final Integer id1) {
+			double sim = metric.getItemSimilarity(id1, ids[j]);
+			if (sim > 0) {
+				if (dense != null)
+					dense.store(i, j, sim);
+				else if (heaps == null)
+					buffer.add(i, j, sim);
+				else
+					offer(i, j, sim);
+			}
+		}
+
+		private void offer(final int i, final int j, final double sim) {
+			if (!symmetric) {
+				heaps[i].offer(ids[j], sim); // row i belongs to this task alone
+				return;
+			}
+			synchronized (heaps[i]) {
+				heaps[i].offer(ids[j], sim);
+			}
+			synchronized (heaps[j]) {
+				heaps[j].offer(ids[i], sim);
+			}
+		}
+
+		/** @returns the number of pairs computed for rows [from, to) */
+		private long pairs(final int from, final int to) {
+			if (costs != null)
+				return costs[to] - costs[from];
+			long n = ids.length;
+			long rows = to - from;
+			if (!symmetric)
+				return rows * (n - 1);
+			// row i holds the pairs (i, j) for j > i
+			return rows * (n - 1) - ((long) from + to - 1) * rows / 2;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package alg.np.similarity;
+
+import profile.Profile;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the binary file of a SimilarityMap, which MappedSimilarityStorage serves from a memory
+ * mapping. The file records the fingerprint of the dataset and a key naming how the similarities were computed
+ * (e.g. the metric), and is rejected (read() returns null) if either differs from what the caller expects.
+ *
+ * Layout (big-endian, as written by DataOutputStream):
+ *   header  - MAGIC, VERSION, dataset fingerprint, key, padding to a multiple of 4 bytes
+ *   rows    - per row, in ascending row ID order: the neighbour IDs, their similarities as floats, and the
+ *             positions of the neighbours within the row in ascending neighbour ID order
+ *   footer  - number of rows, the row IDs, the index of each row's first entry, and the number of entries
+ *   trailer - the position of the footer (long) and MAGIC
+ * Strings are stored as an int byte length followed by UTF-8 bytes. Neighbours are stored in the iteration order
+ * of the map's rows, so that a mapped row iterates exactly as the row it was written from; the sorted positions
+ * let single similarities be found by binary search. Rows are written in a single pass and indexed by the footer,
+ * so each row of the map is requested once.
+ * A file is mapped as a whole, so it is limited to 2GB (about 178 million similarities).
+ */
+class SimilarityMapFile {
+
+	private static final int MAGIC = 0x53494D4D; // "SIMM"
+	private static final int VERSION = 1;
+	private static final int TRAILER_BYTES = 12;
+
+	private SimilarityMapFile() {
+	}
+
+	/**
+	 * Writes the similarities of a map. The file is written under a temporary name and then renamed, so that
+	 * other processes never map a partly written file.
+	 * @param map - the map to be saved
+	 * @param filename - the path of the file
+	 * @param fingerprint - the fingerprint of the dataset the similarities were computed from
+	 * @param key - names how the similarities were computed
+	 * @throws IOException if the file cannot be written, or would exceed 2GB
+	 */
+	static void write(final SimilarityMap map, final String filename, final long fingerprint, final String key) throws IOException {
+		int[] rowIds = new int[map.getIds().size()];
+		int numRows = 0;
+		for (Integer id : map.getIds())
+			rowIds[numRows++] = id;
+		Arrays.sort(rowIds);
+
+		Writer writer = new Writer(filename, fingerprint, key);
+		try {
+			for (int r = 0; r < numRows; r++) {
+				Profile row = map.getSimilarities(rowIds[r]);
+				int size = (row != null) ? row.getSize() : 0;
+				int[] ids = new int[size];
+				float[] sims = new float[size];
+				int[] count = new int[1];
+				if (row != null)
+					row.forEach((id, sim) -> {
+						ids[count[0]] = id;
+						sims[count[0]++] = (float) sim;
+					});
+				writer.writeRow(rowIds[r], ids, sims, size);
+			}
+			writer.commit();
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes a file row by row, so that similarities computed a row at a time (e.g. by ExternalSimilarityBuilder)
+	 * need never be held in a SimilarityMap. Only the row index is held in memory.
+	 * The file is written under a temporary name and renamed by commit(); close() discards an uncommitted file.
+	 */
+	static class Writer {
+
+		private final String filename;
+		private final Path target;
+		private final Path temp;
+		private final DataOutputStream out;
+		private int[] rowIds = new int[1024];
+		private int[] rowStarts = new int[1025];
+		private int numRows = 0;
+		private long numEntries = 0;
+		private boolean closed = false;
+
+		/**
+		 * Constructor - creates the temporary file and writes the header
+		 * @param filename - the path of the file
+		 * @param fingerprint - the fingerprint of the dataset the similarities were computed from
+		 * @param key - names how the similarities were computed
+		 * @throws IOException if the file cannot be created
+		 */
+		Writer(final String filename, final long fingerprint, final String key) throws IOException {
+			this.filename = filename;
+			this.target = Paths.get(filename).toAbsolutePath();
+			this.temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			DataOutputStream stream = null;
+			try {
+				stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp.toFile()), 1 << 16));
+				stream.writeInt(MAGIC);
+				stream.writeInt(VERSION);
+				stream.writeLong(fingerprint);
+				byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+				stream.writeInt(bytes.length);
+				stream.write(bytes);
+				stream.write(new byte[(4 - bytes.length % 4) % 4]);
+			}
+			catch (IOException e) {
+				if (stream != null)
+					stream.close();
+				Files.deleteIfExists(temp);
+				throw e;
+			}
+			this.out = stream;
+		}
+
+		/**
+		 * Writes a row - rows must be written in ascending ID order
+		 * @param id - the row ID
+		 * @param ids - the neighbour IDs, in the order in which the row is to iterate
+		 * @param sims - the similarities
+		 * @param size - the number of neighbours
+		 * @throws IOException if the row cannot be written, or the file would exceed 2GB
+		 */
+		void writeRow(final int id, final int[] ids, final float[] sims, final int size) throws IOException {
+			if (numRows > 0 && id <= rowIds[numRows - 1])
+				throw new IllegalArgumentException("Rows must be written in ascending ID order: " + id);
+			if (numRows == rowIds.length) {
+				rowIds = Arrays.copyOf(rowIds, 2 * numRows);
+				rowStarts = Arrays.copyOf(rowStarts, 2 * numRows + 1);
+			}
+			rowIds[numRows] = id;
+			rowStarts[numRows++] = (int) numEntries;
+
+			int[] rowNeighbours = (ids.length == size) ? ids : Arrays.copyOf(ids, size);
+			for (int k = 0; k < size; k++)
+				out.writeInt(rowNeighbours[k]);
+			for (int k = 0; k < size; k++)
+				out.writeFloat(sims[k]);
+			for (int position : sortedPositions(rowNeighbours))
+				out.writeInt(position);
+			numEntries += size;
+			if (out.size() == Integer.MAX_VALUE || numEntries > Integer.MAX_VALUE)
+				throw new IOException("Similarity map too large for a single mapped file: \"" + filename + "\"");
+		}
+
+		/**
+		 * Writes the footer and trailer and moves the file into place
+		 * @throws IOException if the file cannot be written or moved
+		 */
+		void commit() throws IOException {
+			rowStarts[numRows] = (int) numEntries;
+			long footer = out.size();
+			out.writeInt(numRows);
+			for (int r = 0; r < numRows; r++)
+				out.writeInt(rowIds[r]);
+			for (int r = 0; r <= numRows; r++)
+				out.writeInt(rowStarts[r]);
+			out.writeLong(footer);
+			out.writeInt(MAGIC);
+			if (out.size() == Integer.MAX_VALUE) // the count saturates
+				throw new IOException("Similarity map too large for a single mapped file: \"" + filename + "\"");
+			closed = true;
+			out.close();
+
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		/**
+		 * Closes the file, deleting it unless it has been committed
+		 * @throws IOException if the file cannot be closed or deleted
+		 */
+		void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				out.close();
+			}
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/** @returns the positions of the IDs in ascending ID order */
+	private static int[] sortedPositions(final int[] ids) {
+		long[] keyed = new long[ids.length];
+		for (int k = 0; k < ids.length; k++)
+			keyed[k] = ((long) ids[k] << 32) | k; // sorts by ID, then position
+		Arrays.sort(keyed);
+		int[] positions = new int[ids.length];
+		for (int k = 0; k < ids.length; k++)
+			positions[k] = (int) keyed[k];
+		return positions;
+	}
+
+	/**
+	 * Maps a file written by write()
+	 * @param filename - the path of the file
+	 * @param fingerprint - the expected dataset fingerprint
+	 * @param key - the expected key
+	 * @returns the storage or null if the file does not exist or is stale (including a truncated or malformed file)
+	 * @throws IOException if the file exists but cannot be read or mapped
+	 */
+	static MappedSimilarityStorage read(final String filename, final long fingerprint, final String key) throws IOException {
+		if (!new File(filename).isFile())
+			return null;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE || size < 20 + TRAILER_BYTES)
+				return null;
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			// header
+			if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION || in.getLong(8) != fingerprint)
+				return null;
+			byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+			if (in.getInt(16) != bytes.length || 20 + bytes.length > size)
+				return null;
+			for (int k = 0; k < bytes.length; k++)
+				if (in.get(20 + k) != bytes[k])
+					return null;
+			int dataStart = 20 + bytes.length + (4 - bytes.length % 4) % 4;
+
+			// trailer and footer
+			int trailer = (int) size - TRAILER_BYTES;
+			if (in.getInt(trailer + 8) != MAGIC)
+				return null;
+			long footer = in.getLong(trailer);
+			if (footer < dataStart || footer + 4 > trailer)
+				return null;
+			int numRows = in.getInt((int) footer);
+			if (numRows < 0 || footer + 4 + 8L * numRows + 4 != trailer)
+				return null;
+			int[] rowIds = new int[numRows];
+			int[] rowStarts = new int[numRows + 1];
+			int p = (int) footer + 4;
+			for (int r = 0; r < numRows; r++, p += 4)
+				rowIds[r] = in.getInt(p);
+			for (int r = 0; r <= numRows; r++, p += 4)
+				rowStarts[r] = in.getInt(p);
+			if (dataStart + 12L * rowStarts[numRows] != footer)
+				return null;
+			return new MappedSimilarityStorage(in, dataStart, rowIds, rowStarts);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package alg.np.similarity;
+
+import profile.Profile;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+
+/**
+ * A size-bounded, thread-safe cache of similarity rows with segmented LRU eviction.
+ * A row enters a probationary segment when it is loaded and moves to a protected segment when it is hit again,
+ * so rows that are read only once (e.g. while scanning all items) cannot flush the frequently used rows.
+ * When the protected segment is full its least recently used row is demoted to the probationary segment,
+ * and when the cache is full the least recently used probationary row is evicted.
+ * A missing row is loaded outside the lock, and threads that miss on a row that is being loaded wait for it
+ * rather than loading it again.
+ */
+class SimilarityRowCache {
+
+	private static final double PROTECTED_RATIO = 0.8; // the fraction of the capacity held by the protected segment
+
+	private final Function<Integer,Profile> loader; // computes a row
+	private final int capacity;          // the maximum number of rows held
+	private final int protectedCapacity; // the maximum number of rows in the protected segment
+
+	// both segments are kept in order of last access, least recently used first
+	private final LinkedHashMap<Integer,Profile> probation = new LinkedHashMap<Integer,Profile>();
+	private final LinkedHashMap<Integer,Profile> protectedRows = new LinkedHashMap<Integer,Profile>();
+	private final Map<Integer,FutureTask<Profile>> loading = new HashMap<Integer,FutureTask<Profile>>();
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Constructor
+	 * @param capacity - the maximum number of rows held (at least 1)
+	 * @param loader - computes the row of an ID
+	 */
+	SimilarityRowCache(final int capacity, final Function<Integer,Profile> loader) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Cache capacity must be at least 1: " + capacity);
+		this.capacity = capacity;
+		this.protectedCapacity = (int) (capacity * PROTECTED_RATIO);
+		this.loader = loader;
+	}
+
+	/**
+	 * Get a row, loading it if it is not cached
+	 * @param id - the ID of the row
+	 * @returns the row
+	 */
+	Profile get(final Integer id) {
+		FutureTask<Profile> task;
+		boolean owner = false;
+		synchronized (this) {
+			Profile row = lookup(id);
+			if (row != null) {
+				hits++;
+				return row;
+			}
+			misses++;
+			task = loading.get(id);
+			if (task == null) {
+				task = new FutureTask<Profile>(() -> loader.apply(id));
+				loading.put(id, task);
+				owner = true;
+			}
+		}
+
+		if (owner)
+			task.run();
+		Profile row = null;
+		boolean loaded = false;
+		try {
+			row = task.get();
+			loaded = true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading similarity row " + id, e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to load similarity row " + id, e.getCause());
+		}
+		finally {
+			// the row is cached in the same step as it stops being loaded, so that no thread can find it neither
+			// cached nor loading and load it again - a row that failed to load is not cached
+			if (owner) {
+				synchronized (this) {
+					loading.remove(id);
+					if (loaded)
+						insert(id, row);
+				}
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * Get a row only if it is cached - does not count as a hit or miss, and does not change the eviction order
+	 * @param id - the ID of the row
+	 * @returns the row or null if it is not cached
+	 */
+	synchronized Profile peek(final Integer id) {
+		Profile row = protectedRows.get(id);
+		return (row != null) ? row : probation.get(id);
+	}
+
+	/** @returns the cached row and marks it as used, or null if it is not cached */
+	private Profile lookup(final Integer id) {
+		Profile row = protectedRows.remove(id);
+		if (row != null) {
+			protectedRows.put(id, row); // most recently used
+			return row;
+		}
+		row = probation.remove(id);
+		if (row != null) {
+			protectedRows.put(id, row); // promote
+			if (protectedRows.size() > protectedCapacity) {
+				Iterator<Map.Entry<Integer,Profile>> iter = protectedRows.entrySet().iterator();
+				Map.Entry<Integer,Profile> eldest = iter.next();
+				iter.remove();
+				probation.put(eldest.getKey(), eldest.getValue()); // demote
+			}
+		}
+		return row;
+	}
+
+	/** Adds a newly loaded row to the probationary segment, evicting a row if the cache is full */
+	private void insert(final Integer id, final Profile row) {
+		probation.put(id, row);
+		if (probation.size() + protectedRows.size() > capacity) {
+			Iterator<Integer> iter = probation.keySet().iterator(); // never empty, as the protected segment is smaller than the cache
+			iter.next();
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	/** @returns the maximum number of rows held */
+	int getCapacity() {
+		return capacity;
+	}
+
+	/** @returns the number of rows held */
+	synchronized int size() {
+		return probation.size() + protectedRows.size();
+	}
+
+	/** @returns the number of requests answered from the cache */
+	synchronized long getHits() {
+		return hits;
+	}
+
+	/** @returns the number of requests for rows that were not cached */
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	/** @returns the number of rows evicted */
+	synchronized long getEvictions() {
+		return evictions;
+	}
+}
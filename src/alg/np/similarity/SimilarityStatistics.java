@@ -0,0 +1,43 @@
+package alg.np.similarity;
+
+import profile.Profile;
+
+/**
+ * The minimum, maximum and number of the similarities stored in a SimilarityMap, counting each direction
+ * of a pair as the map's rows do
+ */
+class SimilarityStatistics {
+
+	double min = Double.POSITIVE_INFINITY;
+	double max = Double.NEGATIVE_INFINITY;
+	long count = 0;
+
+	/**
+	 * Records a stored similarity
+	 * @param sim - the similarity
+	 * @param times - the number of times it is stored (2 for both directions of a symmetric pair)
+	 */
+	void add(final double sim, final int times) {
+		if (sim < min)
+			min = sim;
+		if (sim > max)
+			max = sim;
+		count += times;
+	}
+
+	/** Records the similarities of a row */
+	void add(final Profile row) {
+		row.forEach((id, sim) -> add(sim, 1));
+	}
+
+	/** @returns the statistics of all stored similarities of a storage, by a pass over its rows */
+	static SimilarityStatistics of(final SimilarityStorage storage) {
+		SimilarityStatistics statistics = new SimilarityStatistics();
+		for (Integer id : storage.getIds()) {
+			Profile row = storage.getSimilarities(id);
+			if (row != null)
+				statistics.add(row);
+		}
+		return statistics;
+	}
+}
@@ -0,0 +1,45 @@
+package alg.np.similarity;
+
+import profile.Profile;
+
+import java.util.Set;
+
+/**
+ * A storage strategy for the similarities held by a SimilarityMap
+ */
+public interface SimilarityStorage {
+
+	/**
+	 * @returns the IDs that have at least one stored similarity
+	 */
+	public Set<Integer> getIds();
+
+	/**
+	 * Get the similarities of an ID to all other IDs
+	 * @param id - the ID
+	 * @returns a profile of the stored similarities, or null if the ID has none
+	 */
+	public Profile getSimilarities(final Integer id);
+
+	/**
+	 * Get a stored similarity
+	 * @param id1 - the first ID
+	 * @param id2 - the second ID
+	 * @returns the similarity of id1 to id2, or 0 if it is not stored
+	 */
+	public double getSimilarity(final int id1, final int id2);
+
+	/**
+	 * Stores a similarity
+	 * @param id1 - the first ID
+	 * @param id2 - the second ID
+	 * @param sim - the similarity of id1 to id2
+	 */
+	public void setSimilarity(final int id1, final int id2, final double sim);
+
+	/**
+	 * Stores all similarities of a profile's ID
+	 * @param similarities - a profile holding the similarities of its ID to other IDs
+	 */
+	public void putSimilarities(final Profile similarities);
+}
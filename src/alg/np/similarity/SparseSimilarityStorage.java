@@ -0,0 +1,51 @@
+package alg.np.similarity;
+
+import profile.Profile;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the similarities of each ID as a Profile - suited to sparse similarity matrices
+ */
+public class SparseSimilarityStorage implements SimilarityStorage {
+
+	private Map<Integer,Profile> simMap;
+
+	/**
+	 * Constructor - creates an empty storage
+	 */
+	public SparseSimilarityStorage() {
+		simMap = new HashMap<Integer,Profile>();
+	}
+
+	public Set<Integer> getIds() {
+		return simMap.keySet();
+	}
+
+	public Profile getSimilarities(final Integer id) {
+		return simMap.get(id);
+	}
+
+	public double getSimilarity(final int id1, final int id2) {
+		Profile profile = simMap.get(id1);
+		if (profile == null)
+			return 0;
+		double sim = profile.getDouble(id2);
+		return Double.isNaN(sim) ? 0 : sim;
+	}
+
+	public void setSimilarity(final int id1, final int id2, final double sim) {
+		Profile profile = simMap.get(id1);
+		if (profile == null) {
+			profile = new Profile(id1);
+			simMap.put(id1, profile);
+		}
+		profile.addDouble(id2, sim);
+	}
+
+	public void putSimilarities(final Profile similarities) {
+		simMap.put(similarities.getId(), similarities);
+	}
+}
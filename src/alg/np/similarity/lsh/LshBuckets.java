@@ -0,0 +1,149 @@
+package alg.np.similarity.lsh;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The buckets of the band keys of locality sensitive hashing signatures: two IDs are candidates if they have the
+ * same key in at least one band.
+ * The buckets of two or more IDs are held in flat arrays - the members of each bucket, and the buckets of each ID -
+ * so memory grows with the number of IDs times the number of bands rather than with the number of candidate pairs.
+ * The candidates of an ID are listed on request by walking its buckets. Candidates may be listed concurrently.
+ */
+class LshBuckets {
+
+	private final int n;              // the number of IDs
+	private final int[] bucketStarts; // the members of bucket b are members[bucketStarts[b]] .. members[bucketStarts[b + 1] - 1]
+	private final int[] members;      // in ascending order within each bucket
+	private final int[] idStarts;     // the buckets of ID i are idBuckets[idStarts[i]] .. idBuckets[idStarts[i + 1] - 1]
+	private final int[] idBuckets;
+	private final ThreadLocal<Scratch> scratch; // the working arrays of each thread listing candidates
+
+	/**
+	 * Constructor - groups the IDs by band key
+	 * @param keys - keys[band][i] = the key of band band of ID i
+	 * @param hashed - hashed[i] = false if ID i has no signature (and so no candidates)
+	 */
+	LshBuckets(final long[][] keys, final boolean[] hashed) {
+		n = hashed.length;
+
+		// number the buckets of every band and count their members
+		int[][] bucketOf = new int[keys.length][];
+		int[] sizes = new int[16];
+		int numBuckets = 0;
+		for (int band = 0; band < keys.length; band++) {
+			bucketOf[band] = new int[n];
+			Map<Long,Integer> numbers = new HashMap<Long,Integer>();
+			for (int i = 0; i < n; i++) {
+				if (!hashed[i]) {
+					bucketOf[band][i] = -1;
+					continue;
+				}
+				Integer bucket = numbers.get(keys[band][i]);
+				if (bucket == null) {
+					bucket = numBuckets++;
+					numbers.put(keys[band][i], bucket);
+					if (bucket == sizes.length)
+						sizes = Arrays.copyOf(sizes, 2 * sizes.length);
+				}
+				bucketOf[band][i] = bucket;
+				sizes[bucket]++;
+			}
+		}
+
+		// keep the buckets of two or more IDs - a bucket of one ID proposes no pairs
+		int[] kept = new int[numBuckets];
+		int numKept = 0;
+		for (int b = 0; b < numBuckets; b++)
+			kept[b] = (sizes[b] >= 2) ? numKept++ : -1;
+		bucketStarts = new int[numKept + 1];
+		for (int b = 0; b < numBuckets; b++)
+			if (kept[b] >= 0)
+				bucketStarts[kept[b] + 1] = sizes[b];
+		for (int b = 0; b < numKept; b++)
+			bucketStarts[b + 1] += bucketStarts[b];
+
+		idStarts = new int[n + 1];
+		for (int[] band : bucketOf)
+			for (int i = 0; i < n; i++)
+				if (band[i] >= 0 && kept[band[i]] >= 0)
+					idStarts[i + 1]++;
+		for (int i = 0; i < n; i++)
+			idStarts[i + 1] += idStarts[i];
+
+		// fill both in ascending ID order
+		members = new int[bucketStarts[numKept]];
+		idBuckets = new int[idStarts[n]];
+		int[] memberFill = Arrays.copyOf(bucketStarts, numKept);
+		int[] idFill = Arrays.copyOf(idStarts, n);
+		for (int[] band : bucketOf) {
+			for (int i = 0; i < n; i++) {
+				int bucket = (band[i] >= 0) ? kept[band[i]] : -1;
+				if (bucket >= 0) {
+					members[memberFill[bucket]++] = i;
+					idBuckets[idFill[i]++] = bucket;
+				}
+			}
+		}
+
+		scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+	}
+
+	/**
+	 * Lists the other members of an ID's buckets
+	 * @param i - the ID's dense index
+	 * @returns the candidates of the ID in ascending order
+	 */
+	int[] getCandidates(final int i) {
+		Scratch s = scratch.get();
+		int mark = s.nextMark();
+		int count = 0;
+		for (int t = idStarts[i]; t < idStarts[i + 1]; t++) {
+			int bucket = idBuckets[t];
+			for (int p = bucketStarts[bucket]; p < bucketStarts[bucket + 1]; p++) {
+				int j = members[p];
+				if (j != i && s.marks[j] != mark) {
+					s.marks[j] = mark;
+					s.found[count++] = j;
+				}
+			}
+		}
+		int[] candidates = Arrays.copyOf(s.found, count);
+		Arrays.sort(candidates);
+		return candidates;
+	}
+
+	/** @returns the number of unordered candidate pairs - lists the candidates of every ID */
+	long countPairs() {
+		long pairs = 0;
+		for (int i = 0; i < n; i++)
+			pairs += getCandidates(i).length;
+		return pairs / 2;
+	}
+
+	/**
+	 * The working arrays of a thread listing candidates - an ID is seen in the current listing if its mark equals
+	 * the listing's mark, so the marks need not be cleared between listings
+	 */
+	private static class Scratch {
+
+		final int[] marks;
+		final int[] found;
+		private int mark;
+
+		Scratch(final int n) {
+			marks = new int[n];
+			found = new int[n];
+		}
+
+		/** @returns the mark of a new listing */
+		int nextMark() {
+			if (++mark == Integer.MAX_VALUE) {
+				Arrays.fill(marks, 0);
+				mark = 1;
+			}
+			return mark;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package alg.np.similarity.lsh;
+
+import alg.np.similarity.CandidatePairs;
+import util.IdDictionary;
+import util.Item;
+import util.reader.DatasetReader;
+import util.reader.RatingMatrix;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Proposes candidate item pairs by locality sensitive hashing of MinHash signatures.
+ * Each item is represented by a set (e.g. the users who rated it, or its genres) and summarised by bands * rows
+ * MinHash values - the probability that two items agree on one value equals the Jaccard index s of their sets.
+ * The signature is divided into bands of rows values, and two items become candidates if they agree on every
+ * value of at least one band, which happens with probability 1 - (1 - s^rows)^bands. This S-curve rises most
+ * steeply around s = (1 / bands)^(1 / rows) (see getThreshold()): more bands raise the recall of pairs below the
+ * threshold, more rows lower the number of dissimilar candidates.
+ * Items with empty sets have no candidates.
+ * Only the buckets are kept - the candidates of an item are listed from them by each call to getCandidates().
+ */
+public class MinHashIndex implements CandidatePairs {
+
+	public static final long DEFAULT_SEED = 0x5DEECE66DL;
+
+	private final IdDictionary items; // the item dictionary the sets are indexed by
+	private final int bands;          // the number of bands
+	private final int rows;           // the number of signature values per band
+	private final LshBuckets buckets; // lists the candidates of each ID
+	private final long numCandidatePairs; // the number of unordered candidate pairs
+
+	/**
+	 * Constructor
+	 * @param items - the item dictionary
+	 * @param sets - sets[i] = the elements of the set of the item with dense index i
+	 * @param bands - the number of bands
+	 * @param rows - the number of signature values per band
+	 * @param seed - seeds the hash functions
+	 */
+	public MinHashIndex(final IdDictionary items, final int[][] sets, final int bands, final int rows, final long seed) {
+		if (bands < 1 || rows < 1)
+			throw new IllegalArgumentException("Bands and rows must be positive: " + bands + ", " + rows);
+		this.items = items;
+		this.bands = bands;
+		this.rows = rows;
+		int n = items.size();
+
+		int[][] signatures = signatures(sets, bands * rows, seed);
+		long[][] keys = new long[bands][n];
+		boolean[] hashed = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			if (signatures[i] != null) {
+				hashed[i] = true;
+				for (int band = 0; band < bands; band++)
+					keys[band][i] = bandKey(signatures[i], band * rows, rows);
+			}
+		}
+		buckets = new LshBuckets(keys, hashed);
+		numCandidatePairs = buckets.countPairs();
+	}
+
+	/**
+	 * Indexes the users who rated each item, for rating overlap based similarities
+	 * @param reader - the dataset reader
+	 * @param bands - the number of bands
+	 * @param rows - the number of signature values per band
+	 * @returns a new MinHashIndex
+	 */
+	public static MinHashIndex forRaters(final DatasetReader reader, final int bands, final int rows) {
+		return forUsers(reader, Double.NEGATIVE_INFINITY, bands, rows);
+	}
+
+	/**
+	 * Indexes the users who liked each item, e.g. for IncConfidenceMetric, whose similarity is 0 unless some user
+	 * liked both items
+	 * @param reader - the dataset reader
+	 * @param threshold - ratings at or above the threshold are positive
+	 * @param bands - the number of bands
+	 * @param rows - the number of signature values per band
+	 * @returns a new MinHashIndex
+	 */
+	public static MinHashIndex forLikers(final DatasetReader reader, final double threshold, final int bands, final int rows) {
+		return forUsers(reader, threshold, bands, rows);
+	}
+
+	private static MinHashIndex forUsers(final DatasetReader reader, final double threshold, final int bands, final int rows) {
+		RatingMatrix ratings = reader.getItemUserMatrix();
+		IdDictionary items = reader.getItemDictionary();
+		int[][] sets = new int[items.size()][];
+		for (int i = 0; i < sets.length; i++) {
+			int[] users = new int[ratings.getRowSize(i)];
+			int count = 0;
+			for (int p = ratings.getRowStart(i); p < ratings.getRowEnd(i); p++)
+				if (ratings.getValue(p) >= threshold)
+					users[count++] = ratings.getColumn(p);
+			sets[i] = (count == users.length) ? users : Arrays.copyOf(users, count);
+		}
+		return new MinHashIndex(items, sets, bands, rows, DEFAULT_SEED);
+	}
+
+	/**
+	 * Indexes the genres of each item, e.g. for GenreMetric
+	 * @param reader - the dataset reader
+	 * @param bands - the number of bands
+	 * @param rows - the number of signature values per band
+	 * @returns a new MinHashIndex
+	 */
+	public static MinHashIndex forGenres(final DatasetReader reader, final int bands, final int rows) {
+		IdDictionary items = reader.getItemDictionary();
+		int[][] sets = new int[items.size()][];
+		for (int i = 0; i < sets.length; i++) {
+			Item item = reader.getItem(items.getId(i));
+			Set<String> genres = (item != null) ? item.getGenres() : null;
+			if (genres == null) {
+				sets[i] = new int[0];
+				continue;
+			}
+			sets[i] = new int[genres.size()];
+			int k = 0;
+			for (String genre : genres)
+				sets[i][k++] = genre.hashCode();
+		}
+		return new MinHashIndex(items, sets, bands, rows, DEFAULT_SEED);
+	}
+
+	/**
+	 * Computes the MinHash signature of each set with the hash functions h(e) = (a * e + b) >>> 33, for random
+	 * odd a and random b (multiply-shift hashing to 31 bits)
+	 * @returns the signatures, null for empty sets
+	 */
+	private static int[][] signatures(final int[][] sets, final int length, final long seed) {
+		Random random = new Random(seed);
+		long[] a = new long[length];
+		long[] b = new long[length];
+		for (int f = 0; f < length; f++) {
+			a[f] = random.nextLong() | 1;
+			b[f] = random.nextLong();
+		}
+		int[][] signatures = new int[sets.length][];
+		for (int i = 0; i < sets.length; i++) {
+			if (sets[i].length == 0)
+				continue;
+			int[] signature = new int[length];
+			Arrays.fill(signature, Integer.MAX_VALUE);
+			for (int e : sets[i]) {
+				for (int f = 0; f < length; f++) {
+					int h = (int) ((a[f] * e + b[f]) >>> 33);
+					if (h < signature[f])
+						signature[f] = h;
+				}
+			}
+			signatures[i] = signature;
+		}
+		return signatures;
+	}
+
+	/**
+	 * Hashes the values of one band to 64 bits - distinct bands collide with negligible probability,
+	 * which at worst adds a candidate
+	 */
+	private static long bandKey(final int[] signature, final int from, final int length) {
+		long h = 0;
+		for (int k = from; k < from + length; k++)
+			h = mix(h * 0x9E3779B97F4A7C15L + signature[k]);
+		return h;
+	}
+
+	/** The finaliser of MurmurHash3 - spreads every input bit over the output */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	public IdDictionary getDictionary() {
+		return items;
+	}
+
+	public int[] getCandidates(final int index) {
+		return buckets.getCandidates(index);
+	}
+
+	/** @returns the number of bands */
+	public int getBands() {
+		return bands;
+	}
+
+	/** @returns the number of signature values per band */
+	public int getRows() {
+		return rows;
+	}
+
+	/** @returns the number of unordered candidate pairs */
+	public long getNumCandidatePairs() {
+		return numCandidatePairs;
+	}
+
+	/** @returns the approximate Jaccard index above which pairs are likely to become candidates, (1 / bands)^(1 / rows) */
+	public double getThreshold() {
+		return Math.pow(1.0 / bands, 1.0 / rows);
+	}
+
+	/** @returns the probability that two items with sets of Jaccard index s become candidates */
+	public double getCandidateProbability(final double s) {
+		return 1 - Math.pow(1 - Math.pow(s, rows), bands);
+	}
+}
@@ -0,0 +1,158 @@
+package alg.np.similarity.lsh;
+
+import alg.np.similarity.CandidatePairs;
+import profile.Profile;
+import util.IdDictionary;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Proposes candidate pairs of profiles (e.g. users) by locality sensitive hashing of random hyperplane
+ * (SimHash) signatures, for cosine-like similarities.
+ * Each signature bit is the side of a random hyperplane through the origin on which a profile lies - the sign of
+ * the dot product of the profile with a random vector of +1 / -1 entries, one per ID. Two profiles at angle theta
+ * agree on a bit with probability p = 1 - theta / pi, so profiles with a high cosine similarity tend to agree.
+ * The signature is divided into bands of rows bits, and two profiles become candidates if they agree on every bit
+ * of at least one band, which happens with probability 1 - (1 - p^rows)^bands (see getCandidateProbability()).
+ * For Pearson similarity the values of each profile are centred on the profile's mean before hashing.
+ * The random vectors are never stored: the entry of an ID is a bit of a hash of the ID.
+ * Profiles without values, or whose values are all equal once centred, have no candidates.
+ * The candidate lists are not stored: each call to getCandidates() lists them from the profile's buckets.
+ */
+public class SimHashIndex implements CandidatePairs {
+
+	public static final long DEFAULT_SEED = 0x2545F4914F6CDD1DL;
+
+	/** The largest number of bits per band */
+	public static final int MAX_ROWS = 64;
+
+	private final IdDictionary ids;   // the profile dictionary
+	private final int bands;          // the number of bands
+	private final int rows;           // the number of bits per band
+	private final LshBuckets buckets; // lists the candidates of each ID
+	private final long numCandidatePairs; // the number of unordered candidate pairs
+
+	/**
+	 * Constructor
+	 * @param profiles - the profiles
+	 * @param centred - true if the values are centred on each profile's mean, for Pearson similarity
+	 * @param bands - the number of bands
+	 * @param rows - the number of bits per band, at most MAX_ROWS
+	 * @param seed - seeds the random hyperplanes
+	 */
+	public SimHashIndex(final Map<Integer,Profile> profiles, final boolean centred, final int bands, final int rows, final long seed) {
+		if (bands < 1 || rows < 1 || rows > MAX_ROWS)
+			throw new IllegalArgumentException("Bands must be positive and rows in [1, " + MAX_ROWS + "]: " + bands + ", " + rows);
+		this.ids = new IdDictionary(profiles.keySet());
+		this.bands = bands;
+		this.rows = rows;
+		int n = ids.size();
+		int numBits = bands * rows;
+
+		long[][] keys = new long[bands][n];
+		boolean[] hashed = new boolean[n];
+		double[] projections = new double[numBits];
+		for (int i = 0; i < n; i++) {
+			Profile profile = profiles.get(ids.getId(i));
+			if (project(profile, centred, seed, projections)) {
+				hashed[i] = true;
+				for (int band = 0; band < bands; band++) {
+					long key = 0;
+					for (int bit = band * rows; bit < (band + 1) * rows; bit++)
+						key = (key << 1) | ((projections[bit] >= 0) ? 1 : 0);
+					keys[band][i] = key;
+				}
+			}
+		}
+		buckets = new LshBuckets(keys, hashed);
+		numCandidatePairs = buckets.countPairs();
+	}
+
+	/**
+	 * Indexes profiles for CosineMetric
+	 * @param profiles - the profiles
+	 * @param bands - the number of bands
+	 * @param rows - the number of bits per band
+	 * @returns a new SimHashIndex
+	 */
+	public static SimHashIndex forCosine(final Map<Integer,Profile> profiles, final int bands, final int rows) {
+		return new SimHashIndex(profiles, false, bands, rows, DEFAULT_SEED);
+	}
+
+	/**
+	 * Indexes profiles for PearsonMetric - the values are centred on each profile's mean, an approximation of
+	 * the metric, which centres on the means of the co-rated values of each pair
+	 * @param profiles - the profiles
+	 * @param bands - the number of bands
+	 * @param rows - the number of bits per band
+	 * @returns a new SimHashIndex
+	 */
+	public static SimHashIndex forPearson(final Map<Integer,Profile> profiles, final int bands, final int rows) {
+		return new SimHashIndex(profiles, true, bands, rows, DEFAULT_SEED);
+	}
+
+	/**
+	 * Projects a profile onto the random vectors, one per signature bit. The entries of an ID are taken 64 bits
+	 * at a time from hashes of the ID and the word number.
+	 * @param projections - receives the projections
+	 * @returns false if the profile is 0 (once centred), so its signature would carry no information
+	 */
+	private static boolean project(final Profile profile, final boolean centred, final long seed, final double[] projections) {
+		Arrays.fill(projections, 0);
+		double mean = centred ? profile.getMeanValue() : 0;
+		boolean[] nonZero = new boolean[1];
+		profile.forEach((id, value) -> {
+			if (Double.isNaN(value))
+				return;
+			double x = value - mean;
+			if (x == 0)
+				return;
+			nonZero[0] = true;
+			for (int word = 0; word * 64 < projections.length; word++) {
+				long signs = MinHashIndex.mix(seed ^ MinHashIndex.mix(((long) id << 16) | word));
+				int end = Math.min(projections.length, (word + 1) * 64);
+				for (int bit = word * 64; bit < end; bit++, signs >>>= 1)
+					projections[bit] += ((signs & 1) != 0) ? x : -x;
+			}
+		});
+		return nonZero[0];
+	}
+
+	public IdDictionary getDictionary() {
+		return ids;
+	}
+
+	public int[] getCandidates(final int index) {
+		return buckets.getCandidates(index);
+	}
+
+	/** @returns the number of bands */
+	public int getBands() {
+		return bands;
+	}
+
+	/** @returns the number of bits per band */
+	public int getRows() {
+		return rows;
+	}
+
+	/** @returns the number of unordered candidate pairs */
+	public long getNumCandidatePairs() {
+		return numCandidatePairs;
+	}
+
+	/**
+	 * @returns the approximate cosine similarity above which pairs are likely to become candidates -
+	 * the similarity at which the probability that a bit agrees is (1 / bands)^(1 / rows)
+	 */
+	public double getThreshold() {
+		return Math.cos(Math.PI * (1 - Math.pow(1.0 / bands, 1.0 / rows)));
+	}
+
+	/** @returns the probability that two profiles with cosine similarity cos become candidates */
+	public double getCandidateProbability(final double cos) {
+		double p = 1 - Math.acos(Math.max(-1, Math.min(1, cos))) / Math.PI;
+		return 1 - Math.pow(1 - Math.pow(p, rows), bands);
+	}
+}
@@ -0,0 +1,200 @@
+package alg.np.similarity.metric;
+
+import util.IdDictionary;
+import util.reader.DatasetReader;
+import util.reader.RatingMatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A snapshot of the rating co-occurrence counts of all items, given a threshold at which a rating is positive:
+ * for each item X the number of users who rated and liked X, and for each pair of items (X, Y) rated by at least
+ * one common user the number of users who rated both, liked both, and rated X without liking it but liked Y.
+ * The pair counts are held as one sparse row per item, sorted by the dense index of the other item, so a count is
+ * found by binary search within a row.
+ * The counts are computed in a single pass over the rating matrices: the row of item X is accumulated by visiting
+ * the items of every user who rated X. Rows are independent, so blocks of rows are computed in parallel.
+ */
+public class CoOccurrenceCounts {
+
+	private static final int ROWS_PER_BLOCK = 32; // the number of item rows a worker claims at a time
+
+	private final IdDictionary items; // the item dictionary the counts are indexed by
+	private final double threshold;   // ratings at or above the threshold are positive
+	private final int[] rated;        // rated[x] = the number of users who rated X
+	private final int[] liked;        // liked[x] = the number of users who liked X
+
+	// for each item X, the items rated together with X in ascending index order, and the counts of each pair
+	private final int[][] coItems;
+	private final int[][] coRated;          // users who rated X and Y
+	private final int[][] coLiked;          // users who liked X and Y
+	private final int[][] unlikedXLikedY;   // users who rated X without liking it and liked Y
+
+	/**
+	 * Constructor - computes the counts of the reader's current training ratings
+	 * @param reader - the dataset reader
+	 * @param threshold - ratings at or above the threshold are positive
+	 * @param numThreads - the number of worker threads
+	 */
+	public CoOccurrenceCounts(final DatasetReader reader, final double threshold, final int numThreads) {
+		this.threshold = threshold;
+		RatingMatrix itemUser = reader.getItemUserMatrix();
+		RatingMatrix userItem = reader.getUserItemMatrix();
+		this.items = reader.getItemDictionary();
+		int n = itemUser.getNumRows();
+
+		rated = new int[n];
+		liked = new int[n];
+		for (int x = 0; x < n; x++) {
+			rated[x] = itemUser.getRowSize(x);
+			for (int p = itemUser.getRowStart(x); p < itemUser.getRowEnd(x); p++)
+				if (itemUser.getValue(p) >= threshold)
+					liked[x]++;
+		}
+
+		coItems = new int[n][];
+		coRated = new int[n][];
+		coLiked = new int[n][];
+		unlikedXLikedY = new int[n][];
+
+		int numBlocks = (n + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK;
+		AtomicInteger nextBlock = new AtomicInteger();
+		Runnable worker = () -> {
+			int[] counts = new int[3 * n]; // the three counts of each other item, interleaved
+			int[] touched = new int[n];
+			int block;
+			while ((block = nextBlock.getAndIncrement()) < numBlocks) {
+				int lo = block * ROWS_PER_BLOCK;
+				for (int x = lo; x < Math.min(lo + ROWS_PER_BLOCK, n); x++)
+					countRow(x, itemUser, userItem, counts, touched);
+			}
+		};
+
+		int threads = Math.max(1, Math.min(numThreads, numBlocks));
+		if (threads == 1)
+			worker.run();
+		else {
+			// the first failure of a worker stops the others, and is rethrown once they have finished
+			AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				workers[t] = new Thread(() -> {
+					try {
+						worker.run();
+					}
+					catch (Throwable e) {
+						failure.compareAndSet(null, e);
+						nextBlock.set(numBlocks);
+					}
+				});
+				workers[t].start();
+			}
+			try {
+				for (Thread t : workers)
+					t.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while counting item co-occurrences", e);
+			}
+			Throwable e = failure.get();
+			if (e instanceof RuntimeException)
+				throw (RuntimeException) e;
+			if (e instanceof Error)
+				throw (Error) e;
+		}
+	}
+
+	/**
+	 * Computes the pair counts of one item
+	 * @param counts - the worker's scratch counts, all 0 on entry and exit
+	 * @param touched - the worker's scratch list of items with non-zero counts
+	 */
+	private void countRow(final int x, final RatingMatrix itemUser, final RatingMatrix userItem, final int[] counts, final int[] touched) {
+		int numTouched = 0;
+		for (int p = itemUser.getRowStart(x); p < itemUser.getRowEnd(x); p++) {
+			int user = itemUser.getColumn(p);
+			boolean likedX = itemUser.getValue(p) >= threshold;
+			for (int q = userItem.getRowStart(user); q < userItem.getRowEnd(user); q++) {
+				int y = userItem.getColumn(q);
+				if (y == x)
+					continue;
+				int c = 3 * y;
+				if (counts[c] == 0)
+					touched[numTouched++] = y;
+				counts[c]++;
+				if (userItem.getValue(q) >= threshold) {
+					if (likedX)
+						counts[c + 1]++;
+					else
+						counts[c + 2]++;
+				}
+			}
+		}
+
+		Arrays.sort(touched, 0, numTouched);
+		int[] others = Arrays.copyOf(touched, numTouched);
+		int[] r = new int[numTouched];
+		int[] l = new int[numTouched];
+		int[] u = new int[numTouched];
+		for (int k = 0; k < numTouched; k++) {
+			int c = 3 * others[k];
+			r[k] = counts[c];
+			l[k] = counts[c + 1];
+			u[k] = counts[c + 2];
+			counts[c] = counts[c + 1] = counts[c + 2] = 0;
+		}
+		coItems[x] = others;
+		coRated[x] = r;
+		coLiked[x] = l;
+		unlikedXLikedY[x] = u;
+	}
+
+	/** @returns the item dictionary the counts are indexed by */
+	public IdDictionary getItemDictionary() {
+		return items;
+	}
+
+	/** @returns the threshold at or above which a rating is positive */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/** @returns the number of users who rated the item with dense index x */
+	public int getRated(final int x) {
+		return rated[x];
+	}
+
+	/** @returns the number of users who liked the item with dense index x */
+	public int getLiked(final int x) {
+		return liked[x];
+	}
+
+	/**
+	 * Finds a pair in the row of an item
+	 * @param x - the dense index of the first item
+	 * @param y - the dense index of the second item
+	 * @returns the position of y in the row of x, or -1 if no user rated both items
+	 */
+	public int find(final int x, final int y) {
+		int position = Arrays.binarySearch(coItems[x], y);
+		return (position >= 0) ? position : -1;
+	}
+
+	/** @returns the number of users who rated both items of the pair at a position in the row of x */
+	public int getCoRated(final int x, final int position) {
+		return coRated[x][position];
+	}
+
+	/** @returns the number of users who liked both items of the pair at a position in the row of x */
+	public int getCoLiked(final int x, final int position) {
+		return coLiked[x][position];
+	}
+
+	/** @returns the number of users who rated x without liking it and liked the other item of the pair at a position */
+	public int getUnlikedXLikedY(final int x, final int position) {
+		return unlikedXLikedY[x][position];
+	}
+}
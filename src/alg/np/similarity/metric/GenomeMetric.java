@@ -1,23 +1,27 @@
 package alg.np.similarity.metric;
 
+import util.DenseKernels;
 import util.reader.DatasetReader;
-import profile.Profile;
+import util.reader.GenomeMatrix;
 
 /**
  * Measures similarity based genomes - machine learning generated semantic content descriptors for the MovieLens dataset. 
  * All items a scored by how much they relate to each genome, with scores in range [0, 1]. There are 1128 genomes in total. 
  * For two items with associated sets genome scores A and B, the genome similarity is given by the weighted Jaccard index:
+ * sum(min(A_i, B_i)) / sum(max(A_i, B_i)).
+ * The scores are read from the dataset's dense genome matrix, so each similarity is a sequential scan over two rows
+ * (see DenseKernels).
  */
 public class GenomeMetric implements SimilarityMetric {
 	
-	private DatasetReader reader; // dataset reader
+	private GenomeMatrix genome; // the genome scores of all items
 	
 	/**
 	 * Constructor
 	 * @param reader - the dataset reader
 	 */
 	public GenomeMetric(final DatasetReader reader) {
-		this.reader = reader;
+		this.genome = reader.getGenomeMatrix();
 	}
 	
 	/**
@@ -27,28 +31,27 @@ public class GenomeMetric implements SimilarityMetric {
 	 */
 	public double getItemSimilarity(final Integer X, final Integer Y) {
 		
-		// Get the genome scores for the two items
-		Profile x = reader.getItem(X).getGenomeScores();
-		Profile y = reader.getItem(Y).getGenomeScores();
+		// Get the genome score rows for the two items
+		int x = genome.getRow(X);
+		int y = genome.getRow(Y);
+		if (x < 0 || y < 0)
+			return 0; // no genome scores
 		
-		// calculate similarity using weighted Jaccard
-		double denom = 0;
-		double divis = 0;
-		for (Integer i : x.getIds()) {
-			double xi = x.getValue(i);
-			double yi = y.getValue(i);
-			if (xi <= yi) {
-				denom += xi;
-				divis += yi;
-			} else {
-				denom += yi;
-				divis += xi;
-			}
-		}
-		return denom / divis;
+		return DenseKernels.weightedJaccard(genome.getScores(), genome.getRowOffset(x), genome.getRowOffset(y), genome.getNumTags());
+	}
+	
+	/**
+	 * The weighted Jaccard index is symmetric
+	 */
+	public boolean isSymmetric() {
+		return true;
 	}
 	
 	public String toString() {
 		return "Genome";
 	}
+
+	public String getCacheKey() {
+		return "Genome";
+	}
 }
@@ -1,5 +1,7 @@
 package alg.np.similarity.metric;
 
+import util.IdDictionary;
+import util.Item;
 import util.reader.DatasetReader;
 
 import java.util.Set;
@@ -7,10 +9,13 @@ import java.util.Set;
 /**
  * Measures the similarity between two items  by how many genres they have in common 
  * over the total number genres across both items. This uses the Jaccard Index.
+ * If the items' genres are available as bitmasks, the common genres are counted with a single popcount.
  */
 public class GenreMetric implements SimilarityMetric {	
 	
 	private DatasetReader reader; // dataset reader
+	private IdDictionary items;   // maps item ids to positions in masks
+	private long[] masks;         // the genre mask of each item - null if masks are not available
 	
 	/**
 	 * Constructor
@@ -18,6 +23,15 @@ public class GenreMetric implements SimilarityMetric {
 	 */
 	public GenreMetric(final DatasetReader reader) {
 		this.reader = reader;
+		this.items = reader.getItemDictionary();
+		if (reader.getGenreDictionary().isComplete()) {
+			masks = new long[items.size()];
+			for (int i = 0; i < masks.length; i++) {
+				Item item = reader.getItem(items.getId(i));
+				if (item != null && item.hasGenreMask())
+					masks[i] = item.getGenreMask();
+			}
+		}
 	}
 	
 	/**
@@ -27,6 +41,13 @@ public class GenreMetric implements SimilarityMetric {
 	 */
 	public double getItemSimilarity(final Integer X, final Integer Y) {
 		
+		if (masks != null) {
+			int x = items.getIndex(X);
+			int y = items.getIndex(Y);
+			if (x >= 0 && y >= 0)
+				return getSimilarity(masks[x], masks[y]);
+		}
+		
 		// Get the genres for both items
 		Set<String> genresX = reader.getItem(X).getGenres();
 		Set<String> genresY = reader.getItem(Y).getGenres();
@@ -42,8 +63,28 @@ public class GenreMetric implements SimilarityMetric {
 		return (denom > 0 ) ? count * 1.0 / denom : 0;
 	}
 	
+	/**
+	 * Computes the similarity between two genre masks
+	 * @param x - the genre mask of the first item
+	 * @param y - the genre mask of the second item
+	 */
+	public static double getSimilarity(final long x, final long y) {
+		int denom = Math.min(Long.bitCount(x), Long.bitCount(y));
+		return (denom > 0) ? Long.bitCount(x & y) * 1.0 / denom : 0;
+	}
+	
+	/**
+	 * The overlap coefficient is symmetric
+	 */
+	public boolean isSymmetric() {
+		return true;
+	}
 	
 	public String toString() {
 		return "Genre";
 	}
+
+	public String getCacheKey() {
+		return "Genre";
+	}
 }
@@ -1,26 +1,71 @@
 package alg.np.similarity.metric;
 
 import util.reader.DatasetReader;
-import profile.Profile;
+import util.reader.RatingListener;
 
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Calculates similarity using association rule mining. 
  * Given a data set of user ratings for items, and a threshold at which an rating is to be considered positive, 
  * confidence estimates the probability that users who liked item X will also like item Y
+ * The rating co-occurrence counts of all item pairs are computed once, in a CoOccurrenceCounts, when the first
+ * similarity is requested, and are recomputed after ratings are added to the dataset reader while the metric is
+ * registered with it as a RatingListener (see DatasetReader.addRatingListener() and removeRatingListener()).
  */
-public class IncConfidenceMetric implements SimilarityMetric {
+public class IncConfidenceMetric implements SimilarityMetric, RatingListener {
 	
 	private static double RATING_THRESHOLD = 4.0; // the default threshold rating at which to consider a rating positive
 	private DatasetReader reader; 
+	private double threshold; // the threshold rating at which to consider a rating positive
+	private volatile CoOccurrenceCounts counts; // null until computed, and after ratings are added
+	private final AtomicLong version = new AtomicLong(); // the number of ratings added - tells builds of counts they are stale
 
 	/**
 	 * Constructor
 	 * @param reader - the dataset reader
 	 */
 	public IncConfidenceMetric(final DatasetReader reader) {
+		this(reader, RATING_THRESHOLD);
+	}
+
+	/**
+	 * Constructor
+	 * @param reader - the dataset reader
+	 * @param threshold - the threshold rating at which to consider a rating positive
+	 */
+	public IncConfidenceMetric(final DatasetReader reader, final double threshold) {
 		this.reader = reader;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Discards the co-occurrence counts when a rating is added - they are recomputed on the next request
+	 */
+	public void ratingAdded(final int userId, final int itemId, final double rating, final double previous) {
+		version.incrementAndGet();
+		counts = null;
+	}
+
+	/**
+	 * @returns the co-occurrence counts of the current training ratings
+	 */
+	public CoOccurrenceCounts getCounts() {
+		CoOccurrenceCounts c = counts;
+		if (c == null) {
+			synchronized (this) {
+				c = counts;
+				if (c == null) {
+					long v = version.get();
+					counts = c = new CoOccurrenceCounts(reader, threshold, Runtime.getRuntime().availableProcessors());
+					// a rating added during the build may have been missed, and ratingAdded() cleared the counts before
+					// they were published - so they are withdrawn; a rating added after this check clears them itself
+					if (version.get() != v)
+						counts = null;
+				}
+			}
+		}
+		return c;
 	}
 
 	/**
@@ -36,25 +81,28 @@ public class IncConfidenceMetric implements SimilarityMetric {
 		double likeXAndY = 0;   // number of users that liked X and Y
 		double likeYNotX = 0;   // number of users that liked Y but did not like X
 		
-		// Iterate through user Profiles
-		Map<Integer,Profile> userProfiles = reader.getUserProfiles();
-		for (Profile user : userProfiles.values()) {
-			
-			// Check if X or Y have been rated
-			if (user.getValue(X) != null) {
-				nX += 1;
-				nXY += 1;
-				if (user.getValue(Y) != null) {
-					if (user.getValue(X) >= RATING_THRESHOLD && user.getValue(Y) >= RATING_THRESHOLD) 
-						likeXAndY += 1;
-				}
-				if (user.getValue(X) >= RATING_THRESHOLD) 
-					likeX += 1;	
-				else if (( user.getValue(Y) != null) && (user.getValue(Y) >= RATING_THRESHOLD)) { 
-						likeYNotX += 1;
-				}
-			} else if (user.getValue(Y) != null) {
-				nXY += 1;
+		// Only users who rated X or Y contribute - nXY counts the users who rated X or Y, and likeYNotX the users
+		// who rated X without liking it and liked Y
+		CoOccurrenceCounts c = getCounts();
+		int x = c.getItemDictionary().getIndex(X);
+		int y = c.getItemDictionary().getIndex(Y);
+		if (x >= 0) {
+			nX = c.getRated(x);
+			likeX = c.getLiked(x);
+			nXY = nX;
+		}
+		if (y >= 0)
+			nXY += c.getRated(y);
+		if (x == y && x >= 0) {
+			nXY = nX;
+			likeXAndY = likeX;
+		}
+		else if (x >= 0 && y >= 0) {
+			int position = c.find(x, y);
+			if (position >= 0) {
+				nXY -= c.getCoRated(x, position);
+				likeXAndY = c.getCoLiked(x, position);
+				likeYNotX = c.getUnlikedXLikedY(x, position);
 			}
 		}
 		
@@ -77,4 +125,8 @@ public class IncConfidenceMetric implements SimilarityMetric {
 	public String toString() {
 		return "IncConfidence";
 	}
+
+	public String getCacheKey() {
+		return "IncConfidence(threshold=" + threshold + ")";
+	}
 }
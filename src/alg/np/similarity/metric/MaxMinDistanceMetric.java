@@ -1,16 +1,17 @@
 package alg.np.similarity.metric;
 
 import alg.np.similarity.SimilarityMap;
-import profile.Profile;
 
 /**
- * Converts similarity scores to distance scores in range [0,1] using min-max normalisation
+ * Converts similarity scores to distance scores in range [0,1] using min-max normalisation.
+ * To read the distances of the similarities already held in a SimilarityMap, use a DistanceMap rather than
+ * building a second map from this metric.
  */
 public class MaxMinDistanceMetric implements SimilarityMetric {
 	
 	private SimilarityMetric simMetric;
-	private Double minSim;
-	private Double maxSim;
+	private double minSim;
+	private double maxSim;
 	
 	/**
 	 * Default constructor - assumes min and max similarities are 0 and 1 respectively
@@ -54,29 +55,43 @@ public class MaxMinDistanceMetric implements SimilarityMetric {
 		s = (maxSim - s) / (maxSim - minSim);
 		return s;
 	}
+	
+	/**
+	 * The distance is symmetric if the underlying similarity metric is
+	 */
+	public boolean isSymmetric() {
+		return simMetric.isSymmetric();
+	}
+
+
+	/**
+	 * The key of the underlying metric and the normalisation bounds, or null if the underlying metric has no key
+	 */
+	public String getCacheKey() {
+		String key = simMetric.getCacheKey();
+		return (key != null) ? "MaxMinDistance(" + key + ",max=" + maxSim + ",min=" + minSim + ")" : null;
+	}
 
+	/** @returns the similarity mapped to distance 1 */
+	public double getNormalisationMin() {
+		return minSim;
+	}
+
+	/** @returns the similarity mapped to distance 0 */
+	public double getNormalisationMax() {
+		return maxSim;
+	}
 
 	/**
-	 * Computes the minSim and maxSim given a similarity map 
+	 * Computes the minSim and maxSim given a similarity map, from the statistics the map records as it is built.
+	 * minSim is 0 unless every pair of IDs has a stored similarity, as pairs without one have similarity 0
 	 * @param simMap - a matrix of pairwise similarities
 	 */
 	private void computeMaxMin(SimilarityMap simMap) {
-		minSim = Double.POSITIVE_INFINITY;
-		maxSim = Double.NEGATIVE_INFINITY;
-		int numSims=0;
-		for (Integer id: simMap.getIds()) {
-			Profile p = simMap.getSimilarities(id);
-			numSims++;
-			for (Integer id2 : p.getIds()) {
-				Double s = p.getValue(id2);
-				if (s > maxSim)
-					maxSim = s;
-				if (s < minSim)
-					minSim = s;
-			}
-		}
-		int n = simMap.getIds().size();
-		if (numSims < n * (n-1))
+		minSim = simMap.getMinSimilarity();
+		maxSim = simMap.getMaxSimilarity();
+		long n = simMap.getIds().size();
+		if (simMap.getNumSimilarities() < n * (n-1))
 			minSim = 0.0;
 	}
 
@@ -25,4 +25,8 @@ public class RatingMetric implements SimilarityMetric {
 	public double getItemSimilarity(final Integer X, final Integer Y) {
 		return 0;
 	}
+
+	public String getCacheKey() {
+		return "Rating";
+	}
 }
@@ -11,4 +11,23 @@ public interface SimilarityMetric {
 	 * @param Y - an item's ID
 	 */
 	public double getItemSimilarity(final Integer X, final Integer Y);
+	
+	/**
+	 * Declares whether the similarity of X to Y always equals the similarity of Y to X,
+	 * which allows similarity maps to compute each pair only once
+	 * @returns true if the metric is symmetric (false by default)
+	 */
+	public default boolean isSymmetric() {
+		return false;
+	}
+
+	/**
+	 * Names the similarities the metric computes, e.g. to key a saved similarity map (see MappedSimilarityMap).
+	 * The key must cover every parameter that affects the similarities, so that metrics with equal keys compute
+	 * equal similarities over the same dataset.
+	 * @returns the key, or null if the metric cannot name its similarities (the default)
+	 */
+	public default String getCacheKey() {
+		return null;
+	}
 }
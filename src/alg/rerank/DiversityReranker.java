@@ -37,7 +37,7 @@ public class DiversityReranker implements Reranker {
 	
 	/**
 	 * Constructor
-	 * @param distanceMap - a matrix of normalised item-item distances
+	 * @param distanceMap - a matrix of normalised item-item distances (e.g. a DistanceMap over a similarity map)
 	 * @param lambda - determines the tradeoff between accuracy and diversity when re-ranking items
 	 */
 	public DiversityReranker(SimilarityMap distanceMap, double lambda) {
@@ -33,7 +33,8 @@ public class UBCFRatingPredictionAlg implements RatingPredictionAlg {
 	}
 	
 	/**
-	 * Constructor with simMap
+	 * Constructor with simMap - if it is an IncrementalProfileSimilarityMap, the neighbourhoods are updated as
+	 * ratings are added to the reader
 	 * @param predictor - the prediction algorithm
 	 * @param neighbourhood - the neighbourhood formation algorithm
 	 * @param simMap - a matrix of pairwise similarities
@@ -45,6 +46,8 @@ public class UBCFRatingPredictionAlg implements RatingPredictionAlg {
 		this.reader = reader;
 		this.simMap = simMap; // compute all user-user similarities
 		this.neighbourhood.computeNeighbourhoods(simMap); // compute the neighbourhoods for all users
+		if (simMap instanceof IncrementalProfileSimilarityMap)
+			((IncrementalProfileSimilarityMap) simMap).addNeighbourhood(neighbourhood); // keep the neighbourhoods up to date as ratings are added
 	}
 	
 	/**
@@ -45,13 +45,14 @@ public class DeviationFromUserMeanPredictor implements UBCFPredictor {
 		for (Integer neighbour: neighbourhood) {
 				
 			// get the neighbour's rating for the item
-			Double itemRating = profiles.get(neighbour).getValue(itemId);
+			Profile neighbourProfile = profiles.get(neighbour);
+			double itemRating = neighbourProfile.getDouble(itemId);
 				
 			// check that the item has been rated
-			if (itemRating != null) {
+			if (!Double.isNaN(itemRating)) {
 				
 				// get the neighbour's mean rating for items
-				double neighbourMeanRating = profiles.get(neighbour).getMeanValue();
+				double neighbourMeanRating = neighbourProfile.getMeanValue();
 				
 				// get the user-neighbour similarity
 				double sim = alg.getSimilarityMap().getSimilarity(userId, neighbour);
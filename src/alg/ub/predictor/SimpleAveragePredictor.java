@@ -35,10 +35,10 @@ public class SimpleAveragePredictor implements UBCFPredictor {
 		
 		// Iterate through neighbours and compute the average rating
 		for(Integer neighbour: neighbours) {
-			Double rating = 
-					alg.getReader().getUserProfiles().get(neighbour).getValue(itemId); // get the neighbour's rating for the target item
-			if(rating != null) {
-				above += rating.doubleValue();
+			double rating = 
+					alg.getReader().getUserProfiles().get(neighbour).getDouble(itemId); // get the neighbour's rating for the target item
+			if(!Double.isNaN(rating)) {
+				above += rating;
 				counter++;
 			}
 		}
@@ -43,10 +43,10 @@ public class WeightedAveragePredictor implements UBCFPredictor {
 		for (Integer neighbour: neighbourhood) {
 				
 			// get the neighbour's rating for the item
-			Double itemRating = profiles.get(neighbour).getValue(itemId);
+			double itemRating = profiles.get(neighbour).getDouble(itemId);
 			
 			// check that the item has been rated
-			if (itemRating != null) {
+			if (!Double.isNaN(itemRating)) {
 			
 				// get the user-neighbour similarity
 				double sim = alg.getSimilarityMap().getSimilarity(userId, neighbour);
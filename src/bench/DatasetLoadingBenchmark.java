@@ -0,0 +1,97 @@
+package bench;
+
+import profile.Profile;
+import util.UserItemPair;
+import util.reader.DatasetReader;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Compares the time taken to load a MovieLens dataset with the sequential and the parallel (chunked) DatasetReader,
+ * and checks that both produce identical data.
+ *
+ * Usage:
+ *   java bench.DatasetLoadingBenchmark itemFile trainFile testFile [numThreads] [repetitions]                      (MovieLens 100K)
+ *   java bench.DatasetLoadingBenchmark itemFile genomeScoresFile trainFile testFile [numThreads] [repetitions]     (MovieLens 20M)
+ */
+public class DatasetLoadingBenchmark {
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("Usage: DatasetLoadingBenchmark itemFile [genomeScoresFile] trainFile testFile [numThreads] [repetitions]");
+			System.exit(1);
+		}
+
+		// the genome scores file is present if the fourth argument is not a number
+		boolean ml20m = args.length >= 4 && !args[3].matches("\\d+");
+		int nfiles = ml20m ? 4 : 3;
+		int numThreads = (args.length > nfiles) ? Integer.parseInt(args[nfiles]) : Runtime.getRuntime().availableProcessors();
+		int repetitions = (args.length > nfiles + 1) ? Integer.parseInt(args[nfiles + 1]) : 5;
+
+		DatasetReader sequential = null;
+		DatasetReader parallel = null;
+		long sequentialTime = Long.MAX_VALUE;
+		long parallelTime = Long.MAX_VALUE;
+
+		// alternate the two loaders so that both see a similar page cache and JIT state
+		for (int rep = 0; rep < repetitions; rep++) {
+			long start = System.nanoTime();
+			sequential = load(args, ml20m, 1);
+			sequentialTime = Math.min(sequentialTime, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			parallel = load(args, ml20m, numThreads);
+			parallelTime = Math.min(parallelTime, System.nanoTime() - start);
+		}
+
+		System.out.printf("sequential:           %8.1f ms%n", sequentialTime / 1e6);
+		System.out.printf("parallel (%2d threads): %8.1f ms%n", numThreads, parallelTime / 1e6);
+		System.out.printf("speedup:              %8.2fx%n", (double) sequentialTime / parallelTime);
+		System.out.println("identical data:       " + identical(sequential, parallel));
+	}
+
+	private static DatasetReader load(final String[] args, final boolean ml20m, final int numThreads) {
+		return ml20m ? new DatasetReader(args[0], args[1], args[2], args[3], numThreads)
+				: new DatasetReader(args[0], args[1], args[2], numThreads);
+	}
+
+	/**
+	 * @returns true if two readers hold the same profiles (with the same iteration order), genome scores and test data
+	 */
+	private static boolean identical(final DatasetReader a, final DatasetReader b) {
+		return identical(a.getUserProfiles(), b.getUserProfiles()) && identical(a.getItemProfiles(), b.getItemProfiles())
+				&& identical(a.getItemGenomeScores(), b.getItemGenomeScores()) && testData(a).equals(testData(b));
+	}
+
+	/**
+	 * @returns the test data keyed by "user:item" - UserItemPair has identity semantics, so its iteration order
+	 * differs between any two loads and only the content can be compared
+	 */
+	private static Map<String,Double> testData(final DatasetReader reader) {
+		Map<String,Double> data = new HashMap<String,Double>();
+		for (Map.Entry<UserItemPair,Double> entry : reader.getTestData().entrySet())
+			data.put(entry.getKey().getUserId() + ":" + entry.getKey().getItemId(), entry.getValue());
+		return data;
+	}
+
+	private static boolean identical(final Map<Integer,Profile> a, final Map<Integer,Profile> b) {
+		if (!a.keySet().equals(b.keySet()))
+			return false;
+		for (Integer id : a.keySet()) {
+			Profile pa = a.get(id);
+			Profile pb = b.get(id);
+			if (pa.getSize() != pb.getSize())
+				return false;
+			Iterator<Integer> ia = pa.getIds().iterator();
+			Iterator<Integer> ib = pb.getIds().iterator();
+			while (ia.hasNext()) {
+				Integer key = ia.next();
+				if (!key.equals(ib.next()) || Double.compare(pa.getDouble(key), pb.getDouble(key)) != 0)
+					return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import alg.mf.MFSGDRatingPredictionAlg;
+import alg.mf.hnsw.FactorIndex;
+import util.reader.DatasetReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares approximate top-N retrieval through a FactorIndex with scoring every item, for a model trained by
+ * MFSGDRatingPredictionAlg. For each (m, efConstruction) setting it reports the time to build the index and,
+ * for a range of ef values, the recall of the exact top-N items and the mean latency of a query. The exact scan
+ * is timed over the same users.
+ *
+ * Usage:
+ *   java bench.HnswBenchmark itemFile genomeFile trainFile testFile [k] [n] [m:efConstruction ...]
+ */
+public class HnswBenchmark {
+
+	private static final int[] EFS = { 10, 20, 40, 80, 160 };
+
+	private static long checksum; // consumes the results so that they cannot be optimised away
+
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.out.println("Usage: HnswBenchmark itemFile genomeFile trainFile testFile [k] [n] [m:efConstruction ...]");
+			System.exit(1);
+		}
+		DatasetReader reader = new DatasetReader(args[0], args[1], args[2], args[3]);
+		int k = (args.length > 4) ? Integer.parseInt(args[4]) : 20;
+		int n = (args.length > 5) ? Integer.parseInt(args[5]) : 10;
+		String[] settings = (args.length > 6) ? Arrays.copyOfRange(args, 6, args.length)
+			: new String[] { "8:50", "16:100", "32:200" };
+
+		MFSGDRatingPredictionAlg model = new MFSGDRatingPredictionAlg(reader, k);
+		model.setNumReports(0);
+		long start = System.nanoTime();
+		model.fit();
+		System.out.printf("%d items, %d users, k = %d, fit %.2fs%n", reader.getItemDictionary().size(),
+			reader.getUserDictionary().size(), k, (System.nanoTime() - start) / 1e9);
+		List<Integer> users = new ArrayList<Integer>(reader.getUserIds());
+
+		for (String setting : settings) {
+			String[] parts = setting.split(":");
+			start = System.nanoTime();
+			FactorIndex index = new FactorIndex(model, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+			System.out.printf("m:efConstruction %s, build %.2fs, %d layers%n", setting, (System.nanoTime() - start) / 1e9,
+				index.getIndex().getTopLayer() + 1);
+
+			start = System.nanoTime();
+			for (Integer user : users)
+				checksum += index.getExactTopN(user, n).getSize();
+			System.out.printf("  %-6s %10s %12s%n", "ef", "recall@" + n, "us/query");
+			System.out.printf("  %-6s %10s %12.1f%n", "exact", "100.0%", (System.nanoTime() - start) / 1e3 / users.size());
+			for (int ef : EFS) {
+				start = System.nanoTime();
+				for (Integer user : users)
+					checksum += index.getTopN(user, n, ef).getSize();
+				double latency = (System.nanoTime() - start) / 1e3 / users.size();
+				System.out.printf("  %-6d %9.1f%% %12.1f%n", ef, 100 * index.getRecall(users, n, ef), latency);
+			}
+		}
+		System.out.println("(checksum " + checksum + ")");
+	}
+}
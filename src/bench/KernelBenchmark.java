@@ -0,0 +1,111 @@
+package bench;
+
+import util.DenseKernels;
+import util.reader.DatasetReader;
+import util.reader.GenomeMatrix;
+
+import java.util.Random;
+
+/**
+ * Compares the simple and unrolled loops of the DenseKernels on rows of a given length
+ * (1128, the number of MovieLens genome tags, by default). The weighted Jaccard kernel is run over all pairs
+ * of rows of a genome matrix - the genome matrix of a MovieLens 20M dataset if its files are given, otherwise
+ * random scores in [0, 1]. Each loop is timed over several rounds and the fastest round is reported.
+ *
+ * Usage:
+ *   java bench.KernelBenchmark [length] [rounds]
+ *   java bench.KernelBenchmark itemFile genomeFile trainFile testFile [rounds]
+ */
+public class KernelBenchmark {
+
+	private static final int RANDOM_ROWS = 400;
+
+	private static double checksum; // consumes the results so that they cannot be optimised away
+
+	public static void main(String[] args) {
+		float[] scores;
+		int rows;
+		int length;
+		int rounds;
+		if (args.length >= 4) {
+			GenomeMatrix genome = new DatasetReader(args[0], args[1], args[2], args[3]).getGenomeMatrix();
+			scores = genome.getScores();
+			rows = genome.getNumRows();
+			length = genome.getNumTags();
+			rounds = (args.length > 4) ? Integer.parseInt(args[4]) : 5;
+		}
+		else {
+			length = (args.length > 0) ? Integer.parseInt(args[0]) : 1128;
+			rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+			rows = RANDOM_ROWS;
+			scores = new float[rows * length];
+			Random random = new Random(0);
+			for (int i = 0; i < scores.length; i++)
+				scores[i] = random.nextFloat();
+		}
+		long pairs = (long) rows * (rows - 1) / 2;
+
+		long simpleTime = Long.MAX_VALUE;
+		long unrolledTime = Long.MAX_VALUE;
+		double maxError = 0;
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			double simple = jaccardPairs(scores, rows, length, false);
+			simpleTime = Math.min(simpleTime, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			double unrolled = jaccardPairs(scores, rows, length, true);
+			unrolledTime = Math.min(unrolledTime, System.nanoTime() - start);
+
+			maxError = Math.max(maxError, Math.abs(simple - unrolled) / pairs);
+		}
+		System.out.printf("weighted Jaccard, %d-dim rows, %d pairs%n", length, pairs);
+		System.out.printf("  simple:   %8.1f ns/pair%n", (double) simpleTime / pairs);
+		System.out.printf("  unrolled: %8.1f ns/pair%n", (double) unrolledTime / pairs);
+		System.out.printf("  speedup:  %8.2fx (mean difference %.2e)%n", (double) simpleTime / unrolledTime, maxError);
+
+		// dot products over rows of the same length
+		double[][] vectors = new double[RANDOM_ROWS][length];
+		Random random = new Random(1);
+		for (double[] vector : vectors)
+			for (int i = 0; i < length; i++)
+				vector[i] = random.nextGaussian();
+		long dots = (long) RANDOM_ROWS * RANDOM_ROWS;
+		simpleTime = Long.MAX_VALUE;
+		unrolledTime = Long.MAX_VALUE;
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			double sum = 0;
+			for (double[] a : vectors)
+				for (double[] b : vectors)
+					sum += DenseKernels.dotSimple(a, b);
+			simpleTime = Math.min(simpleTime, System.nanoTime() - start);
+			checksum += sum;
+
+			start = System.nanoTime();
+			sum = 0;
+			for (double[] a : vectors)
+				for (double[] b : vectors)
+					sum += DenseKernels.dotUnrolled(a, b);
+			unrolledTime = Math.min(unrolledTime, System.nanoTime() - start);
+			checksum += sum;
+		}
+		System.out.printf("dot product, %d-dim rows, %d products%n", length, dots);
+		System.out.printf("  simple:   %8.1f ns/product%n", (double) simpleTime / dots);
+		System.out.printf("  unrolled: %8.1f ns/product%n", (double) unrolledTime / dots);
+		System.out.printf("  speedup:  %8.2fx%n", (double) simpleTime / unrolledTime);
+	}
+
+	private static double jaccardPairs(final float[] scores, final int rows, final int length, final boolean unrolled) {
+		double sum = 0;
+		for (int x = 0; x < rows; x++) {
+			for (int y = x + 1; y < rows; y++) {
+				sum += unrolled
+					? DenseKernels.weightedJaccardUnrolled(scores, x * length, y * length, length)
+					: DenseKernels.weightedJaccardSimple(scores, x * length, y * length, length);
+			}
+		}
+		checksum += sum;
+		return sum;
+	}
+}
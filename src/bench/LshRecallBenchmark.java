@@ -0,0 +1,103 @@
+package bench;
+
+import alg.np.similarity.SimilarityMap;
+import alg.np.similarity.SimilarityMapBuilder;
+import alg.np.similarity.lsh.MinHashIndex;
+import alg.np.similarity.metric.GenreMetric;
+import alg.np.similarity.metric.IncConfidenceMetric;
+import alg.np.similarity.metric.SimilarityMetric;
+import profile.Profile;
+import util.reader.DatasetReader;
+
+import java.util.Arrays;
+
+/**
+ * Compares SimilarityMaps built from MinHash LSH candidates with the exhaustive build, for a range of
+ * (bands, rows) settings. For each setting it reports the time to index and build, the fraction of all pairs
+ * that were evaluated, and the recall of the exhaustive map's pairs - both of all positive similarities and
+ * of the strongest similarities (those at or above the given quantile of the exhaustive map).
+ * GenreMetric is indexed by genre sets and IncConfidenceMetric by the sets of users who liked each item.
+ *
+ * Usage:
+ *   java bench.LshRecallBenchmark itemFile genomeFile trainFile testFile [quantile] [bands:rows ...]
+ */
+public class LshRecallBenchmark {
+
+	private static final double THRESHOLD = 4.0; // IncConfidenceMetric's default rating threshold
+
+	public static void main(String[] args) {
+		if (args.length < 4) {
+			System.out.println("Usage: LshRecallBenchmark itemFile genomeFile trainFile testFile [quantile] [bands:rows ...]");
+			System.exit(1);
+		}
+		DatasetReader reader = new DatasetReader(args[0], args[1], args[2], args[3]);
+		double quantile = (args.length > 4) ? Double.parseDouble(args[4]) : 0.9;
+		String[] settings = (args.length > 5) ? Arrays.copyOfRange(args, 5, args.length)
+			: new String[] { "20:1", "50:1", "5:2", "10:2", "20:2", "10:3", "40:3", "50:5" };
+		int n = reader.getItemDictionary().size();
+		long allPairs = (long) n * (n - 1) / 2;
+
+		for (SimilarityMetric metric : new SimilarityMetric[] { new GenreMetric(reader), new IncConfidenceMetric(reader, THRESHOLD) }) {
+			metric.getItemSimilarity(reader.getItemDictionary().getId(0), reader.getItemDictionary().getId(0)); // warm up precomputed state
+
+			long start = System.nanoTime();
+			SimilarityMap exhaustive = new SimilarityMapBuilder(reader, metric).build();
+			double exhaustiveTime = (System.nanoTime() - start) / 1e9;
+			double cutoff = quantile(exhaustive, quantile);
+			long positives = count(exhaustive, exhaustive, Double.MIN_VALUE);
+			long strong = count(exhaustive, exhaustive, cutoff);
+
+			System.out.printf("%s: %d items, exhaustive build %.2fs, %d positive pairs, %d at or above %.4f (quantile %.2f)%n",
+				metric, n, exhaustiveTime, positives, strong, cutoff, quantile);
+			System.out.printf("  %-8s %9s %9s %10s %10s %10s%n", "b:r", "s*", "time", "evaluated", "recall", "recall@q");
+			for (String setting : settings) {
+				String[] parts = setting.split(":");
+				int bands = Integer.parseInt(parts[0]);
+				int rows = Integer.parseInt(parts[1]);
+
+				start = System.nanoTime();
+				MinHashIndex index = (metric instanceof GenreMetric) ? MinHashIndex.forGenres(reader, bands, rows)
+					: MinHashIndex.forLikers(reader, THRESHOLD, bands, rows);
+				SimilarityMapBuilder builder = new SimilarityMapBuilder(reader, metric);
+				builder.setCandidates(index);
+				SimilarityMap approximate = builder.build();
+				double time = (System.nanoTime() - start) / 1e9;
+
+				System.out.printf("  %-8s %9.3f %8.2fs %9.1f%% %9.1f%% %9.1f%%%n", setting, index.getThreshold(), time,
+					100.0 * index.getNumCandidatePairs() / allPairs,
+					100.0 * count(exhaustive, approximate, Double.MIN_VALUE) / positives,
+					(strong > 0) ? 100.0 * count(exhaustive, approximate, cutoff) / strong : 100.0);
+			}
+		}
+	}
+
+	/** @returns the number of ordered pairs with similarity at least min in the exhaustive map that are also in the map */
+	private static long count(final SimilarityMap exhaustive, final SimilarityMap map, final double min) {
+		long count = 0;
+		for (Integer id : exhaustive.getIds()) {
+			Profile row = exhaustive.getSimilarities(id);
+			for (Integer other : row.getIds())
+				if (row.getValue(other) >= min && map.getSimilarity(id, other) > 0)
+					count++;
+		}
+		return count;
+	}
+
+	/** @returns the given quantile of the positive similarities of a map */
+	private static double quantile(final SimilarityMap map, final double q) {
+		int size = 0;
+		for (Integer id : map.getIds())
+			size += map.getSimilarities(id).getSize();
+		double[] sims = new double[size];
+		int k = 0;
+		for (Integer id : map.getIds()) {
+			Profile row = map.getSimilarities(id);
+			for (Integer other : row.getIds())
+				sims[k++] = row.getValue(other);
+		}
+		if (size == 0)
+			return 0;
+		Arrays.sort(sims);
+		return sims[Math.min(size - 1, (int) (q * size))];
+	}
+}
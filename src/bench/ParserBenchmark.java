@@ -0,0 +1,92 @@
+package bench;
+
+import util.reader.TripleParser;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.StringTokenizer;
+
+/**
+ * Measures the ingestion throughput (MB/s) of a ratings or genome scores file with the original
+ * String/StringTokenizer/valueOf line parsing and with the byte-level TripleParser over a mapped file.
+ *
+ * Usage:
+ *   java bench.ParserBenchmark file [skipHeader] [repetitions]
+ */
+public class ParserBenchmark {
+
+	private static double checksum; // consumes the parsed values so that they cannot be optimised away
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: ParserBenchmark file [skipHeader] [repetitions]");
+			System.exit(1);
+		}
+		String filename = args[0];
+		boolean skipHeader = args.length > 1 && Boolean.parseBoolean(args[1]);
+		int repetitions = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+		long bytes;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			bytes = channel.size();
+		}
+
+		long tokenizerTime = Long.MAX_VALUE;
+		long parserTime = Long.MAX_VALUE;
+		for (int rep = 0; rep < repetitions; rep++) {
+			long start = System.nanoTime();
+			double tokenizerSum = tokenizer(filename, skipHeader);
+			tokenizerTime = Math.min(tokenizerTime, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			double parserSum = parser(filename, skipHeader);
+			parserTime = Math.min(parserTime, System.nanoTime() - start);
+
+			if (Double.compare(tokenizerSum, parserSum) != 0)
+				System.out.println("Warning: parsers disagree (" + tokenizerSum + " vs " + parserSum + ")");
+		}
+
+		double megabytes = bytes / (1024.0 * 1024.0);
+		System.out.printf("file size:       %10.1f MB%n", megabytes);
+		System.out.printf("StringTokenizer: %10.1f MB/s%n", megabytes / (tokenizerTime / 1e9));
+		System.out.printf("TripleParser:    %10.1f MB/s%n", megabytes / (parserTime / 1e9));
+		System.out.printf("speedup:         %10.2fx%n", (double) tokenizerTime / parserTime);
+	}
+
+	private static double tokenizer(final String filename, final boolean skipHeader) throws IOException {
+		double sum = 0;
+		try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+			if (skipHeader)
+				br.readLine();
+			String line;
+			while ((line = br.readLine()) != null) {
+				StringTokenizer st = new StringTokenizer(line, ", \t\n\r\f");
+				Integer first = Integer.valueOf(st.nextToken());
+				Integer second = Integer.valueOf(st.nextToken());
+				Double third = st.hasMoreTokens() ? Double.valueOf(st.nextToken()) : null;
+				sum += first + second + ((third != null) ? third : 0);
+			}
+		}
+		checksum += sum;
+		return sum;
+	}
+
+	private static double parser(final String filename, final boolean skipHeader) throws IOException {
+		double[] sum = new double[1];
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (skipHeader)
+				TripleParser.skipLine(buffer);
+			new TripleParser(filename, true).parse(buffer, skipHeader ? 2 : 1, (first, second, third) -> {
+				sum[0] += first + second + (Double.isNaN(third) ? 0 : third);
+			});
+		}
+		checksum += sum[0];
+		return sum[0];
+	}
+}
@@ -5,6 +5,7 @@ import util.ScoredThingDsc;
 import profile.Profile;
 
 import java.util.Iterator;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -25,34 +26,61 @@ public class NearestNeighbourhood extends Neighbourhood {
 	}
 	
 	/**
-	 * Computes neighbourhoods for all users and stores them in neighbourhood map - must be called before isNeighbour()
+	 * Computes the neighbourhood of one user - the k most similar users
 	 * @param simMap - a map containing user-user similarities
+	 * @param simId - the user's ID
 	 */
-	public void computeNeighbourhoods(final SimilarityMap simMap) {
+	public void computeNeighbourhood(final SimilarityMap simMap, final Integer simId) {
+		clear(simId);
 		
-		for (Integer simId: simMap.getIds()) { // iterate over all ids
-			
-			// for the current id, store all similarities in order of descending similarity in a sorted set
-			SortedSet<ScoredThingDsc> ss = new TreeSet<ScoredThingDsc>();
-			
-			Profile profile = simMap.getSimilarities(simId); // get the similarity profile
-			if (profile != null) {
-				for (Integer id: profile.getIds()) { // iterate over each id in the profile
-					double sim = profile.getValue(id);
-					if (sim > 0)
-						ss.add(new ScoredThingDsc(sim, id));
-				}
-			}
-			
-			// get the k most similar users (neighbours)
-			int counter = 0;
-			for (Iterator<ScoredThingDsc> iter = ss.iterator(); iter.hasNext() && counter < k; ) {
-				ScoredThingDsc st = iter.next();
-				Integer id = (Integer)st.thing;
-				this.add(simId, id);
-				counter++;
+		// store all similarities in order of descending similarity in a sorted set
+		SortedSet<ScoredThingDsc> ss = new TreeSet<ScoredThingDsc>();
+		
+		Profile profile = simMap.getSimilarities(simId); // get the similarity profile
+		if (profile != null) {
+			for (Integer id: profile.getIds()) { // iterate over each id in the profile
+				double sim = profile.getValue(id);
+				if (sim > 0)
+					ss.add(new ScoredThingDsc(sim, id));
 			}
-		}	
+		}
+		
+		// get the k most similar users (neighbours)
+		int counter = 0;
+		for (Iterator<ScoredThingDsc> iter = ss.iterator(); iter.hasNext() && counter < k; ) {
+			ScoredThingDsc st = iter.next();
+			Integer id = (Integer)st.thing;
+			this.add(simId, id);
+			counter++;
+		}
+	}
+	
+	/**
+	 * Updates the neighbourhood of a user after the user's similarity to another user has changed - the
+	 * neighbourhood is only recomputed if the other user is, or may now be, among the k most similar users
+	 * @param simMap - a map containing user-user similarities
+	 * @param id - the user's ID
+	 * @param otherId - the ID of the other user
+	 */
+	public void similarityChanged(final SimilarityMap simMap, final Integer id, final Integer otherId) {
+		Set<Integer> neighbours = getNeighbours(id);
+		double sim = simMap.getSimilarity(id, otherId);
+		if (neighbours != null && neighbours.contains(otherId)) {
+			computeNeighbourhood(simMap, id); // the other user may move down or out
+			return;
+		}
+		if (neighbours == null || neighbours.size() < k) {
+			if (sim > 0)
+				computeNeighbourhood(simMap, id);
+			return;
+		}
+		
+		// a full neighbourhood only changes if the new similarity reaches that of the weakest neighbour
+		double weakest = Double.POSITIVE_INFINITY;
+		for (Integer neighbour: neighbours)
+			weakest = Math.min(weakest, simMap.getSimilarity(id, neighbour));
+		if (sim >= weakest)
+			computeNeighbourhood(simMap, id);
 	}
 	
 	/** String representation of the class */
@@ -52,9 +52,39 @@ public abstract class Neighbourhood {
 		neighbourhoodMap.put(id1, set);
 	}
 	
+	/**
+	 * Removes all neighbours of a user
+	 * @param id - a user's ID
+	 */
+	protected void clear(final Integer id) {
+		neighbourhoodMap.remove(id);
+	}
+	
 	/**
 	 * Computes neighbourhoods for all users and stores them in neighbourhood map - must be called before isNeighbour(Integer,Integer).
 	 * @param simMap - a map containing user-user similarities
 	 */
-	public abstract void computeNeighbourhoods(final SimilarityMap simMap);
+	public void computeNeighbourhoods(final SimilarityMap simMap) {
+		for (Integer id: simMap.getIds())
+			computeNeighbourhood(simMap, id);
+	}
+	
+	/**
+	 * Computes the neighbourhood of one user, replacing any previous neighbours
+	 * @param simMap - a map containing user-user similarities
+	 * @param id - the user's ID
+	 */
+	public abstract void computeNeighbourhood(final SimilarityMap simMap, final Integer id);
+	
+	/**
+	 * Updates the neighbourhood of a user after the user's similarity to another user has changed in the similarity
+	 * map (e.g. an IncrementalProfileSimilarityMap) - recomputes the user's neighbourhood unless a subclass can tell
+	 * that it is unaffected
+	 * @param simMap - a map containing user-user similarities
+	 * @param id - the user's ID
+	 * @param otherId - the ID of the other user
+	 */
+	public void similarityChanged(final SimilarityMap simMap, final Integer id, final Integer otherId) {
+		computeNeighbourhood(simMap, id);
+	}
 }
@@ -20,23 +20,37 @@ public class ThresholdNeighbourhood extends Neighbourhood {
 	}
 	
 	/**
-	 * Computes neighbourhoods for all users and stores them in neighbourhood map - must be called before isNeighbour()
+	 * Computes the neighbourhood of one user - the users whose similarity exceeds the threshold
 	 * @param simMap - a map containing user-user similarities
+	 * @param user - the user's ID
 	 */
-	public void computeNeighbourhoods(final SimilarityMap simMap) {
-		for (Integer user: simMap.getIds()) {
-			
-			Profile similarities = simMap.getSimilarities(user);
-			if (similarities != null) {
-				for (Integer otherUser: similarities.getIds()) {
-					if (similarities.getValue(otherUser) > threshold) {
-						this.add(user, otherUser);
-					}		
-				}	
-			}
+	public void computeNeighbourhood(final SimilarityMap simMap, final Integer user) {
+		clear(user);
+		
+		Profile similarities = simMap.getSimilarities(user);
+		if (similarities != null) {
+			for (Integer otherUser: similarities.getIds()) {
+				if (similarities.getValue(otherUser) > threshold) {
+					this.add(user, otherUser);
+				}		
+			}	
 		}
 	}
 	
+	/**
+	 * Updates the neighbourhood of a user after the user's similarity to another user has changed -
+	 * only the other user can join or leave the neighbourhood
+	 * @param simMap - a map containing user-user similarities
+	 * @param user - the user's ID
+	 * @param otherUser - the ID of the other user
+	 */
+	public void similarityChanged(final SimilarityMap simMap, final Integer user, final Integer otherUser) {
+		if (simMap.getSimilarity(user, otherUser) > threshold)
+			this.add(user, otherUser);
+		else if (isNeighbour(user, otherUser))
+			computeNeighbourhood(simMap, user);
+	}
+	
 	/** String representation of the class */
 	public String toString() {
 		return "ThresholdNeighbourhood";
@@ -0,0 +1,109 @@
+package profile;
+
+/**
+ * Accumulates the sufficient statistics of the values two profiles have in common,
+ * i.e. for each common ID with values x (first profile) and y (second profile):
+ * the count, sum(x), sum(y), sum(x^2), sum(y^2) and sum(x*y).
+ * Pearson, cosine and mean squared difference similarities can all be computed from these.
+ */
+public class CoRatingStats {
+
+	private int count;
+	private double sumX;
+	private double sumY;
+	private double sumXX;
+	private double sumYY;
+	private double sumXY;
+
+	/** Constructor - creates an empty set of statistics */
+	public CoRatingStats() {
+	}
+
+	/** Resets all statistics to zero */
+	public void reset() {
+		count = 0;
+		sumX = sumY = sumXX = sumYY = sumXY = 0;
+	}
+
+	/**
+	 * Adds a pair of common values
+	 * @param x - the value in the first profile
+	 * @param y - the value in the second profile
+	 */
+	public void add(final double x, final double y) {
+		count++;
+		sumX += x;
+		sumY += y;
+		sumXX += x * x;
+		sumYY += y * y;
+		sumXY += x * y;
+	}
+
+	/**
+	 * Adds the statistics of further common values accumulated separately, e.g. over another set of IDs
+	 * @param count - the number of common IDs
+	 * @param sumX - the sum of the first profile's values
+	 * @param sumY - the sum of the second profile's values
+	 * @param sumXX - the sum of the squares of the first profile's values
+	 * @param sumYY - the sum of the squares of the second profile's values
+	 * @param sumXY - the dot product of the values
+	 */
+	public void add(final int count, final double sumX, final double sumY, final double sumXX, final double sumYY, final double sumXY) {
+		this.count += count;
+		this.sumX += sumX;
+		this.sumY += sumY;
+		this.sumXX += sumXX;
+		this.sumYY += sumYY;
+		this.sumXY += sumXY;
+	}
+
+	/**
+	 * Removes a pair of common values previously added, e.g. when a rating is replaced. Repeated additions and
+	 * removals may leave rounding errors in the sums, which are negligible for ratings on a fixed scale.
+	 * @param x - the value in the first profile
+	 * @param y - the value in the second profile
+	 */
+	public void remove(final double x, final double y) {
+		count--;
+		sumX -= x;
+		sumY -= y;
+		sumXX -= x * x;
+		sumYY -= y * y;
+		sumXY -= x * y;
+	}
+
+	/** @returns the number of common IDs */
+	public int getCount() {
+		return count;
+	}
+
+	/** @returns the sum of the first profile's common values */
+	public double getSumX() {
+		return sumX;
+	}
+
+	/** @returns the sum of the second profile's common values */
+	public double getSumY() {
+		return sumY;
+	}
+
+	/** @returns the sum of the squares of the first profile's common values */
+	public double getSumXX() {
+		return sumXX;
+	}
+
+	/** @returns the sum of the squares of the second profile's common values */
+	public double getSumYY() {
+		return sumYY;
+	}
+
+	/** @returns the dot product of the common values */
+	public double getSumXY() {
+		return sumXY;
+	}
+
+	/** @returns the sum of the squared differences between the common values */
+	public double getSumSquaredDifference() {
+		return Math.max(sumXX - 2 * sumXY + sumYY, 0);
+	}
+}
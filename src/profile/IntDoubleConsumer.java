@@ -0,0 +1,15 @@
+package profile;
+
+/**
+ * Represents an operation that accepts an int key and a double value - the unboxed
+ * counterpart of a BiConsumer<Integer,Double> used to iterate over Profile entries
+ */
+public interface IntDoubleConsumer {
+
+	/**
+	 * Performs this operation on the given key and value
+	 * @param id - the key
+	 * @param value - the value
+	 */
+	public void accept(final int id, final double value);
+}
@@ -0,0 +1,162 @@
+package profile;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive int keys to primitive double values.
+ * Entries are stored densely in insertion order in parallel int[]/double[] arrays and are located
+ * through an open-addressing (linear probing) index table, so no key or value is ever boxed
+ * and iteration is a sequential scan over the entry arrays.
+ * Entries cannot be removed - a put() on an existing key overwrites its value in place.
+ */
+public class IntDoubleMap {
+
+	private static final int DEFAULT_CAPACITY = 8;
+
+	private int[] keys;     // the keys in insertion order
+	private double[] values; // the values in insertion order
+	private int[] table;    // open-addressing table - stores (entry index + 1), 0 marks an empty slot
+	private int mask;       // table.length - 1
+	private int size;       // the number of entries
+
+	/** Constructor - creates an empty map */
+	public IntDoubleMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 * @param expectedSize - the number of entries the map should hold without resizing
+	 */
+	public IntDoubleMap(final int expectedSize) {
+		int capacity = Math.max(expectedSize, DEFAULT_CAPACITY);
+		keys = new int[capacity];
+		values = new double[capacity];
+		table = new int[tableSizeFor(capacity)];
+		mask = table.length - 1;
+		size = 0;
+	}
+
+	/** @returns the number of entries in the map */
+	public int size() {
+		return size;
+	}
+
+	/** @returns true if the key is in the map */
+	public boolean containsKey(final int key) {
+		return indexOf(key) >= 0;
+	}
+
+	/**
+	 * Get the value for a key
+	 * @param key - the key
+	 * @param defaultValue - the value returned if the key is not in the map
+	 * @returns the value for the key or defaultValue if the key is not in the map
+	 */
+	public double get(final int key, final double defaultValue) {
+		int index = indexOf(key);
+		return (index >= 0) ? values[index] : defaultValue;
+	}
+
+	/**
+	 * Adds or overwrites a key-value pair
+	 * @param key - the key
+	 * @param value - the value
+	 * @returns the entry index of the key
+	 */
+	public int put(final int key, final double value) {
+		int slot = hash(key) & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (keys[entry - 1] == key) {
+				values[entry - 1] = value;
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		// new key - append to the entry arrays
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		keys[size] = key;
+		values[size] = value;
+		table[slot] = ++size;
+
+		if (size * 4 > table.length * 3) // keep the load factor below 0.75
+			rehash(table.length * 2);
+		return size - 1;
+	}
+
+	/**
+	 * Get the entry index of a key - entry indices are stable and lie in the range [0, size())
+	 * @param key - the key
+	 * @returns the entry index of the key or -1 if the key is not in the map
+	 */
+	public int indexOf(final int key) {
+		int slot = hash(key) & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (keys[entry - 1] == key)
+				return entry - 1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/** @returns the key stored at an entry index */
+	public int keyAt(final int index) {
+		return keys[index];
+	}
+
+	/** @returns the value stored at an entry index */
+	public double valueAt(final int index) {
+		return values[index];
+	}
+
+	/**
+	 * Overwrites the value stored at an entry index
+	 * @param index - an entry index in the range [0, size())
+	 * @param value - the new value
+	 */
+	public void setValueAt(final int index, final double value) {
+		values[index] = value;
+	}
+
+	/**
+	 * Performs an action for each entry in insertion order
+	 * @param action - the action to be performed
+	 */
+	public void forEach(final IntDoubleConsumer action) {
+		for (int i = 0; i < size; i++)
+			action.accept(keys[i], values[i]);
+	}
+
+	/**
+	 * Rebuilds the index table with a new size
+	 * @param tableSize - the new table size (a power of two)
+	 */
+	private void rehash(final int tableSize) {
+		table = new int[tableSize];
+		mask = tableSize - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = hash(keys[i]) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = i + 1;
+		}
+	}
+
+	/** Scrambles the key bits so that sequential ids spread over the table */
+	private static int hash(final int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/** @returns the smallest power of two table size that holds capacity entries below a 0.75 load factor */
+	private static int tableSizeFor(final int capacity) {
+		int n = Integer.highestOneBit(Math.max(capacity * 4 / 3, 2) - 1) << 1;
+		return Math.max(n, 2 * DEFAULT_CAPACITY);
+	}
+}
@@ -1,10 +1,10 @@
 package profile;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.AbstractSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * This class is used to store (non-exhaustive list):
@@ -17,7 +17,13 @@ import java.util.Iterator;
 public class Profile {
 	
 	private Integer id; // the numeric ID of the profile
-	private Map<Integer,Double> dataMap; // stores either (a), (b), (c), (d) or (e) above
+	private IntDoubleMap dataMap; // stores either (a), (b), (c), (d) or (e) above - null values are stored as NaN
+	private SparseVector sortedForm; // cached sorted-array form of dataMap - cleared whenever a value is added
+	
+	// statistics over all (non-null) values - maintained incrementally by addValue()
+	private int valueCount;
+	private double sum;
+	private double sumOfSquares;
 	
 	/**
 	 * Constructor
@@ -25,7 +31,7 @@ public class Profile {
 	 */
 	public Profile(final Integer id) {
 		this.id = id;
-		this.dataMap = new HashMap<Integer,Double>();
+		this.dataMap = new IntDoubleMap();
 	}
 
 	/** @returns the profile ID	 */
@@ -40,33 +46,71 @@ public class Profile {
 	
 	/** @returns true if the ID is in the profile */
 	public boolean contains(final Integer id) {
-		return dataMap.containsKey(id);
+		return dataMap.containsKey(id.intValue());
 	}
 	
 	/** @returns the value for the ID (or null if ID is not in profile) */
 	public Double getValue(final Integer id) {
-		return dataMap.get(id);
+		double value = dataMap.get(id.intValue(), Double.NaN);
+		return Double.isNaN(value) ? null : Double.valueOf(value);
+	}
+
+	/** @returns the value for the ID (or NaN if ID is not in profile) - the unboxed counterpart of getValue() */
+	public double getDouble(final int id) {
+		return dataMap.get(id, Double.NaN);
 	}
 
 	/** @returns the mean value over all values in the profile */
 	public double getMeanValue() {
-		double total = 0;
-		for(Double r: dataMap.values())
-			total += r.doubleValue();
-		return getSize() > 0 ? total / getSize() : 0;
+		return valueCount > 0 ? sum / valueCount : 0;
 	}
 
 	/** @returns the norm of all values in the profile */
 	public double getNorm()	{
-		double sumsq = 0;
-		for(Double r: dataMap.values())
-			sumsq += Math.pow(r.doubleValue(), 2);
-		return Math.sqrt(sumsq);
+		return Math.sqrt(sumOfSquares);
+	}
+
+	/** @returns the sum of all values in the profile */
+	public double getSum() {
+		return sum;
+	}
+
+	/** @returns the sum of the squares of all values in the profile */
+	public double getSumOfSquares() {
+		return sumOfSquares;
+	}
+
+	/** @returns the (population) variance of all values in the profile */
+	public double getVariance() {
+		if (valueCount == 0)
+			return 0;
+		double mean = sum / valueCount;
+		return Math.max(sumOfSquares / valueCount - mean * mean, 0);
 	}
 	
-	/** @returns the set of IDs in the profile */
+	/** @returns the set of IDs in the profile - a read-only view backed by the profile */
 	public Set<Integer> getIds() {
-		return dataMap.keySet();
+		return new AbstractSet<Integer>() {
+			public int size() {
+				return dataMap.size();
+			}
+			public boolean contains(Object o) {
+				return (o instanceof Integer) && dataMap.containsKey(((Integer)o).intValue());
+			}
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					private int next = 0;
+					public boolean hasNext() {
+						return next < dataMap.size();
+					}
+					public Integer next() {
+						if (next >= dataMap.size())
+							throw new NoSuchElementException();
+						return dataMap.keyAt(next++);
+					}
+				};
+			}
+		};
 	}
 	
 	/**
@@ -75,29 +119,77 @@ public class Profile {
 	 */
 	public Set<Integer> getCommonIds(final Profile other) {
 		Set<Integer> common = new HashSet<Integer>();
-		for(Integer id: getIds())
-			if(other.contains(id))
-				common.add(id);
+		for(int i = 0; i < dataMap.size(); i++)
+			if(other.dataMap.containsKey(dataMap.keyAt(i)))
+				common.add(dataMap.keyAt(i));
 		return common;
 	}
 
+	/**
+	 * Get the frozen, sorted-array form of the profile - built on first use and cached until the profile is next modified
+	 * @returns a SparseVector holding the profile's IDs in ascending order and their values
+	 */
+	public SparseVector toSparseVector() {
+		SparseVector vector = sortedForm;
+		if (vector == null) {
+			vector = SparseVector.of(dataMap);
+			sortedForm = vector;
+		}
+		return vector;
+	}
+
+	/**
+	 * Performs an action for each ID-value pair in the profile, without boxing
+	 * @param action - the action to be performed
+	 */
+	public void forEach(final IntDoubleConsumer action) {
+		dataMap.forEach(action);
+	}
+
 	/**
 	 * Add a key-value pair to the profile
 	 * @param the ID to be added to the profile
 	 * @param the corresponding value
 	 */
 	public void addValue(final Integer id, final Double value) {
-		dataMap.put(id, value);
+		addDouble(id.intValue(), (value != null) ? value.doubleValue() : Double.NaN);
+	}
+
+	/**
+	 * Add a key-value pair to the profile - the unboxed counterpart of addValue(Integer,Double)
+	 * @param the ID to be added to the profile
+	 * @param the corresponding value
+	 */
+	public void addDouble(final int id, final double value) {
+		int index = dataMap.indexOf(id);
+		if (index >= 0) {
+			// overwrite - take the previous value out of the statistics
+			double previous = dataMap.valueAt(index);
+			if (!Double.isNaN(previous)) {
+				valueCount--;
+				sum -= previous;
+				sumOfSquares -= previous * previous;
+			}
+			dataMap.setValueAt(index, value);
+		}
+		else
+			dataMap.put(id, value);
+		
+		if (!Double.isNaN(value)) {
+			valueCount++;
+			sum += value;
+			sumOfSquares += value * value;
+		}
+		sortedForm = null;
 	}
 	
 	/** String representation of the Profile */
 	@Override
 	public String toString(){
 		StringBuffer buf = new StringBuffer();		
-		for(Iterator<Map.Entry<Integer,Double>> it = dataMap.entrySet().iterator(); it.hasNext(); ) {
-			Map.Entry<Integer,Double> entry = (Map.Entry<Integer,Double>)it.next();
-			Integer id = entry.getKey();
-			Double value = entry.getValue();
+		for(int i = 0; i < dataMap.size(); i++) {
+			Integer id = dataMap.keyAt(i);
+			Double value = Double.isNaN(dataMap.valueAt(i)) ? null : dataMap.valueAt(i);
 			buf.append(new String(getId() + " " + id + " " + value + "\n"));
 		}
 		return buf.toString();
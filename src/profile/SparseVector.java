@@ -0,0 +1,154 @@
+package profile;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, sorted-array form of a Profile - parallel arrays of IDs (in ascending order) and values.
+ * Two sparse vectors are intersected in a single pass without any allocation, either by a
+ * linear merge-join or, when one vector is much shorter than the other, by galloping search.
+ */
+public class SparseVector {
+
+	// use galloping search when the longer vector is at least this many times the length of the shorter
+	private static final int GALLOP_RATIO = 16;
+
+	// per-thread scratch statistics returned by intersect()
+	private static final ThreadLocal<CoRatingStats> SCRATCH = ThreadLocal.withInitial(CoRatingStats::new);
+
+	private final int[] ids;
+	private final double[] values;
+
+	/**
+	 * Constructor
+	 * @param ids - the IDs in ascending order
+	 * @param values - the value for each ID
+	 */
+	public SparseVector(final int[] ids, final double[] values) {
+		this.ids = ids;
+		this.values = values;
+	}
+
+	/**
+	 * Creates a sparse vector from unsorted keys and values
+	 * @param map - the entries to be sorted
+	 * @returns a new sparse vector holding the same entries as map
+	 */
+	static SparseVector of(final IntDoubleMap map) {
+		int n = map.size();
+
+		// sort (key, entry index) pairs packed into longs - the key occupies the high 32 bits
+		long[] packed = new long[n];
+		for (int i = 0; i < n; i++)
+			packed[i] = ((long) map.keyAt(i) << 32) | i;
+		Arrays.sort(packed);
+
+		int[] ids = new int[n];
+		double[] values = new double[n];
+		for (int i = 0; i < n; i++) {
+			int index = (int) packed[i];
+			ids[i] = map.keyAt(index);
+			values[i] = map.valueAt(index);
+		}
+		return new SparseVector(ids, values);
+	}
+
+	/** @returns the number of entries */
+	public int size() {
+		return ids.length;
+	}
+
+	/** @returns the ID at a position */
+	public int idAt(final int position) {
+		return ids[position];
+	}
+
+	/** @returns the value at a position */
+	public double valueAt(final int position) {
+		return values[position];
+	}
+
+	/**
+	 * Intersects two sparse vectors into the calling thread's scratch statistics
+	 * @param a - the first vector (contributes x values)
+	 * @param b - the second vector (contributes y values)
+	 * @returns the co-rating statistics of the two vectors - only valid until the next call on the same thread
+	 */
+	public static CoRatingStats intersect(final SparseVector a, final SparseVector b) {
+		CoRatingStats stats = SCRATCH.get();
+		stats.reset();
+		accumulate(a, b, stats);
+		return stats;
+	}
+
+	/**
+	 * Adds the common values of two sparse vectors to a set of statistics
+	 * @param a - the first vector (contributes x values)
+	 * @param b - the second vector (contributes y values)
+	 * @param stats - the statistics to accumulate into
+	 */
+	public static void accumulate(final SparseVector a, final SparseVector b, final CoRatingStats stats) {
+		if (a.size() == 0 || b.size() == 0)
+			return;
+		if (a.size() * GALLOP_RATIO <= b.size())
+			gallop(a, b, stats, false);
+		else if (b.size() * GALLOP_RATIO <= a.size())
+			gallop(b, a, stats, true);
+		else
+			merge(a, b, stats);
+	}
+
+	/** Linear merge-join of two vectors of similar length */
+	private static void merge(final SparseVector a, final SparseVector b, final CoRatingStats stats) {
+		final int[] ia = a.ids, ib = b.ids;
+		int i = 0, j = 0;
+		while (i < ia.length && j < ib.length) {
+			int x = ia[i], y = ib[j];
+			if (x < y)
+				i++;
+			else if (x > y)
+				j++;
+			else
+				stats.add(a.values[i++], b.values[j++]);
+		}
+	}
+
+	/**
+	 * Intersection by galloping (exponential then binary) search of the long vector for each ID in the short vector
+	 * @param small - the shorter vector
+	 * @param large - the longer vector
+	 * @param swapped - true if small is the second operand (so its values are the y values)
+	 */
+	private static void gallop(final SparseVector small, final SparseVector large, final CoRatingStats stats, final boolean swapped) {
+		final int[] is = small.ids, il = large.ids;
+		int lo = 0;
+		for (int i = 0; i < is.length && lo < il.length; i++) {
+			int target = is[i];
+
+			// exponential search for an upper bound
+			int step = 1;
+			int hi = lo;
+			while (hi < il.length && il[hi] < target) {
+				lo = hi + 1;
+				hi += step;
+				step <<= 1;
+			}
+			hi = Math.min(hi, il.length - 1);
+
+			// binary search in [lo, hi]
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (il[mid] < target)
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			if (lo < il.length && il[lo] == target) {
+				if (swapped)
+					stats.add(large.values[lo], small.values[i]);
+				else
+					stats.add(small.values[i], large.values[lo]);
+				lo++;
+			}
+		}
+	}
+}
@@ -1,13 +1,13 @@
 package similarity.metric.profile;
 
+import profile.CoRatingStats;
 import profile.Profile;
-
-import java.util.Set;
+import profile.SparseVector;
 
 /**
  * Compute the Cosine similarity between profiles.
  */
-public class CosineMetric implements ProfileSimilarityMetric {
+public class CosineMetric implements SufficientStatisticsMetric {
 	
 	/** Constructor - creates a new CosineMetric object */
 	public CosineMetric() {
@@ -20,14 +20,19 @@ public class CosineMetric implements ProfileSimilarityMetric {
 	 * @return the similarity score for the two profiles
 	 */
 	public double getSimilarity(final Profile p1, final Profile p2)	{
-        double dotProduct = 0;
-        
-        Set<Integer> common = p1.getCommonIds(p2);
-		for(Integer id: common)	{
-			double r1 = p1.getValue(id).doubleValue();
-			double r2 = p2.getValue(id).doubleValue();
-			dotProduct += r1 * r2;
-		}
+        // intersect the sorted forms of the two profiles in a single pass
+        return getSimilarity(p1, p2, SparseVector.intersect(p1.toSparseVector(), p2.toSparseVector()));
+	}
+
+	/**
+	 * Computes the similarity from the co-rating statistics of two profiles
+	 * @param profile 1 - a Profile
+	 * @param profile 2 - a Profile
+	 * @param common - the statistics of the values common to both profiles
+	 * @return the similarity score for the two profiles
+	 */
+	public double getSimilarity(final Profile p1, final Profile p2, final CoRatingStats common) {
+        double dotProduct = common.getSumXY();
 
 		double n1 = p1.getNorm();
 		double n2 = p2.getNorm();
@@ -38,6 +43,10 @@ public class CosineMetric implements ProfileSimilarityMetric {
 	public String toString() {
 		return "Cosine";
 	}
+
+	public String getCacheKey() {
+		return "Cosine";
+	}
 	
 	
 }
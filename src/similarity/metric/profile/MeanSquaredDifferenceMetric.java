@@ -1,11 +1,13 @@
 package similarity.metric.profile;
 
+import profile.CoRatingStats;
 import profile.Profile;
+import profile.SparseVector;
 
 /**
  * Computes the Mean Squared Difference similarity between profiles.
  */
-public class MeanSquaredDifferenceMetric implements ProfileSimilarityMetric{
+public class MeanSquaredDifferenceMetric implements SufficientStatisticsMetric {
 
 	private double a;
 	private double b;
@@ -27,16 +29,19 @@ public class MeanSquaredDifferenceMetric implements ProfileSimilarityMetric{
 	 */
 	public double getSimilarity(final Profile p1, final Profile p2) {
 		
-		double denom = 0;
-		double divis = 0;
-	
-		// Calculate the Mean Squared Difference
-		for (Integer id: p1.getIds()) {
-			if (p2.contains(id)) {
-				denom += Math.pow(p1.getValue(id) - p2.getValue(id), 2);
-				divis += 1;
-			}
-		}
+		// Calculate the Mean Squared Difference over the common values in a single pass
+		return getSimilarity(p1, p2, SparseVector.intersect(p1.toSparseVector(), p2.toSparseVector()));
+	}
+
+	/**
+	 * Computes the similarity from the co-rating statistics of two profiles
+	 * @param profile 1 - a Profile
+	 * @param profile 2 - a Profile
+	 * @param common - the statistics of the values common to both profiles
+	 */
+	public double getSimilarity(final Profile p1, final Profile p2, final CoRatingStats common) {
+		double denom = common.getSumSquaredDifference();
+		double divis = common.getCount();
 		
 		// if there is no item overlap return a similarity of 0
 		if (divis == 0)
@@ -51,5 +56,9 @@ public class MeanSquaredDifferenceMetric implements ProfileSimilarityMetric{
 	public String toString() {
 		return "MeanSquaredDifference";
 	}
+
+	public String getCacheKey() {
+		return "MeanSquaredDifference(a=" + a + ",b=" + b + ")";
+	}
 	
 }
@@ -1,13 +1,13 @@
 package similarity.metric.profile;
 
+import profile.CoRatingStats;
 import profile.Profile;
-
-import java.util.Set;
+import profile.SparseVector;
 
 /**
  * Computes the Pearson similarity between profiles.
  */
-public class PearsonMetric implements ProfileSimilarityMetric {
+public class PearsonMetric implements SufficientStatisticsMetric {
 	
 	/** Constructor */
 	public PearsonMetric() {
@@ -20,27 +20,26 @@ public class PearsonMetric implements ProfileSimilarityMetric {
 	 */
 	public double getSimilarity(final Profile p1, final Profile p2)	{
 		
-        double sum_r1 = 0;
-        double sum_r1_sq = 0;
-        double sum_r2 = 0;
-        double sum_r2_sq = 0;
-        double sum_r1_r2 = 0;
-        
-        // Get the common values in the two profiles
-        Set<Integer> common = p1.getCommonIds(p2);
-		for(Integer id: common)	{
-			
-			double r1 = p1.getValue(id).doubleValue();
-			double r2 = p2.getValue(id).doubleValue();
+        // Accumulate over the common values in the two profiles in a single pass
+        return getSimilarity(p1, p2, SparseVector.intersect(p1.toSparseVector(), p2.toSparseVector()));
+	}
 
-			sum_r1 += r1;
-            sum_r1_sq += r1 * r1;
-            sum_r2 += r2;
-            sum_r2_sq += r2 * r2;
-            sum_r1_r2 += r1 * r2;
-		}
-		double above = (common.size() > 0) ? sum_r1_r2 - (sum_r1 * sum_r2) / common.size() : 0;
-		double below = (common.size() > 0) ? Math.sqrt( (sum_r1_sq - (sum_r1 * sum_r1) / common.size()) * (sum_r2_sq - (sum_r2 * sum_r2) / common.size()) ) : 0;
+	/**
+	 * Computes the Pearson similarity from the co-rating statistics of two profiles
+	 * @param p1 - profile 1
+	 * @param p2 - profile 2
+	 * @param common - the statistics of the values common to both profiles
+	 */
+	public double getSimilarity(final Profile p1, final Profile p2, final CoRatingStats common) {
+        double sum_r1 = common.getSumX();
+        double sum_r1_sq = common.getSumXX();
+        double sum_r2 = common.getSumY();
+        double sum_r2_sq = common.getSumYY();
+        double sum_r1_r2 = common.getSumXY();
+        int n = common.getCount();
+
+		double above = (n > 0) ? sum_r1_r2 - (sum_r1 * sum_r2) / n : 0;
+		double below = (n > 0) ? Math.sqrt( (sum_r1_sq - (sum_r1 * sum_r1) / n) * (sum_r2_sq - (sum_r2 * sum_r2) / n) ) : 0;
 		return (below > 0) ? above / below : 0;
 	}
 	
@@ -48,6 +47,10 @@ public class PearsonMetric implements ProfileSimilarityMetric {
 	public String toString() {
 		return "Pearson";
 	}
+
+	public String getCacheKey() {
+		return "Pearson";
+	}
 	
 	
 }
@@ -11,4 +11,14 @@ public interface ProfileSimilarityMetric {
 	 * @param p2
 	 */
 	public double getSimilarity(final Profile p1, final Profile p2);
+
+	/**
+	 * Names the similarities the metric computes, e.g. to key a saved similarity map (see MappedSimilarityMap).
+	 * The key must cover every parameter that affects the similarities, so that metrics with equal keys compute
+	 * equal similarities over the same profiles.
+	 * @returns the key, or null if the metric cannot name its similarities (the default)
+	 */
+	public default String getCacheKey() {
+		return null;
+	}
 }
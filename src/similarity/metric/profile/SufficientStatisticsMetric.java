@@ -0,0 +1,20 @@
+package similarity.metric.profile;
+
+import profile.CoRatingStats;
+import profile.Profile;
+
+/**
+ * A profile similarity metric that depends on the common values of two profiles only through their
+ * co-rating statistics (and on properties of the whole profiles, such as their norms), so that the
+ * statistics can be accumulated for many pairs at once rather than by intersecting each pair of profiles
+ */
+public interface SufficientStatisticsMetric extends ProfileSimilarityMetric {
+
+	/**
+	 * @returns the similarity between two profiles
+	 * @param p1
+	 * @param p2
+	 * @param common - the co-rating statistics of the values common to p1 (x) and p2 (y)
+	 */
+	public double getSimilarity(final Profile p1, final Profile p2, final CoRatingStats common);
+}
@@ -0,0 +1,136 @@
+package util;
+
+/**
+ * Numeric kernels over dense rows of primitive values, e.g. the rows of a GenomeMatrix or the factor vectors
+ * of a matrix factorisation model.
+ * Each kernel has a simple loop and an unrolled loop. The unrolled loop keeps four independent partial sums,
+ * so consecutive additions do not wait for each other and the processor can overlap them - a simple reduction
+ * is bound by the latency of one floating point addition per element - and avoids operations that the
+ * just-in-time compiler cannot turn into straight-line arithmetic. The partial sums are combined at the end,
+ * so the unrolled result can differ from the simple one in the last bits.
+ * The public kernels select a loop at runtime: the unrolled loop is used for rows of at least UNROLL_THRESHOLD
+ * elements, unless the system property "dense.kernels" is set to "simple".
+ */
+public final class DenseKernels {
+
+	/** The row length from which the unrolled loops are used */
+	public static final int UNROLL_THRESHOLD = 32;
+
+	private static final boolean UNROLLED = !"simple".equals(System.getProperty("dense.kernels"));
+
+	private DenseKernels() {
+	}
+
+	/** @returns true if the unrolled loops are enabled */
+	public static boolean isUnrolled() {
+		return UNROLLED;
+	}
+
+	/**
+	 * Computes the weighted Jaccard index of two rows of non-negative scores in the same array
+	 * @param scores - the scores
+	 * @param x - the position of the first row
+	 * @param y - the position of the second row
+	 * @param length - the row length
+	 * @returns sum(min(x_i, y_i)) / sum(max(x_i, y_i)), or 0 if all scores are 0
+	 */
+	public static double weightedJaccard(final float[] scores, final int x, final int y, final int length) {
+		return (UNROLLED && length >= UNROLL_THRESHOLD)
+			? weightedJaccardUnrolled(scores, x, y, length)
+			: weightedJaccardSimple(scores, x, y, length);
+	}
+
+	/**
+	 * The weighted Jaccard index with one partial sum per reduction
+	 * @see #weightedJaccard(float[], int, int, int)
+	 */
+	public static double weightedJaccardSimple(final float[] scores, final int x, final int y, final int length) {
+		double denom = 0;
+		double divis = 0;
+		for (int i = 0; i < length; i++) {
+			float xi = scores[x + i];
+			float yi = scores[y + i];
+			denom += Math.min(xi, yi); // min/max rather than a branch, which would be mispredicted half of the time
+			divis += Math.max(xi, yi);
+		}
+		return (divis > 0) ? denom / divis : 0;
+	}
+
+	/**
+	 * The weighted Jaccard index with four partial sums per reduction. Rather than calling Math.min() and
+	 * Math.max(), whose handling of NaN and -0.0 makes them several times slower than an addition, it uses
+	 * min(x, y) = (x + y - |x - y|) / 2 and max(x, y) = (x + y + |x - y|) / 2, accumulating sum(x + y) and
+	 * sum(|x - y|). Sums and differences of two floats are exact in double precision, so only the order of
+	 * the accumulation differs from the simple loop.
+	 * @see #weightedJaccard(float[], int, int, int)
+	 */
+	public static double weightedJaccardUnrolled(final float[] scores, final int x, final int y, final int length) {
+		double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;   // partial sums of x + y
+		double diff0 = 0, diff1 = 0, diff2 = 0, diff3 = 0; // partial sums of |x - y|
+		int end = length & ~3;
+		int i = 0;
+		for (; i < end; i += 4) {
+			double x0 = scores[x + i], x1 = scores[x + i + 1], x2 = scores[x + i + 2], x3 = scores[x + i + 3];
+			double y0 = scores[y + i], y1 = scores[y + i + 1], y2 = scores[y + i + 2], y3 = scores[y + i + 3];
+			sum0 += x0 + y0;
+			sum1 += x1 + y1;
+			sum2 += x2 + y2;
+			sum3 += x3 + y3;
+			diff0 += Math.abs(x0 - y0);
+			diff1 += Math.abs(x1 - y1);
+			diff2 += Math.abs(x2 - y2);
+			diff3 += Math.abs(x3 - y3);
+		}
+		for (; i < length; i++) {
+			double xi = scores[x + i];
+			double yi = scores[y + i];
+			sum0 += xi + yi;
+			diff0 += Math.abs(xi - yi);
+		}
+		double sum = (sum0 + sum1) + (sum2 + sum3);
+		double diff = (diff0 + diff1) + (diff2 + diff3);
+		double divis = (sum + diff) / 2;
+		return (divis > 0) ? ((sum - diff) / 2) / divis : 0;
+	}
+
+	/**
+	 * Computes the dot product of two vectors
+	 * @param a - the first vector
+	 * @param b - the second vector, at least as long as the first
+	 * @returns sum(a_i * b_i)
+	 */
+	public static double dot(final double[] a, final double[] b) {
+		return (UNROLLED && a.length >= UNROLL_THRESHOLD) ? dotUnrolled(a, b) : dotSimple(a, b);
+	}
+
+	/**
+	 * The dot product with one partial sum
+	 * @see #dot(double[], double[])
+	 */
+	public static double dotSimple(final double[] a, final double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++)
+			sum += a[i] * b[i];
+		return sum;
+	}
+
+	/**
+	 * The dot product with four partial sums - a plain multiply-add rather than Math.fma(), which
+	 * falls back to a very slow exact computation on processors without a fused multiply-add instruction
+	 * @see #dot(double[], double[])
+	 */
+	public static double dotUnrolled(final double[] a, final double[] b) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int end = a.length & ~3;
+		int i = 0;
+		for (; i < end; i += 4) {
+			s0 += a[i] * b[i];
+			s1 += a[i + 1] * b[i + 1];
+			s2 += a[i + 2] * b[i + 2];
+			s3 += a[i + 3] * b[i + 3];
+		}
+		for (; i < a.length; i++)
+			s0 += a[i] * b[i];
+		return (s0 + s1) + (s2 + s3);
+	}
+}
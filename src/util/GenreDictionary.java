@@ -0,0 +1,72 @@
+package util;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An immutable mapping between genre names and bit positions, so that the genres of an item can be
+ * encoded as a long bitmask. Genres are assigned bits in alphabetical order. At most MAX_GENRES genres
+ * can be encoded - for larger genre vocabularies isComplete() returns false and no masks are available.
+ */
+public class GenreDictionary {
+
+	public static final int MAX_GENRES = Long.SIZE;
+
+	private final String[] genres; // genres[bit] = genre name
+	private final boolean complete; // true if every genre has a bit
+
+	/**
+	 * Constructor
+	 * @param genreSets - the genre sets of all items
+	 */
+	public GenreDictionary(final Collection<Set<String>> genreSets) {
+		Set<String> all = new TreeSet<String>();
+		for (Set<String> genreSet : genreSets)
+			all.addAll(genreSet);
+		this.complete = all.size() <= MAX_GENRES;
+		this.genres = complete ? all.toArray(new String[all.size()]) : new String[0];
+	}
+
+	/** @returns the number of genres with a bit */
+	public int size() {
+		return genres.length;
+	}
+
+	/** @returns true if every genre has a bit, i.e. there are at most MAX_GENRES genres */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Get the bit of a genre
+	 * @param genre - the genre name
+	 * @returns the bit position of the genre or -1 if the genre has no bit
+	 */
+	public int getBit(final String genre) {
+		for (int bit = 0; bit < genres.length; bit++)
+			if (genres[bit].equals(genre))
+				return bit;
+		return -1;
+	}
+
+	/** @returns the genre name of a bit position */
+	public String getGenre(final int bit) {
+		return genres[bit];
+	}
+
+	/**
+	 * Encodes a set of genres
+	 * @param genreSet - the genres
+	 * @returns the bitmask of the genres - genres without a bit are ignored
+	 */
+	public long getMask(final Set<String> genreSet) {
+		long mask = 0;
+		for (String genre : genreSet) {
+			int bit = getBit(genre);
+			if (bit >= 0)
+				mask |= 1L << bit;
+		}
+		return mask;
+	}
+}
@@ -0,0 +1,154 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * An immutable bidirectional mapping between external (e.g. MovieLens) user or item IDs and
+ * contiguous dense indices in the range [0, size()), so they can be used directly to index plain arrays.
+ * The indices of the IDs a dictionary is constructed with follow ascending external ID order.
+ * extend() creates a new dictionary in which further IDs are appended after the existing ones,
+ * so that arrays indexed by the old dictionary stay valid.
+ */
+public class IdDictionary {
+
+	// use a direct lookup table when the ID range is at most this many times the number of IDs
+	private static final int MAX_TABLE_SPREAD = 8;
+
+	private final int[] ids;    // ids[index] = external ID - in ascending order unless the dictionary has been extended
+	private final int[] lookup; // lookup[id - minId] = index or -1 - null if the ID range is too sparse
+	private final int minId;
+	private final int[] sortedIds;     // the IDs in ascending order, for binary search if lookup is null
+	private final int[] sortedIndices; // the index of each sorted ID - null if ids is itself sorted
+
+	/**
+	 * Constructor
+	 * @param externalIds - the external IDs to be indexed (duplicates are ignored)
+	 */
+	public IdDictionary(final Collection<Integer> externalIds) {
+		int[] sorted = new int[externalIds.size()];
+		int n = 0;
+		for (Integer id : externalIds)
+			sorted[n++] = id;
+		Arrays.sort(sorted);
+
+		// remove duplicates
+		int unique = 0;
+		for (int i = 0; i < n; i++)
+			if (unique == 0 || sorted[i] != sorted[unique - 1])
+				sorted[unique++] = sorted[i];
+		this.ids = Arrays.copyOf(sorted, unique);
+		this.sortedIds = ids;
+		this.sortedIndices = null;
+		this.minId = (unique > 0) ? ids[0] : 0;
+		this.lookup = buildLookup(ids, minId, (unique > 0) ? ids[unique - 1] : 0);
+	}
+
+	/**
+	 * Constructor - indexes IDs in the given order
+	 * @param ids - distinct external IDs in index order
+	 */
+	private IdDictionary(final int[] ids) {
+		this.ids = ids;
+		int n = ids.length;
+
+		// sort (ID, index) pairs packed into longs - the ID occupies the high 32 bits
+		long[] packed = new long[n];
+		for (int i = 0; i < n; i++)
+			packed[i] = ((long) ids[i] << 32) | i;
+		Arrays.sort(packed);
+		this.sortedIds = new int[n];
+		this.sortedIndices = new int[n];
+		for (int i = 0; i < n; i++) {
+			sortedIds[i] = (int) (packed[i] >> 32);
+			sortedIndices[i] = (int) packed[i];
+		}
+		this.minId = (n > 0) ? sortedIds[0] : 0;
+		this.lookup = buildLookup(ids, minId, (n > 0) ? sortedIds[n - 1] : 0);
+	}
+
+	/**
+	 * Builds a direct lookup table if the ID range is dense enough
+	 * @param ids - the IDs in index order
+	 * @param minId - the smallest ID
+	 * @param maxId - the largest ID
+	 * @returns the lookup table or null if the ID range is too sparse
+	 */
+	private static int[] buildLookup(final int[] ids, final int minId, final int maxId) {
+		long range = (ids.length > 0) ? (long) maxId - minId + 1 : 0;
+		if (range > (long) MAX_TABLE_SPREAD * ids.length + 1024)
+			return null;
+		int[] lookup = new int[(int) range];
+		Arrays.fill(lookup, -1);
+		for (int i = 0; i < ids.length; i++)
+			lookup[ids[i] - minId] = i;
+		return lookup;
+	}
+
+	/**
+	 * Creates a dictionary holding this dictionary's IDs followed by new IDs - the IDs in this dictionary
+	 * keep their indices and the new IDs are given the next indices in the order they are passed
+	 * @param newIds - the IDs to be added (IDs already in the dictionary and repeated IDs are ignored)
+	 * @returns a new dictionary, or this dictionary if there is nothing to add
+	 */
+	public IdDictionary extend(final int... newIds) {
+		// the IDs not yet in the dictionary, in the order they are passed - usually there are none
+		Set<Integer> added = null;
+		for (int id : newIds)
+			if (!contains(id)) {
+				if (added == null)
+					added = new LinkedHashSet<Integer>();
+				added.add(id);
+			}
+		if (added == null)
+			return this;
+
+		int[] extended = Arrays.copyOf(ids, ids.length + added.size());
+		int n = ids.length;
+		for (int id : added)
+			extended[n++] = id;
+		return new IdDictionary(extended);
+	}
+
+	/** @returns the number of IDs in the dictionary */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Get the dense index of an external ID
+	 * @param id - an external ID
+	 * @returns the dense index of the ID or -1 if the ID is not in the dictionary
+	 */
+	public int getIndex(final int id) {
+		if (lookup != null) {
+			long offset = (long) id - minId;
+			return (offset >= 0 && offset < lookup.length) ? lookup[(int) offset] : -1;
+		}
+		int index = Arrays.binarySearch(sortedIds, id);
+		if (index < 0)
+			return -1;
+		return (sortedIndices != null) ? sortedIndices[index] : index;
+	}
+
+	/**
+	 * Get the external ID of a dense index
+	 * @param index - a dense index in the range [0, size())
+	 * @returns the external ID
+	 */
+	public int getId(final int index) {
+		return ids[index];
+	}
+
+	/** @returns true if the external ID is in the dictionary */
+	public boolean contains(final int id) {
+		return getIndex(id) >= 0;
+	}
+
+	/** @returns a copy of all external IDs in dense index order */
+	public int[] getIds() {
+		return ids.clone();
+	}
+}
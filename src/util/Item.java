@@ -1,6 +1,7 @@
 package util;
 
 import profile.Profile;
+import util.reader.GenomeMatrix;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -13,7 +14,10 @@ public class Item {
 	private Integer id;           // the numeric ID of the item
 	private String name;          // the name of the item
 	private Set<String> genres;   // a hash set containing genres
+	private long genreMask;       // the genres encoded by a GenreDictionary
+	private boolean hasGenreMask; // true if genreMask is set and up to date
 	private Profile genomeScores; // a profile with genome scores
+	private GenomeMatrix genomeMatrix; // the dense genome scores of all items - used if genomeScores is null
 	
 	/**
 	 * Default Constructor
@@ -77,19 +81,60 @@ public class Item {
 	}
 
 	/**
-	 * @param genres the genres to set
+	 * @param genres the genres to set - this invalidates the genre mask
 	 */
 	public void setGenres(Set<String> genres) {
 		this.genres = genres;
+		this.hasGenreMask = false;
 	}
 
 	/**
-	 * @return the genomeScores
+	 * @return the genre mask - only valid if hasGenreMask() returns true
+	 */
+	public long getGenreMask() {
+		return genreMask;
+	}
+
+	/**
+	 * @return true if the genre mask is available
+	 */
+	public boolean hasGenreMask() {
+		return hasGenreMask;
+	}
+
+	/**
+	 * @param genreMask the genres encoded by a GenreDictionary
+	 */
+	public void setGenreMask(long genreMask) {
+		this.genreMask = genreMask;
+		this.hasGenreMask = true;
+	}
+
+	/**
+	 * @return the genomeScores - if the item is backed by a GenomeMatrix, a new profile is built from its row
 	 */
 	public Profile getGenomeScores() {
+		if (genomeScores == null && genomeMatrix != null) {
+			int row = genomeMatrix.getRow(id);
+			return (row >= 0) ? genomeMatrix.toProfile(row) : null;
+		}
 		return genomeScores;
 	}
 
+	/**
+	 * @return the genome matrix holding the item's genome scores (or null if not available)
+	 */
+	public GenomeMatrix getGenomeMatrix() {
+		return genomeMatrix;
+	}
+
+	/**
+	 * @param genomeMatrix the genome matrix holding the item's genome scores
+	 */
+	public void setGenomeMatrix(GenomeMatrix genomeMatrix) {
+		this.genomeMatrix = genomeMatrix;
+	}
+
 	/**
 	 * @param genomeScores the genomeScores to set
 	 */
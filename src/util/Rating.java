@@ -0,0 +1,48 @@
+package util;
+
+/**
+ * A single user-item rating - used to pass new ratings to DatasetReader.addRatings()
+ */
+public class Rating {
+
+	private int userId;    // the user's ID
+	private int itemId;    // the item's ID
+	private double rating; // the rating
+
+	/**
+	 * Constructor
+	 * @param userId - the user's ID
+	 * @param itemId - the item's ID
+	 * @param rating - the rating
+	 */
+	public Rating(final int userId, final int itemId, final double rating) {
+		this.userId = userId;
+		this.itemId = itemId;
+		this.rating = rating;
+	}
+
+	/**
+	 * @returns the user's ID
+	 */
+	public int getUserId() {
+		return userId;
+	}
+
+	/**
+	 * @returns the item's ID
+	 */
+	public int getItemId() {
+		return itemId;
+	}
+
+	/**
+	 * @returns the rating
+	 */
+	public double getRating() {
+		return rating;
+	}
+
+	public String toString() {
+		return userId + " " + itemId + " " + rating;
+	}
+}
@@ -14,7 +14,7 @@ public class Diversity implements TestPerfInterface {
 	
 	/**
 	 * Constructor
-	 * @param distanceMap - a map containing item-item distance
+	 * @param distanceMap - a map containing item-item distance (e.g. a DistanceMap over a similarity map)
 	 */
 	public Diversity(SimilarityMap distanceMap)	{
 		this.distanceMap = distanceMap;
@@ -0,0 +1,225 @@
+package util.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a delimited text file of (int, int, double) triples - e.g. (user, item, rating) or (movie, tag, relevance) -
+ * on one or more threads. The file is split into byte ranges whose boundaries are moved forward to the next line
+ * break, each range is memory-mapped and decoded by a TripleParser into a Chunk, and the chunks are returned in
+ * file order, so that replaying them one after another visits the lines exactly as a sequential reader would.
+ */
+class ChunkedTripleReader {
+
+	/**
+	 * The triples parsed from one byte range of a file, in line order
+	 */
+	static class Chunk implements TripleConsumer {
+		private int[] first;
+		private int[] second;
+		private double[] third;
+		private int size = 0;
+
+		/**
+		 * Constructor
+		 * @param capacity - the expected number of triples
+		 */
+		Chunk(final int capacity) {
+			first = new int[capacity];
+			second = new int[capacity];
+			third = new double[capacity];
+		}
+
+		/** @returns the number of triples in the chunk */
+		int size() {
+			return size;
+		}
+
+		/** @returns the first value of triple i */
+		int getFirst(final int i) {
+			return first[i];
+		}
+
+		/** @returns the second value of triple i */
+		int getSecond(final int i) {
+			return second[i];
+		}
+
+		/** @returns the third value of triple i (NaN if the line had no third value) */
+		double getThird(final int i) {
+			return third[i];
+		}
+
+		/** Appends a triple to the chunk */
+		public void accept(final int a, final int b, final double c) {
+			if (size == first.length) {
+				first = Arrays.copyOf(first, size * 2);
+				second = Arrays.copyOf(second, size * 2);
+				third = Arrays.copyOf(third, size * 2);
+			}
+			first[size] = a;
+			second[size] = b;
+			third[size] = c;
+			size++;
+		}
+	}
+
+	private static final long MAX_CHUNK_BYTES = 1L << 30; // a single mapping is limited to 2GB
+	private static final int BYTES_PER_LINE = 24;          // a rough estimate used to size chunks
+
+	private final String filename;
+	private final boolean skipHeader; // true if the first line of the file is a header
+	private final boolean optionalThird; // true if lines may contain only two values
+
+	/**
+	 * Constructor
+	 * @param filename - the path of the file to be read
+	 * @param skipHeader - true if the first line of the file is a header
+	 * @param optionalThird - true if lines may omit the third value (it is then read as NaN)
+	 */
+	ChunkedTripleReader(final String filename, final boolean skipHeader, final boolean optionalThird) {
+		this.filename = filename;
+		this.skipHeader = skipHeader;
+		this.optionalThird = optionalThird;
+	}
+
+	/**
+	 * Reads the file
+	 * @param numThreads - the number of worker threads - with one thread the file is read on the calling thread
+	 * @returns the parsed chunks in file order
+	 * @throws IOException if the file cannot be read
+	 * @throws DatasetFormatException if the file contains a malformed line
+	 */
+	List<Chunk> read(final int numThreads) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			int numChunks = (int) Math.max(numThreads, (channel.size() + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+			long[] bounds = split(channel, numChunks);
+
+			if (numThreads <= 1) {
+				List<Chunk> chunks = new ArrayList<Chunk>();
+				for (int c = 0; c + 1 < bounds.length; c++)
+					chunks.add(parse(channel, bounds[c], bounds[c + 1]));
+				return chunks;
+			}
+
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			try {
+				List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+				for (int c = 0; c + 1 < bounds.length; c++) {
+					final long start = bounds[c];
+					final long end = bounds[c + 1];
+					futures.add(executor.submit(() -> parse(channel, start, end)));
+				}
+
+				List<Chunk> chunks = new ArrayList<Chunk>();
+				for (Future<Chunk> future : futures)
+					chunks.add(future.get());
+				return chunks;
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading \"" + filename + "\"", e);
+			}
+			catch(ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				if (e.getCause() instanceof DatasetFormatException)
+					throw (DatasetFormatException) e.getCause();
+				throw new IOException("Error reading from file \"" + filename + "\"", e.getCause());
+			}
+			finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Splits a file into byte ranges that start at the beginning of a line
+	 * @param channel - the file
+	 * @param numChunks - the desired number of ranges
+	 * @returns the range boundaries - range c is [bounds[c], bounds[c + 1])
+	 */
+	private long[] split(final FileChannel channel, final int numChunks) throws IOException {
+		long length = channel.size();
+		long start = skipHeader ? nextLineStart(channel, 0) : 0;
+
+		long[] bounds = new long[numChunks + 1];
+		bounds[0] = start;
+		for (int c = 1; c < numChunks; c++) {
+			long target = start + (length - start) * c / numChunks;
+			bounds[c] = Math.max(bounds[c - 1], nextLineStart(channel, Math.max(target - 1, start)));
+		}
+		bounds[numChunks] = length;
+		return bounds;
+	}
+
+	/**
+	 * @returns the position after the first line break at or after position, or the file length if there is none
+	 */
+	private static long nextLineStart(final FileChannel channel, long position) throws IOException {
+		long length = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (position < length) {
+			buffer.clear();
+			int n = channel.read(buffer, position);
+			if (n <= 0)
+				break;
+			for (int i = 0; i < n; i++)
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			position += n;
+		}
+		return length;
+	}
+
+	/**
+	 * Parses the lines in a byte range
+	 * @param channel - the file
+	 * @param start - the position of the first byte in the range (the start of a line)
+	 * @param end - the position after the last byte in the range (the start of a line or the file length)
+	 * @returns the parsed triples
+	 */
+	private Chunk parse(final FileChannel channel, final long start, final long end) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+		Chunk chunk = new Chunk((int) Math.max(16, (end - start) / BYTES_PER_LINE));
+		try {
+			new TripleParser(filename, optionalThird).parse(buffer, 1, chunk);
+		}
+		catch(DatasetFormatException e) {
+			// line numbers are relative to the start of the range - only count the preceding lines on failure
+			throw new DatasetFormatException(filename, e.getLineNumber() + countLines(channel, start), e.getReason());
+		}
+		return chunk;
+	}
+
+	/**
+	 * @returns the number of line breaks before position
+	 */
+	private static long countLines(final FileChannel channel, final long position) throws IOException {
+		long lines = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		for (long pos = 0; pos < position; ) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), position - pos));
+			int n = channel.read(buffer, pos);
+			if (n <= 0)
+				break;
+			for (int i = 0; i < n; i++)
+				if (buffer.get(i) == '\n')
+					lines++;
+			pos += n;
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,41 @@
+package util.reader;
+
+/**
+ * Thrown when a line of a dataset file cannot be parsed - reports the file and the (1-based) line number
+ */
+public class DatasetFormatException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String filename;
+	private final long lineNumber;
+	private final String reason;
+
+	/**
+	 * Constructor
+	 * @param filename - the path of the file
+	 * @param lineNumber - the number of the malformed line, starting at 1
+	 * @param reason - a description of the problem
+	 */
+	public DatasetFormatException(final String filename, final long lineNumber, final String reason) {
+		super("Error reading from file \"" + filename + "\" at line " + lineNumber + ": " + reason);
+		this.filename = filename;
+		this.lineNumber = lineNumber;
+		this.reason = reason;
+	}
+
+	/** @returns the path of the file */
+	public String getFilename() {
+		return filename;
+	}
+
+	/** @returns the number of the malformed line, starting at 1 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/** @returns a description of the problem */
+	public String getReason() {
+		return reason;
+	}
+}
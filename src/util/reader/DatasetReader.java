@@ -1,30 +1,63 @@
 package util.reader;
 
+import profile.IntDoubleMap;
 import profile.Profile;
+import util.GenreDictionary;
+import util.IdDictionary;
 import util.Item;
+import util.Rating;
 import util.UserItemPair;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 
 /**
  * DatasetReader is used to read in user and item profiles from the MovieLens dataset. Also reads in the test data.
+ * Further training ratings can be added after loading with addRating()/addRatings() - registered RatingListeners
+ * are notified of each one.
  */
 public class DatasetReader {
 	
 	private Map<Integer,Profile> userProfileMap;
 	private Map<Integer,Profile> itemProfileMap;
-	private Map<Integer,Profile> itemGenomeScoresMap;
 	private Map<Integer,Item> itemMap;
 	private Map<UserItemPair,Double> testData;
 	private Map<Integer,Profile> testProfileMap;
+	private IdDictionary userDictionary; // maps user ids to dense indices - shared by all algorithms
+	private IdDictionary itemDictionary; // maps item ids to dense indices - shared by all algorithms
+	private GenreDictionary genreDictionary; // maps genres to bits of the items' genre masks
+	private RatingMatrix userItemMatrix; // all training ratings in user-major (CSR) form over dense indices
+	private RatingMatrix itemUserMatrix; // all training ratings in item-major (CSC) form over dense indices
+	private GenomeMatrix genomeMatrix;   // the genome scores of all items - rows are indexed by the item dictionary
+	private String[] sourceFiles;        // the files the data was loaded from - used to detect stale snapshots
+	private volatile boolean ratingMatricesStale; // true if ratings have been added since the rating matrices were built
+	private volatile Long fingerprint;   // the fingerprint of the training data - computed on first use, cleared when ratings are added
+	private List<RatingListener> listeners = new ArrayList<RatingListener>(); // notified of added ratings
+
+	/**
+	 * Constructs an empty DatasetReader - populated by DatasetSnapshot
+	 * @param sourceFiles - the files the snapshot was created from
+	 */
+	DatasetReader(final String[] sourceFiles) {
+		this.sourceFiles = sourceFiles;
+		userProfileMap = new HashMap<Integer,Profile>();
+		itemProfileMap = new HashMap<Integer,Profile>();
+		itemMap = new HashMap<Integer,Item>();
+		testData = new HashMap<UserItemPair,Double>();
+	}
 
 	/** 
 	 * Constructs a DatasetReader from the MovieLens 100K dataset
@@ -33,10 +66,78 @@ public class DatasetReader {
 	 * @param testFile the path of the file containing the test user-item ratings
 	 */
 	public DatasetReader(final String itemFile, final String trainFile, final String testFile) {
-		itemGenomeScoresMap = new HashMap<Integer,Profile>(); // not available for MovieLens 100K dataset
+		this(itemFile, trainFile, testFile, 1);
+	}
+
+	/** 
+	 * Constructs a DatasetReader from the MovieLens 100K dataset, parsing the rating files on several threads
+	 * @param itemFile the path of the file containing item descriptions
+	 * @param trainFile the path of the file containing the training user-item ratings
+	 * @param testFile the path of the file containing the test user-item ratings
+	 * @param numThreads the number of threads used to parse the rating files (1 reads them sequentially)
+	 */
+	public DatasetReader(final String itemFile, final String trainFile, final String testFile, final int numThreads) {
+		sourceFiles = new String[] { itemFile, trainFile, testFile };
 		loadItemsML100K(itemFile); // must be called before loadProfiles()
-		loadProfiles(trainFile);
-		loadTestData(testFile);
+		loadProfiles(trainFile, numThreads);
+		loadTestData(testFile, numThreads);
+		buildDictionaries();
+		buildRatingMatrices();
+		genomeMatrix = createEmptyGenomeMatrix(); // not available for MovieLens 100K dataset
+	}
+
+	/**
+	 * Creates a DatasetReader for the MovieLens 100K dataset from a binary snapshot, skipping all text parsing.
+	 * If the snapshot is missing, unreadable or older than any of the data files, the data files are parsed
+	 * instead and a new snapshot is written.
+	 * @param snapshotFile the path of the binary snapshot file
+	 * @param itemFile the path of the file containing item descriptions
+	 * @param trainFile the path of the file containing the training user-item ratings
+	 * @param testFile the path of the file containing the test user-item ratings
+	 * @return a DatasetReader holding the dataset
+	 */
+	public static DatasetReader fromSnapshot(final String snapshotFile, final String itemFile, final String trainFile, final String testFile) {
+		DatasetReader reader = DatasetSnapshot.read(snapshotFile, new String[] { itemFile, trainFile, testFile });
+		if (reader == null) {
+			reader = new DatasetReader(itemFile, trainFile, testFile);
+			reader.saveSnapshot(snapshotFile);
+		}
+		return reader;
+	}
+
+	/**
+	 * Creates a DatasetReader for the MovieLens 20M dataset from a binary snapshot, skipping all text parsing.
+	 * If the snapshot is missing, unreadable or older than any of the data files, the data files are parsed
+	 * instead and a new snapshot is written.
+	 * @param snapshotFile the path of the binary snapshot file
+	 * @param itemFile the path of the file containing item descriptions
+	 * @param itemGenomeScoresFile the path of the file containing item genome scores
+	 * @param trainFile the path of the file containing the training user-item ratings
+	 * @param testFile the path of the file containing the test user-item ratings
+	 * @return a DatasetReader holding the dataset
+	 */
+	public static DatasetReader fromSnapshot(final String snapshotFile, final String itemFile, final String itemGenomeScoresFile, final String trainFile, final String testFile) {
+		DatasetReader reader = DatasetSnapshot.read(snapshotFile, new String[] { itemFile, itemGenomeScoresFile, trainFile, testFile });
+		if (reader == null) {
+			reader = new DatasetReader(itemFile, itemGenomeScoresFile, trainFile, testFile);
+			reader.saveSnapshot(snapshotFile);
+		}
+		return reader;
+	}
+
+	/**
+	 * Writes the loaded items, genome scores, training ratings and test data to a binary snapshot file,
+	 * which fromSnapshot() can load without parsing the original data files.
+	 * @param snapshotFile the path of the binary snapshot file
+	 */
+	public void saveSnapshot(final String snapshotFile) {
+		try {
+			DatasetSnapshot.write(this, snapshotFile, sourceFiles);
+		}
+		catch(IOException e) {
+			System.out.println("Error writing snapshot file \"" + snapshotFile + "\"");
+			e.printStackTrace();
+		}
 	}
 
 	/** 
@@ -47,10 +148,25 @@ public class DatasetReader {
 	 * @param testFile the path of the file containing the test user-item ratings
 	 */
 	public DatasetReader(final String itemFile, final String itemGenomeScoresFile, final String trainFile, final String testFile) {
-		loadGenomeScoresML20M(itemGenomeScoresFile); // must be called before loadItemsML20M()
+		this(itemFile, itemGenomeScoresFile, trainFile, testFile, 1);
+	}
+
+	/** 
+	 * Constructs a DatasetReader from the MovieLens 20M dataset, parsing the genome score and rating files on several threads
+	 * @param itemFile the path of the file containing item descriptions
+	 * @param itemGenomeScoresFile the path of the file containing item genome scores
+	 * @param trainFile the path of the file containing the training user-item ratings
+	 * @param testFile the path of the file containing the test user-item ratings
+	 * @param numThreads the number of threads used to parse the genome score and rating files (1 reads them sequentially)
+	 */
+	public DatasetReader(final String itemFile, final String itemGenomeScoresFile, final String trainFile, final String testFile, final int numThreads) {
+		sourceFiles = new String[] { itemFile, itemGenomeScoresFile, trainFile, testFile };
 		loadItemsML20M(itemFile); // must be called before loadProfiles()
-		loadProfiles(trainFile);
-		loadTestData(testFile);
+		loadProfiles(trainFile, numThreads);
+		loadTestData(testFile, numThreads);
+		buildDictionaries();
+		buildRatingMatrices();
+		loadGenomeScoresML20M(itemGenomeScoresFile, numThreads); // must be called after buildDictionaries()
 	}
 
 	/**
@@ -104,11 +220,23 @@ public class DatasetReader {
 	}
 
 	/**
-	 * Returns genome scores for all the items loaded.
+	 * Returns genome scores for all the items loaded - the profiles are built from the genome matrix on each call.
 	 * @return a HashMap containing item profiles
 	 */
 	public Map<Integer,Profile> getItemGenomeScores() {
-		return itemGenomeScoresMap;
+		Map<Integer,Profile> genomeScores = new HashMap<Integer,Profile>();
+		for (int row = 0; row < genomeMatrix.getNumRows(); row++)
+			if (genomeMatrix.hasScores(row))
+				genomeScores.put(genomeMatrix.getItemDictionary().getId(row), genomeMatrix.toProfile(row));
+		return genomeScores;
+	}
+
+	/**
+	 * Returns the genome scores of all items as a dense matrix.
+	 * @return the genome matrix - rows are indexed by the item dictionary (it has no columns for MovieLens 100K)
+	 */
+	public GenomeMatrix getGenomeMatrix() {
+		return genomeMatrix;
 	}
 
 	/**
@@ -123,44 +251,163 @@ public class DatasetReader {
 		return testProfileMap;
 	}
 
+	/**
+	 * Returns the dictionary mapping user ids to dense indices.
+	 * @return an IdDictionary over all user ids loaded
+	 */
+	public IdDictionary getUserDictionary() {
+		return userDictionary;
+	}
+
+	/**
+	 * Returns the dictionary mapping item ids to dense indices.
+	 * @return an IdDictionary over all item ids loaded
+	 */
+	public IdDictionary getItemDictionary() {
+		return itemDictionary;
+	}
+
+	/**
+	 * Returns the dictionary mapping genres to the bits of the items' genre masks.
+	 * @return a GenreDictionary over the genres of all items loaded
+	 */
+	public GenreDictionary getGenreDictionary() {
+		return genreDictionary;
+	}
+
+	/**
+	 * Returns the training ratings as a user-major compressed sparse row matrix.
+	 * Rows and columns are the dense indices of the user and item dictionaries.
+	 * @return a RatingMatrix with one row per user
+	 */
+	public RatingMatrix getUserItemMatrix() {
+		if (ratingMatricesStale)
+			updateRatingMatrices();
+		return userItemMatrix;
+	}
+
+	/**
+	 * Returns the training ratings as an item-major (compressed sparse column) matrix.
+	 * Rows and columns are the dense indices of the item and user dictionaries.
+	 * @return a RatingMatrix with one row per item
+	 */
+	public RatingMatrix getItemUserMatrix() {
+		if (ratingMatricesStale)
+			updateRatingMatrices();
+		return itemUserMatrix;
+	}
+
+	/**
+	 * Returns a 64-bit fingerprint of the data that models are trained on - the training ratings, the items' genres
+	 * and the genome scores (not the test data). Equal data gives equal fingerprints however it was loaded, as each
+	 * rating, genre and score is hashed on its own and the hashes are summed; any change to the data almost surely
+	 * changes the fingerprint. Used to key results persisted between runs, e.g. by MappedSimilarityMap.
+	 * @return the fingerprint
+	 */
+	public long getFingerprint() {
+		Long f = fingerprint;
+		if (f == null) {
+			f = computeFingerprint();
+			fingerprint = f;
+		}
+		return f;
+	}
+
+	/**
+	 * Adds a training rating (or replaces an existing one) and notifies all registered listeners.
+	 * New users and items are appended to the dictionaries, so existing dense indices do not change.
+	 * @param userId - the user's ID
+	 * @param itemId - the item's ID
+	 * @param rating - the rating
+	 */
+	public void addRating(final int userId, final int itemId, final double rating) {
+		addRatings(Collections.singletonList(new Rating(userId, itemId, rating)));
+	}
+
+	/**
+	 * Adds a batch of training ratings (or replaces existing ones). The profiles and dictionaries are updated
+	 * for the whole batch before the registered listeners are notified of each rating in order.
+	 * The rating matrices are rebuilt the next time they are requested.
+	 * @param ratings - the ratings
+	 */
+	public synchronized void addRatings(final Collection<Rating> ratings) {
+		int n = ratings.size();
+		int[] users = new int[n];
+		int[] items = new int[n];
+		double[] previous = new double[n];
+
+		int k = 0;
+		for (Rating rating : ratings) {
+			Profile up = userProfileMap.get(rating.getUserId());
+			previous[k] = (up != null) ? up.getDouble(rating.getItemId()) : Double.NaN;
+			users[k] = rating.getUserId();
+			items[k] = rating.getItemId();
+			addTrainingRating(rating.getUserId(), rating.getItemId(), rating.getRating());
+			k++;
+		}
+
+		// extend the dictionaries copy-on-write - structures holding the old dictionaries remain consistent
+		userDictionary = userDictionary.extend(users);
+		itemDictionary = itemDictionary.extend(items);
+		ratingMatricesStale = true;
+		fingerprint = null;
+
+		k = 0;
+		for (Rating rating : ratings) {
+			for (RatingListener listener : listeners)
+				listener.ratingAdded(rating.getUserId(), rating.getItemId(), rating.getRating(), previous[k]);
+			k++;
+		}
+	}
+
+	/**
+	 * Registers a listener to be notified of ratings added after loading
+	 * @param listener - the listener
+	 */
+	public synchronized void addRatingListener(final RatingListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener
+	 * @param listener - the listener
+	 */
+	public synchronized void removeRatingListener(final RatingListener listener) {
+		listeners.remove(listener);
+	}
+
 	/**
 	 * Loads all user and item profiles.
 	 * @param the path of the file containing the training user-item ratings
+	 * @param numThreads the number of threads used to parse the file
 	 */
-	private void loadProfiles(final String filename) {
+	private void loadProfiles(final String filename, final int numThreads) {
 		
 		userProfileMap = new HashMap<Integer,Profile>();
 		itemProfileMap = new HashMap<Integer,Profile>();
 
-		try	{
-			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-			String line;
-			while ((line = br.readLine()) != null) {
-				
-				StringTokenizer st = new StringTokenizer(line, ", \t\n\r\f");
-				if(st.countTokens() != 3) {
-					System.out.println("Error reading from file \"" + filename + "\"");
-					System.exit(1);
-				}
-
-				Integer userId = Integer.valueOf(st.nextToken());
-				Integer itemId = Integer.valueOf(st.nextToken());
-				Double rating = Double.valueOf(st.nextToken());
-
-				// add data to user profile map
-				Profile up = userProfileMap.containsKey(userId) ? userProfileMap.get(userId) : new Profile(userId);
-				up.addValue(itemId, rating);
-				userProfileMap.put(userId, up);
-
-				// add data to item profile map
-				Profile ip = itemProfileMap.containsKey(itemId) ? itemProfileMap.get(itemId) : new Profile(itemId);
-				ip.addValue(userId, rating);
-				itemProfileMap.put(itemId, ip);
-			}
+		List<ChunkedTripleReader.Chunk> chunks = readChunks(new ChunkedTripleReader(filename, false, false), numThreads);
+		if (numThreads <= 1) {
+			for (ChunkedTripleReader.Chunk chunk : chunks)
+				for (int i = 0; i < chunk.size(); i++)
+					addTrainingRating(chunk.getFirst(i), chunk.getSecond(i), chunk.getThird(i));
+			return;
+		}
 
-			br.close();
+		// the user and item profile maps are independent, so they are filled concurrently - each in file order
+		Thread itemThread = new Thread(() -> {
+			for (ChunkedTripleReader.Chunk chunk : chunks)
+				for (int i = 0; i < chunk.size(); i++)
+					addItemRating(chunk.getSecond(i), chunk.getFirst(i), chunk.getThird(i));
+		});
+		itemThread.start();
+		for (ChunkedTripleReader.Chunk chunk : chunks)
+			for (int i = 0; i < chunk.size(); i++)
+				addUserRating(chunk.getFirst(i), chunk.getSecond(i), chunk.getThird(i));
+		try {
+			itemThread.join();
 		}
-		catch(IOException e) {
+		catch(InterruptedException e) {
 			e.printStackTrace();
 			System.exit(0);
 		}
@@ -169,32 +416,17 @@ public class DatasetReader {
 	/**
 	 * Loads all test data.
 	 * @param the path of the file containing the training user-item ratings
+	 * @param numThreads the number of threads used to parse the file
 	 */
-	private void loadTestData(final String filename) {
+	private void loadTestData(final String filename, final int numThreads) {
 		testData = new HashMap<UserItemPair,Double>();
 
-		try	{
-			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-			String line;
-			while ((line = br.readLine()) != null) {
-				StringTokenizer st = new StringTokenizer(line, ", \t\n\r\f");
-				if(st.countTokens() != 2 && st.countTokens() != 3) {
-					System.out.println("Error reading from file \"" + filename + "\"");
-					System.exit(1);
-				}
-
-				Integer userId = Integer.valueOf(st.nextToken());
-				Integer itemId = Integer.valueOf(st.nextToken());
-				Double rating = (st.countTokens() == 1) ? Double.valueOf(st.nextToken()) : null; // check to see if one more token (i.e. the rating) remains
-				testData.put(new UserItemPair(userId, itemId), rating);	// add data to user test data map
+		List<ChunkedTripleReader.Chunk> chunks = readChunks(new ChunkedTripleReader(filename, false, true), numThreads);
+		for (ChunkedTripleReader.Chunk chunk : chunks)
+			for (int i = 0; i < chunk.size(); i++) {
+				double rating = chunk.getThird(i); // NaN if the line has no rating
+				addTestRating(chunk.getFirst(i), chunk.getSecond(i), Double.isNaN(rating) ? null : Double.valueOf(rating));
 			}
-
-			br.close();
-		}
-		catch(IOException e) {
-			e.printStackTrace();
-			System.exit(0);
-		}
 		createTestProfiles();
 	}
 
@@ -209,17 +441,17 @@ public class DatasetReader {
 		try	{
 			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
 			String line;
+			long lineNumber = 0;
 			while ((line = br.readLine()) != null) {
+				lineNumber++;
 				StringTokenizer st = new StringTokenizer(line, "|");
-				if(st.countTokens() < 2) {
-					System.out.println("Error reading from file \"" + filename + "\"");
-					System.exit(1);
-				}
+				if(st.countTokens() < 2)
+					throw new DatasetFormatException(filename, lineNumber, "expected an ID and a name");
 
-				Integer id = Integer.valueOf(st.nextToken());
+				Integer id = parseId(st.nextToken(), filename, lineNumber);
 				String name = st.nextToken();
 				Item item = new Item(id, name);
-				itemMap.put(id, item);
+				addItem(item);
 			}
 
 			br.close();
@@ -241,12 +473,16 @@ public class DatasetReader {
 		try	{
 			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
 			String line;
+			long lineNumber = 0;
 			while ((line = br.readLine()) != null) {
+				lineNumber++;
 				
 				int firstIndex = line.indexOf(",");
 				int lastIndex = line.lastIndexOf(",");
+				if (firstIndex < 0 || firstIndex == lastIndex)
+					throw new DatasetFormatException(filename, lineNumber, "expected an ID, a title and genres");
 
-				Integer movieId = Integer.valueOf(line.substring(0, firstIndex));
+				Integer movieId = parseId(line.substring(0, firstIndex), filename, lineNumber);
 				String title = line.substring(firstIndex + 1, lastIndex);
 				String genreStr = line.substring(lastIndex + 1);
 
@@ -254,17 +490,15 @@ public class DatasetReader {
 				Set<String> genres = new HashSet<String>();
 				StringTokenizer st = new StringTokenizer(genreStr, "|");
 				int ntokens = st.countTokens();
-				if(ntokens < 1) {
-					System.out.println("Error reading from file \"" + filename + "\"");
-					System.exit(1);
-				}
+				if(ntokens < 1)
+					throw new DatasetFormatException(filename, lineNumber, "expected at least one genre");
 
 				for (int i = 0; i < ntokens; i++)
 					genres.add(st.nextToken());
 
 				// create and add Item object
-				Item item = new Item(movieId, title, genres, itemGenomeScoresMap.get(movieId));
-				itemMap.put(movieId, item);
+				Item item = new Item(movieId, title, genres, null); // genome scores are attached by loadGenomeScoresML20M()
+				addItem(item);
 			}
 
 			br.close();
@@ -278,40 +512,257 @@ public class DatasetReader {
 	/**
 	 * Used for dataset MovieLens 20M
 	 * @param filename
+	 * @param numThreads the number of threads used to parse the file
 	 */
-	private void loadGenomeScoresML20M(final String filename) {
-		itemGenomeScoresMap = new HashMap<Integer,Profile>(); 
-
-		try	{
-			BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-			String line;
-			br.readLine(); // read header line
-			while ((line = br.readLine()) != null) {
-				StringTokenizer st = new StringTokenizer(line, ",");
-				int ntokens = st.countTokens();
-				if(ntokens != 3) {
-					System.out.println("Error reading from file \"" + filename + "\"");
-					System.exit(1);
+	private void loadGenomeScoresML20M(final String filename, final int numThreads) {
+		List<ChunkedTripleReader.Chunk> chunks = readChunks(new ChunkedTripleReader(filename, true, false), numThreads); // skip the header line
+
+		// the tag IDs determine the matrix columns
+		IntDoubleMap tagIds = new IntDoubleMap();
+		for (ChunkedTripleReader.Chunk chunk : chunks)
+			for (int i = 0; i < chunk.size(); i++)
+				tagIds.put(chunk.getSecond(i), 0);
+		List<Integer> tags = new ArrayList<Integer>();
+		for (int i = 0; i < tagIds.size(); i++)
+			tags.add(tagIds.keyAt(i));
+		IdDictionary tagDictionary = new IdDictionary(tags);
+
+		// scores of items that are neither in the item file nor rated are dropped
+		int ntags = tagDictionary.size();
+		float[] scores = new float[itemDictionary.size() * ntags];
+		boolean[] hasScores = new boolean[itemDictionary.size()];
+		for (ChunkedTripleReader.Chunk chunk : chunks)
+			for (int i = 0; i < chunk.size(); i++) {
+				int row = itemDictionary.getIndex(chunk.getFirst(i));
+				if (row >= 0) {
+					scores[row * ntags + tagDictionary.getIndex(chunk.getSecond(i))] = (float) chunk.getThird(i);
+					hasScores[row] = true;
 				}
-
-				Integer movieId = Integer.valueOf(st.nextToken());
-				Integer tagId = Integer.valueOf(st.nextToken());
-				Double relevance = Double.valueOf(st.nextToken());
-
-				Profile p = (itemGenomeScoresMap.containsKey(movieId) ? itemGenomeScoresMap.get(movieId) : new Profile(movieId));
-				p.addValue(tagId, relevance);
-				itemGenomeScoresMap.put(movieId, p);
 			}
-
-			br.close();
+		setGenomeMatrix(new GenomeMatrix(itemDictionary, tagDictionary, scores, hasScores));
+	}
+	
+	// Additional functionality
+	
+	/**
+	 * Parses an item ID
+	 * @param token - the text of the ID
+	 * @param filename - the file being read
+	 * @param lineNumber - the line being read
+	 * @return the ID
+	 * @throws DatasetFormatException if the text is not an integer
+	 */
+	private static Integer parseId(final String token, final String filename, final long lineNumber) {
+		try {
+			return Integer.valueOf(token.trim());
+		}
+		catch(NumberFormatException e) {
+			throw new DatasetFormatException(filename, lineNumber, "invalid ID: " + token);
+		}
+	}
+	
+	/**
+	 * Parses a file of triples
+	 * @param reader - the reader for the file
+	 * @param numThreads - the number of threads
+	 * @return the parsed chunks in file order
+	 * @throws DatasetFormatException if the file contains a malformed line
+	 * @throws UncheckedIOException if the file cannot be read
+	 */
+	private List<ChunkedTripleReader.Chunk> readChunks(final ChunkedTripleReader reader, final int numThreads) {
+		try {
+			return reader.read(numThreads);
 		}
 		catch(IOException e) {
-			e.printStackTrace();
-			System.exit(0);
+			throw new UncheckedIOException(e);
 		}
 	}
 	
-	// Additional functionality
+	/**
+	 * Adds a training rating to the user and item profile maps
+	 * @param userId - the user's ID
+	 * @param itemId - the item's ID
+	 * @param rating - the rating
+	 */
+	void addTrainingRating(final int userId, final int itemId, final double rating) {
+		addUserRating(userId, itemId, rating);
+		addItemRating(itemId, userId, rating);
+	}
+	
+	/**
+	 * Adds a training rating to the user profile map only
+	 * @param userId - the user's ID
+	 * @param itemId - the item's ID
+	 * @param rating - the rating
+	 */
+	void addUserRating(final int userId, final int itemId, final double rating) {
+		Profile up = userProfileMap.get(userId);
+		if (up == null) {
+			up = new Profile(userId);
+			userProfileMap.put(userId, up);
+		}
+		up.addDouble(itemId, rating);
+	}
+	
+	/**
+	 * Adds a training rating to the item profile map only
+	 * @param itemId - the item's ID
+	 * @param userId - the user's ID
+	 * @param rating - the rating
+	 */
+	void addItemRating(final int itemId, final int userId, final double rating) {
+		Profile ip = itemProfileMap.get(itemId);
+		if (ip == null) {
+			ip = new Profile(itemId);
+			itemProfileMap.put(itemId, ip);
+		}
+		ip.addDouble(userId, rating);
+	}
+	
+	/**
+	 * Adds a test rating to the test data map
+	 * @param userId - the user's ID
+	 * @param itemId - the item's ID
+	 * @param rating - the rating (or null if not available)
+	 */
+	void addTestRating(final Integer userId, final Integer itemId, final Double rating) {
+		testData.put(new UserItemPair(userId, itemId), rating);	// add data to user test data map
+	}
+	
+	/**
+	 * Adds an item to the item map
+	 * @param item - the item
+	 */
+	void addItem(final Item item) {
+		itemMap.put(item.getId(), item);
+	}
+	
+	/**
+	 * Sets the genome matrix and attaches it to every item that has genome scores
+	 * @param matrix - the genome matrix (its rows must be indexed by the item dictionary)
+	 */
+	void setGenomeMatrix(final GenomeMatrix matrix) {
+		genomeMatrix = matrix;
+		for (Item item : itemMap.values())
+			if (matrix.getRow(item.getId()) >= 0)
+				item.setGenomeMatrix(matrix);
+	}
+	
+	/**
+	 * @return a genome matrix without any tags - for datasets without genome scores
+	 */
+	private GenomeMatrix createEmptyGenomeMatrix() {
+		return new GenomeMatrix(itemDictionary, new IdDictionary(new ArrayList<Integer>()), new float[0], new boolean[itemDictionary.size()]);
+	}
+	
+	/**
+	 * Completes loading from a snapshot - builds the test profiles, dictionaries and rating matrices
+	 * (the genome matrix is set afterwards, as its rows depend on the item dictionary)
+	 */
+	void finishSnapshotLoading() {
+		createTestProfiles();
+		buildDictionaries();
+		buildRatingMatrices();
+	}
+	
+	/**
+	 * Builds the user, item and genre dictionaries - must be called after all profiles and items have been loaded.
+	 * Items that are rated but missing from the item file are indexed as well.
+	 * Each item's genres are encoded as a bitmask if there are at most 64 genres in total.
+	 */
+	private void buildDictionaries() {
+		userDictionary = new IdDictionary(userProfileMap.keySet());
+		Set<Integer> itemIds = new HashSet<Integer>(itemMap.keySet());
+		itemIds.addAll(itemProfileMap.keySet());
+		itemDictionary = new IdDictionary(itemIds);
+
+		List<Set<String>> genreSets = new ArrayList<Set<String>>();
+		for (Item item : itemMap.values())
+			genreSets.add(item.getGenres());
+		genreDictionary = new GenreDictionary(genreSets);
+		if (genreDictionary.isComplete())
+			for (Item item : itemMap.values())
+				item.setGenreMask(genreDictionary.getMask(item.getGenres()));
+	}
+	
+	/**
+	 * Computes the fingerprint of the training ratings, genres and genome scores
+	 */
+	private synchronized long computeFingerprint() {
+		long[] sum = new long[1];
+		for (Profile p : userProfileMap.values()) {
+			int userId = p.getId();
+			p.forEach((itemId, rating) -> sum[0] += mix(mix(mix(1, userId) ^ itemId) ^ Double.doubleToLongBits(rating)));
+		}
+		for (Item item : itemMap.values())
+			if (item.getGenres() != null)
+				for (String genre : item.getGenres())
+					sum[0] += mix(mix(2, item.getId()) ^ genre.hashCode());
+
+		IdDictionary tags = genomeMatrix.getTagDictionary();
+		float[] scores = genomeMatrix.getScores();
+		for (int row = 0; row < genomeMatrix.getNumRows(); row++) {
+			if (!genomeMatrix.hasScores(row))
+				continue;
+			int itemId = genomeMatrix.getItemDictionary().getId(row);
+			for (int c = 0, offset = genomeMatrix.getRowOffset(row); c < genomeMatrix.getNumTags(); c++)
+				sum[0] += mix(mix(mix(3, itemId) ^ tags.getId(c)) ^ Float.floatToRawIntBits(scores[offset + c]));
+		}
+		return sum[0];
+	}
+
+	/** Combines a hash with a value and spreads every input bit over the output (the MurmurHash3 finaliser) */
+	private static long mix(final long h, final long value) {
+		return mix(h * 0x9E3779B97F4A7C15L + value);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Rebuilds the rating matrices if ratings have been added since they were built
+	 */
+	private synchronized void updateRatingMatrices() {
+		if (ratingMatricesStale) {
+			buildRatingMatrices();
+			ratingMatricesStale = false;
+		}
+	}
+	
+	/**
+	 * Builds the user-item (CSR) and item-user (CSC) rating matrices - must be called after buildDictionaries()
+	 */
+	private void buildRatingMatrices() {
+		int nusers = userDictionary.size();
+		int[] offsets = new int[nusers + 1];
+		for (int u = 0; u < nusers; u++)
+			offsets[u + 1] = offsets[u] + userProfileMap.get(userDictionary.getId(u)).getSize();
+		
+		int[] columns = new int[offsets[nusers]];
+		float[] values = new float[offsets[nusers]];
+		for (int u = 0; u < nusers; u++) {
+			Profile p = userProfileMap.get(userDictionary.getId(u));
+			
+			// pack (item index, rating bits) into longs so that each row can be sorted by item index
+			long[] row = new long[p.getSize()];
+			int[] n = new int[1];
+			p.forEach((itemId, rating) -> row[n[0]++] = ((long) itemDictionary.getIndex(itemId) << 32) | (Float.floatToRawIntBits((float) rating) & 0xffffffffL));
+			Arrays.sort(row);
+			
+			for (int k = 0; k < row.length; k++) {
+				columns[offsets[u] + k] = (int) (row[k] >>> 32);
+				values[offsets[u] + k] = Float.intBitsToFloat((int) row[k]);
+			}
+		}
+		userItemMatrix = new RatingMatrix(nusers, itemDictionary.size(), offsets, columns, values);
+		itemUserMatrix = userItemMatrix.transpose();
+	}
 	
 	private void createTestProfiles() {
 		testProfileMap = new HashMap<Integer,Profile>(); 
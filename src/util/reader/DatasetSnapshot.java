@@ -0,0 +1,253 @@
+package util.reader;
+
+import profile.Profile;
+import util.IdDictionary;
+import util.Item;
+import util.UserItemPair;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes a binary snapshot of a DatasetReader, so that a dataset only has to be parsed from
+ * its text files once. The snapshot records the length and modification time of each source file and is
+ * rejected (read() returns null) if any of them has changed since it was written.
+ *
+ * Layout (big-endian, as written by DataOutputStream):
+ *   header   - MAGIC, VERSION, number of source files, (length, last modified) of each source file
+ *   items    - number of items, then per item: ID, name, number of genres, genres
+ *   users    - number of user profiles, then per profile: ID, number of ratings, (item ID, rating) pairs
+ *   items    - number of item profiles, then per profile: ID, number of ratings, (user ID, rating) pairs
+ *   test     - number of test pairs, then per pair: user ID, item ID, rating (NaN if not available)
+ *   genome   - number of tags, tag IDs, number of items with scores, then per item: ID, one float per tag
+ * Strings are stored as an int byte length followed by UTF-8 bytes. Profiles are stored in insertion
+ * order so that a reader loaded from a snapshot iterates exactly as one parsed from the text files.
+ */
+class DatasetSnapshot {
+
+	private static final int MAGIC = 0x4D4C5353; // "MLSS"
+	private static final int VERSION = 2;
+
+	/**
+	 * Writes a snapshot of a DatasetReader
+	 * @param reader - the reader to be saved
+	 * @param filename - the path of the snapshot file
+	 * @param sourceFiles - the files the reader was loaded from
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	static void write(final DatasetReader reader, final String filename, final String[] sourceFiles) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		try {
+			// header
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(sourceFiles.length);
+			for (String source : sourceFiles) {
+				File f = new File(source);
+				out.writeLong(f.length());
+				out.writeLong(f.lastModified());
+			}
+
+			// items
+			Map<Integer,Item> items = reader.getItems();
+			out.writeInt(items.size());
+			for (Item item : items.values()) {
+				out.writeInt(item.getId());
+				writeString(out, item.getName());
+				Set<String> genres = item.getGenres();
+				out.writeInt(genres.size());
+				for (String genre : genres)
+					writeString(out, genre);
+			}
+
+			writeProfiles(out, reader.getUserProfiles());
+			writeProfiles(out, reader.getItemProfiles());
+
+			// test data
+			Map<UserItemPair,Double> testData = reader.getTestData();
+			out.writeInt(testData.size());
+			for (Map.Entry<UserItemPair,Double> entry : testData.entrySet()) {
+				out.writeInt(entry.getKey().getUserId());
+				out.writeInt(entry.getKey().getItemId());
+				out.writeDouble((entry.getValue() != null) ? entry.getValue().doubleValue() : Double.NaN);
+			}
+
+			// genome matrix - only the rows of items with scores
+			GenomeMatrix genome = reader.getGenomeMatrix();
+			int ntags = genome.getNumTags();
+			out.writeInt(ntags);
+			for (int c = 0; c < ntags; c++)
+				out.writeInt(genome.getTagDictionary().getId(c));
+			int nrows = 0;
+			for (int row = 0; row < genome.getNumRows(); row++)
+				if (genome.hasScores(row))
+					nrows++;
+			out.writeInt(nrows);
+			float[] scores = genome.getScores();
+			for (int row = 0; row < genome.getNumRows(); row++) {
+				if (!genome.hasScores(row))
+					continue;
+				out.writeInt(genome.getItemDictionary().getId(row));
+				for (int c = 0, offset = genome.getRowOffset(row); c < ntags; c++)
+					out.writeFloat(scores[offset + c]);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a snapshot into a new DatasetReader
+	 * @param filename - the path of the snapshot file
+	 * @param sourceFiles - the files the snapshot should have been created from
+	 * @returns the DatasetReader or null if the snapshot does not exist, is stale or cannot be read
+	 */
+	static DatasetReader read(final String filename, final String[] sourceFiles) {
+		if (!new File(filename).isFile())
+			return null;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			// header
+			if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getInt() != sourceFiles.length)
+				return null;
+			for (String source : sourceFiles) {
+				File f = new File(source);
+				long length = in.getLong();
+				long lastModified = in.getLong();
+				if (length != f.length() || lastModified != f.lastModified())
+					return null;
+			}
+
+			DatasetReader reader = new DatasetReader(sourceFiles);
+			boolean ml20m = (sourceFiles.length == 4); // the MovieLens 20M dataset has a genome scores file
+
+			// items - MovieLens 20M items get their genome scores from the genome matrix
+			int nitems = in.getInt();
+			for (int i = 0; i < nitems; i++) {
+				int id = in.getInt();
+				String name = readString(in);
+				int ngenres = in.getInt();
+				Set<String> genres = new HashSet<String>();
+				for (int j = 0; j < ngenres; j++)
+					genres.add(readString(in));
+				reader.addItem(new Item(id, name, genres, ml20m ? null : new Profile(id)));
+			}
+
+			// user profiles
+			int nusers = in.getInt();
+			for (int i = 0; i < nusers; i++) {
+				int userId = in.getInt();
+				int n = in.getInt();
+				for (int j = 0; j < n; j++) {
+					int itemId = in.getInt();
+					reader.addUserRating(userId, itemId, in.getDouble());
+				}
+			}
+
+			// item profiles
+			int nitemProfiles = in.getInt();
+			for (int i = 0; i < nitemProfiles; i++) {
+				int itemId = in.getInt();
+				int n = in.getInt();
+				for (int j = 0; j < n; j++) {
+					int userId = in.getInt();
+					reader.addItemRating(itemId, userId, in.getDouble());
+				}
+			}
+
+			// test data
+			int ntest = in.getInt();
+			for (int i = 0; i < ntest; i++) {
+				int userId = in.getInt();
+				int itemId = in.getInt();
+				double rating = in.getDouble();
+				reader.addTestRating(userId, itemId, Double.isNaN(rating) ? null : Double.valueOf(rating));
+			}
+
+			reader.finishSnapshotLoading();
+
+			// genome matrix - its rows are indexed by the item dictionary built above
+			int ntags = in.getInt();
+			List<Integer> tagIds = new ArrayList<Integer>();
+			for (int c = 0; c < ntags; c++)
+				tagIds.add(in.getInt());
+			IdDictionary itemDictionary = reader.getItemDictionary();
+			float[] scores = new float[itemDictionary.size() * ntags];
+			boolean[] hasScores = new boolean[itemDictionary.size()];
+			int nrows = in.getInt();
+			for (int i = 0; i < nrows; i++) {
+				int row = itemDictionary.getIndex(in.getInt());
+				if (row < 0)
+					return null;
+				in.asFloatBuffer().get(scores, row * ntags, ntags);
+				in.position(in.position() + ntags * Float.BYTES);
+				hasScores[row] = true;
+			}
+
+			if (in.hasRemaining())
+				return null;
+
+			reader.setGenomeMatrix(new GenomeMatrix(itemDictionary, new IdDictionary(tagIds), scores, hasScores));
+			return reader;
+		}
+		catch(IOException | BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			System.out.println("Error reading snapshot file \"" + filename + "\" - reloading from source files");
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a map of profiles, preserving the insertion order of each profile
+	 * @param out - the output stream
+	 * @param profiles - the profiles to be written
+	 */
+	private static void writeProfiles(final DataOutputStream out, final Map<Integer,Profile> profiles) throws IOException {
+		out.writeInt(profiles.size());
+		for (Profile p : profiles.values()) {
+			out.writeInt(p.getId());
+			out.writeInt(p.getSize());
+			IOException[] error = new IOException[1];
+			p.forEach((id, value) -> {
+				try {
+					out.writeInt(id);
+					out.writeDouble(value);
+				}
+				catch(IOException e) {
+					error[0] = e;
+				}
+			});
+			if (error[0] != null)
+				throw error[0];
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,103 @@
+package util.reader;
+
+import profile.Profile;
+import util.IdDictionary;
+
+/**
+ * The genome scores of all items as one dense row-major float matrix - row r holds the relevance of every
+ * genome tag to the item with dense index r (in the reader's item dictionary), and column c is the tag with
+ * dense index c in the tag dictionary. A row occupies the contiguous range
+ * [getRowOffset(r), getRowOffset(r) + getNumTags()) of getScores(), so kernels can scan two rows sequentially.
+ * Items without genome scores have an all-zero row and hasScores() returns false for them.
+ */
+public class GenomeMatrix {
+
+	private final IdDictionary items;   // maps item IDs to rows
+	private final IdDictionary tags;    // maps tag IDs to columns
+	private final float[] scores;       // scores[row * numTags + column] = relevance
+	private final boolean[] hasScores;  // hasScores[row] = true if the item has genome scores
+	private final int numTags;
+
+	/**
+	 * Constructor
+	 * @param items - the item dictionary (rows)
+	 * @param tags - the tag dictionary (columns)
+	 * @param scores - the relevances in row-major order, of length items.size() * tags.size()
+	 * @param hasScores - true for each row that holds genome scores
+	 */
+	public GenomeMatrix(final IdDictionary items, final IdDictionary tags, final float[] scores, final boolean[] hasScores) {
+		this.items = items;
+		this.tags = tags;
+		this.scores = scores;
+		this.hasScores = hasScores;
+		this.numTags = tags.size();
+	}
+
+	/** @returns the item dictionary, mapping item IDs to rows */
+	public IdDictionary getItemDictionary() {
+		return items;
+	}
+
+	/** @returns the tag dictionary, mapping tag IDs to columns */
+	public IdDictionary getTagDictionary() {
+		return tags;
+	}
+
+	/** @returns the number of rows (items) */
+	public int getNumRows() {
+		return items.size();
+	}
+
+	/** @returns the number of columns (tags) */
+	public int getNumTags() {
+		return numTags;
+	}
+
+	/** @returns the backing row-major score array - not a copy, so it must not be modified */
+	public float[] getScores() {
+		return scores;
+	}
+
+	/** @returns the position of the first score of a row in getScores() */
+	public int getRowOffset(final int row) {
+		return row * numTags;
+	}
+
+	/** @returns true if the item in a row has genome scores */
+	public boolean hasScores(final int row) {
+		return hasScores[row];
+	}
+
+	/**
+	 * Get the row of an item
+	 * @param itemId - the item's ID
+	 * @returns the item's row or -1 if the item is unknown or has no genome scores
+	 */
+	public int getRow(final int itemId) {
+		int row = items.getIndex(itemId);
+		return (row >= 0 && hasScores[row]) ? row : -1;
+	}
+
+	/**
+	 * Get a score
+	 * @param row - the item's row
+	 * @param column - the tag's column
+	 * @returns the relevance of the tag to the item
+	 */
+	public float get(final int row, final int column) {
+		return scores[row * numTags + column];
+	}
+
+	/**
+	 * Copies a row into a Profile (tag ID -> relevance)
+	 * @param row - the item's row
+	 * @returns a new profile holding the item's genome scores
+	 */
+	public Profile toProfile(final int row) {
+		Profile p = new Profile(items.getId(row));
+		int offset = row * numTags;
+		for (int c = 0; c < numTags; c++)
+			p.addDouble(tags.getId(c), scores[offset + c]);
+		return p;
+	}
+}
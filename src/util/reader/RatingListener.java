@@ -0,0 +1,18 @@
+package util.reader;
+
+/**
+ * Receives the ratings added to a DatasetReader after it has been loaded, so that structures derived
+ * from the training data (similarity maps, neighbourhoods, models, ...) can be updated incrementally.
+ * Listeners are called after the user and item profiles, their statistics and the dictionaries have been updated.
+ */
+public interface RatingListener {
+
+	/**
+	 * Called for each rating added to the reader
+	 * @param userId - the user's ID
+	 * @param itemId - the item's ID
+	 * @param rating - the new rating
+	 * @param previous - the rating it replaced, or NaN if the user had not rated the item before
+	 */
+	void ratingAdded(int userId, int itemId, double rating, double previous);
+}
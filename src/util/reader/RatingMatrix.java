@@ -0,0 +1,113 @@
+package util.reader;
+
+import java.util.Arrays;
+
+/**
+ * A sparse rating matrix over dense indices in compressed sparse row (CSR) form.
+ * The entries of row r occupy positions [getRowStart(r), getRowEnd(r)) of the column index and value arrays,
+ * with column indices in ascending order. The user-item matrix (user-major, CSR) and the item-user matrix
+ * (item-major, i.e. the compressed sparse column form of the same ratings) are transposes of each other.
+ */
+public class RatingMatrix {
+
+	private final int numRows;
+	private final int numColumns;
+	private final int[] offsets;  // offsets[r] = position of the first entry of row r, offsets[numRows] = number of entries
+	private final int[] columns;  // the column index of each entry
+	private final float[] values; // the value of each entry
+
+	/**
+	 * Constructor
+	 * @param numRows - the number of rows
+	 * @param numColumns - the number of columns
+	 * @param offsets - the row offsets (of length numRows + 1)
+	 * @param columns - the column index of each entry, ascending within each row
+	 * @param values - the value of each entry
+	 */
+	public RatingMatrix(final int numRows, final int numColumns, final int[] offsets, final int[] columns, final float[] values) {
+		this.numRows = numRows;
+		this.numColumns = numColumns;
+		this.offsets = offsets;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	/** @returns the number of rows */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/** @returns the number of columns */
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	/** @returns the number of (non-zero) entries */
+	public int getNumEntries() {
+		return offsets[numRows];
+	}
+
+	/** @returns the position of the first entry in a row */
+	public int getRowStart(final int row) {
+		return offsets[row];
+	}
+
+	/** @returns the position after the last entry in a row */
+	public int getRowEnd(final int row) {
+		return offsets[row + 1];
+	}
+
+	/** @returns the number of entries in a row */
+	public int getRowSize(final int row) {
+		return offsets[row + 1] - offsets[row];
+	}
+
+	/** @returns the column index of the entry at a position */
+	public int getColumn(final int position) {
+		return columns[position];
+	}
+
+	/** @returns the value of the entry at a position */
+	public float getValue(final int position) {
+		return values[position];
+	}
+
+	/**
+	 * Get the value at a row and column
+	 * @param row - a row index
+	 * @param column - a column index
+	 * @returns the value or NaN if there is no entry at the row and column
+	 */
+	public float get(final int row, final int column) {
+		int position = Arrays.binarySearch(columns, offsets[row], offsets[row + 1], column);
+		return (position >= 0) ? values[position] : Float.NaN;
+	}
+
+	/**
+	 * Computes the transpose - turns the CSR form of a matrix into its CSC form and vice versa
+	 * @returns a new RatingMatrix with rows and columns swapped
+	 */
+	public RatingMatrix transpose() {
+		int nnz = getNumEntries();
+		int[] tOffsets = new int[numColumns + 1];
+		int[] tColumns = new int[nnz];
+		float[] tValues = new float[nnz];
+
+		// count the entries in each column
+		for (int k = 0; k < nnz; k++)
+			tOffsets[columns[k] + 1]++;
+		for (int c = 0; c < numColumns; c++)
+			tOffsets[c + 1] += tOffsets[c];
+
+		// scatter the entries - rows are visited in ascending order so each transposed row stays sorted
+		int[] next = Arrays.copyOf(tOffsets, numColumns);
+		for (int r = 0; r < numRows; r++) {
+			for (int k = offsets[r]; k < offsets[r + 1]; k++) {
+				int position = next[columns[k]]++;
+				tColumns[position] = r;
+				tValues[position] = values[k];
+			}
+		}
+		return new RatingMatrix(numColumns, numRows, tOffsets, tColumns, tValues);
+	}
+}
@@ -0,0 +1,14 @@
+package util.reader;
+
+/**
+ * Receives the (int, int, double) triples decoded by a TripleParser
+ */
+public interface TripleConsumer {
+
+	/**
+	 * @param first - the first value of the line (e.g. a user ID)
+	 * @param second - the second value of the line (e.g. an item ID)
+	 * @param third - the third value of the line (e.g. a rating) or NaN if the line has only two values
+	 */
+	void accept(int first, int second, double third);
+}
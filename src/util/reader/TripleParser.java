@@ -0,0 +1,212 @@
+package util.reader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An allocation-free parser for delimited text lines of the form "int, int, decimal" - e.g. (user, item, rating)
+ * or (movie, tag, relevance). Bytes are decoded in place from a ByteBuffer (typically a mapped file), so no
+ * String, tokenizer or boxed number is created per line. Values may be separated by any run of ',', ' ', '\t',
+ * '\r' or '\f' characters, as in the StringTokenizer-based loaders it replaces, and lines end with '\n'.
+ *
+ * Decimals with up to 18 significant digits and no exponent are decoded as mantissa / 10^scale, which is
+ * correctly rounded and so gives exactly the same double as Double.parseDouble(); anything else
+ * falls back to Double.parseDouble().
+ */
+public class TripleParser {
+
+	private static final int MAX_MANTISSA_DIGITS = 18;
+	private static final long MAX_EXACT_MANTISSA = 1L << 53; // larger longs are not exactly representable as doubles
+	private static final double[] POWERS_OF_TEN = new double[23]; // all exactly representable as doubles
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private final String filename;       // used in error messages
+	private final boolean optionalThird; // true if lines may contain only two values
+
+	// parser state - the buffer position after the last decoded value and the line being parsed
+	private int position;
+	private long lineNumber;
+
+	/**
+	 * Constructor
+	 * @param filename - the path of the file being parsed (used in error messages)
+	 * @param optionalThird - true if lines may omit the third value (it is then passed on as NaN)
+	 */
+	public TripleParser(final String filename, final boolean optionalThird) {
+		this.filename = filename;
+		this.optionalThird = optionalThird;
+	}
+
+	/**
+	 * Advances the buffer's position past its first line
+	 * @param buffer - the buffer
+	 */
+	public static void skipLine(final ByteBuffer buffer) {
+		int end = buffer.limit();
+		int pos = buffer.position();
+		while (pos < end && buffer.get(pos) != '\n')
+			pos++;
+		buffer.position(Math.min(pos + 1, end));
+	}
+
+	/**
+	 * Parses all lines between the buffer's position and limit - the buffer's position is not changed
+	 * @param buffer - the buffer (positioned at the start of a line)
+	 * @param firstLineNumber - the line number of the first line in the buffer (used in error messages)
+	 * @param consumer - receives the decoded triples in line order
+	 * @returns the number of lines parsed
+	 * @throws DatasetFormatException if a line is malformed
+	 */
+	public long parse(final ByteBuffer buffer, final long firstLineNumber, final TripleConsumer consumer) {
+		final int end = buffer.limit();
+		position = buffer.position();
+		lineNumber = firstLineNumber;
+
+		while (position < end) {
+			int lineEnd = position;
+			while (lineEnd < end && buffer.get(lineEnd) != '\n')
+				lineEnd++;
+
+			int first = parseInt(buffer, lineEnd);
+			int second = parseInt(buffer, lineEnd);
+			skipDelimiters(buffer, lineEnd);
+			double third;
+			if (position < lineEnd)
+				third = parseDecimal(buffer, lineEnd);
+			else if (optionalThird)
+				third = Double.NaN;
+			else
+				throw error("expected 3 values but found 2");
+			skipDelimiters(buffer, lineEnd);
+			if (position < lineEnd)
+				throw error("expected at most 3 values");
+
+			consumer.accept(first, second, third);
+			position = lineEnd + 1;
+			lineNumber++;
+		}
+		return lineNumber - firstLineNumber;
+	}
+
+	/** Decodes the next value on the line as an int */
+	private int parseInt(final ByteBuffer buffer, final int lineEnd) {
+		skipDelimiters(buffer, lineEnd);
+		if (position >= lineEnd)
+			throw error("missing value");
+
+		int pos = position;
+		boolean negative = false;
+		byte b = buffer.get(pos);
+		if (b == '-' || b == '+') {
+			negative = (b == '-');
+			pos++;
+		}
+
+		long value = 0;
+		int start = pos;
+		while (pos < lineEnd && (b = buffer.get(pos)) >= '0' && b <= '9') {
+			value = value * 10 + (b - '0');
+			if (value > (long) Integer.MAX_VALUE + 1)
+				throw error("integer out of range: " + token(buffer, lineEnd));
+			pos++;
+		}
+		if (pos == start || (pos < lineEnd && !isDelimiter(buffer.get(pos))))
+			throw error("invalid integer: " + token(buffer, lineEnd));
+		if (negative)
+			value = -value;
+		if (value > Integer.MAX_VALUE)
+			throw error("integer out of range: " + token(buffer, lineEnd));
+
+		position = pos;
+		return (int) value;
+	}
+
+	/** Decodes the next value on the line as a double */
+	private double parseDecimal(final ByteBuffer buffer, final int lineEnd) {
+		int pos = position;
+		boolean negative = false;
+		byte b = buffer.get(pos);
+		if (b == '-' || b == '+') {
+			negative = (b == '-');
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;     // significant digits in the mantissa
+		int scale = 0;      // digits after the decimal point
+		boolean point = false;
+		boolean exact = true;
+		int start = pos;
+		for (; pos < lineEnd; pos++) {
+			b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				if (digits == MAX_MANTISSA_DIGITS) {
+					exact = false;
+					continue;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				if (mantissa != 0)
+					digits++;
+				if (point)
+					scale++;
+			}
+			else if (b == '.' && !point)
+				point = true;
+			else if (isDelimiter(b))
+				break;
+			else {
+				exact = false; // e.g. an exponent, "NaN" or "Infinity"
+				while (pos < lineEnd && !isDelimiter(buffer.get(pos)))
+					pos++;
+				break;
+			}
+		}
+		boolean empty = (pos == start) || (pos == start + 1 && point);
+
+		if (exact && !empty && mantissa < MAX_EXACT_MANTISSA && scale < POWERS_OF_TEN.length) {
+			position = pos;
+			double value = mantissa / POWERS_OF_TEN[scale];
+			return negative ? -value : value;
+		}
+
+		// rare - let the JDK deal with it
+		String token = token(buffer, lineEnd);
+		try {
+			double value = Double.parseDouble(token);
+			position = pos;
+			return value;
+		}
+		catch(NumberFormatException e) {
+			throw error("invalid decimal: " + token);
+		}
+	}
+
+	private void skipDelimiters(final ByteBuffer buffer, final int lineEnd) {
+		while (position < lineEnd && isDelimiter(buffer.get(position)))
+			position++;
+	}
+
+	private static boolean isDelimiter(final byte b) {
+		return b == ',' || b == ' ' || b == '\t' || b == '\r' || b == '\f';
+	}
+
+	/** @returns the token starting at the current position (only used on slow and error paths) */
+	private String token(final ByteBuffer buffer, final int lineEnd) {
+		int end = position;
+		while (end < lineEnd && !isDelimiter(buffer.get(end)))
+			end++;
+		byte[] bytes = new byte[end - position];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(position + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private DatasetFormatException error(final String reason) {
+		return new DatasetFormatException(filename, lineNumber, reason);
+	}
+}